@@ -3,6 +3,8 @@ package dev.mayuna.timestop.config;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
+
 @Getter @Setter
 public class EncryptionConfig {
 
@@ -10,4 +12,8 @@ public class EncryptionConfig {
     private int symmetricKeySize = 256;
     public String asymmetricKeyType = "RSA";
     public String symmetricKeyType = "AES";
+    private KeyExchangeType keyExchangeType = KeyExchangeType.RSA;
+    private SymmetricCipherType symmetricCipherType = SymmetricCipherType.AES;
+    private long symmetricKeyGracePeriod = 30_000; // How long the previous symmetric key is accepted after a rotation, in milliseconds
+    private List<SymmetricCipherType> supportedSymmetricCipherTypes = SymmetricCipherType.getPreferredForHardware(); // Offered during key exchange, the most preferred first
 }
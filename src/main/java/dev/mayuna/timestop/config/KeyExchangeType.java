@@ -0,0 +1,97 @@
+package dev.mayuna.timestop.config;
+
+import lombok.Getter;
+
+import javax.crypto.KeyAgreement;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * Ways of establishing the symmetric key during the key exchange
+ */
+@Getter
+public enum KeyExchangeType {
+
+    /**
+     * The symmetric key is generated by one side and sent encrypted using the other side's RSA public key ({@link EncryptionConfig#getAsymmetricKeyType()}).
+     * Slow key pair generation and decryption.
+     */
+    RSA(null, null),
+
+    /**
+     * Both sides exchange X25519 public keys and derive the symmetric key from the shared secret using HKDF. Fast, requires Java 11 or newer.
+     */
+    X25519("X25519", "X25519"),
+
+    /**
+     * Both sides exchange ECDH public keys on the NIST P-256 curve and derive the symmetric key from the shared secret using HKDF.
+     */
+    ECDH_P256("EC", "ECDH") {
+        @Override
+        public AlgorithmParameterSpec createParameterSpec() {
+            return new ECGenParameterSpec("secp256r1");
+        }
+    };
+
+    private final String keyAlgorithm;
+    private final String agreementAlgorithm;
+
+    KeyExchangeType(String keyAlgorithm, String agreementAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.agreementAlgorithm = agreementAlgorithm;
+    }
+
+    /**
+     * Checks if the symmetric key is derived from a key agreement (and not sent encrypted)
+     *
+     * @return If the key exchange uses key agreement
+     */
+    public boolean isKeyAgreement() {
+        return agreementAlgorithm != null;
+    }
+
+    /**
+     * Checks if the key exchange is supported by the current Java runtime
+     *
+     * @return If the key exchange is available
+     */
+    public boolean isAvailable() {
+        if (!isKeyAgreement()) {
+            return true;
+        }
+
+        try {
+            KeyAgreement.getInstance(agreementAlgorithm);
+            return true;
+        } catch (GeneralSecurityException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets key exchange type by its name
+     *
+     * @param name Name of the key exchange type ({@link #name()})
+     *
+     * @return The key exchange type or null if there's no key exchange type with such name
+     */
+    public static KeyExchangeType fromName(String name) {
+        for (KeyExchangeType keyExchangeType : values()) {
+            if (keyExchangeType.name().equals(name)) {
+                return keyExchangeType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates parameter spec for the key pair generator
+     *
+     * @return Parameter spec (null if the algorithm does not need one)
+     */
+    public AlgorithmParameterSpec createParameterSpec() {
+        return null;
+    }
+}
@@ -0,0 +1,169 @@
+package dev.mayuna.timestop.config;
+
+import lombok.Getter;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Symmetric ciphers that can be used for encrypting the communication
+ */
+@Getter
+public enum SymmetricCipherType {
+
+    /**
+     * AES with the provider's default mode (ECB with PKCS5 padding), without authentication. Kept for compatibility.
+     */
+    AES("AES", "AES", 0, 0),
+
+    /**
+     * AES in Galois/Counter mode. Authenticated, tampered or corrupted data is rejected during decryption.
+     */
+    AES_GCM("AES", "AES/GCM/NoPadding", 12, 16) {
+        @Override
+        public AlgorithmParameterSpec createParameterSpec(byte[] nonce) {
+            return new GCMParameterSpec(getTagLength() * 8, nonce);
+        }
+    },
+
+    /**
+     * ChaCha20 with Poly1305 authenticator. Authenticated, faster than AES on hardware without AES acceleration. Requires Java 11 or newer.
+     */
+    CHACHA20_POLY1305("ChaCha20", "ChaCha20-Poly1305", 12, 16) {
+        @Override
+        public AlgorithmParameterSpec createParameterSpec(byte[] nonce) {
+            return new IvParameterSpec(nonce);
+        }
+    };
+
+    private final String keyAlgorithm;
+    private final String transformation;
+    private final int nonceLength;
+    private final int tagLength; // Authentication tag appended to the encrypted data
+
+    SymmetricCipherType(String keyAlgorithm, String transformation, int nonceLength, int tagLength) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.transformation = transformation;
+        this.nonceLength = nonceLength;
+        this.tagLength = tagLength;
+    }
+
+    /**
+     * Checks if the cipher requires a nonce (and authenticates the data)
+     *
+     * @return If the cipher requires a nonce
+     */
+    public boolean requiresNonce() {
+        return nonceLength > 0;
+    }
+
+    /**
+     * Checks if the cipher is supported by the current Java runtime
+     *
+     * @return If the cipher is available
+     */
+    public boolean isAvailable() {
+        try {
+            Cipher.getInstance(transformation);
+            return true;
+        } catch (GeneralSecurityException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets cipher by its name
+     *
+     * @param name Name of the cipher ({@link #name()})
+     *
+     * @return The cipher or null if there's no cipher with such name (e.g. sent by newer version)
+     */
+    public static SymmetricCipherType fromName(String name) {
+        for (SymmetricCipherType cipherType : values()) {
+            if (cipherType.name().equals(name)) {
+                return cipherType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets names of the given ciphers, so they can be sent over the network
+     *
+     * @param cipherTypes Ciphers
+     *
+     * @return Names of the ciphers
+     */
+    public static String[] toNames(List<SymmetricCipherType> cipherTypes) {
+        String[] names = new String[cipherTypes.size()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = cipherTypes.get(i).name();
+        }
+
+        return names;
+    }
+
+    /**
+     * Chooses the first offered cipher that is also supported and available on this side
+     *
+     * @param offeredNames Names of the ciphers offered by the other side, the most preferred first
+     * @param supported    Ciphers supported by this side
+     *
+     * @return The cipher or null if there's no common cipher
+     */
+    public static SymmetricCipherType negotiate(String[] offeredNames, List<SymmetricCipherType> supported) {
+        if (offeredNames == null) {
+            return null;
+        }
+
+        for (String offeredName : offeredNames) {
+            SymmetricCipherType cipherType = fromName(offeredName);
+
+            if (cipherType != null && supported.contains(cipherType) && cipherType.isAvailable()) {
+                return cipherType;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets available authenticated ciphers ordered by their expected speed on the current hardware. Java does not expose whether the CPU has
+     * AES instructions, so 32-bit ARM (which usually does not) prefers ChaCha20-Poly1305 and everything else prefers AES-GCM.
+     *
+     * @return Ciphers, the fastest first
+     */
+    public static List<SymmetricCipherType> getPreferredForHardware() {
+        String architecture = System.getProperty("os.arch", "").toLowerCase();
+        boolean preferChaCha = architecture.startsWith("arm") && !architecture.contains("64");
+
+        List<SymmetricCipherType> cipherTypes = new ArrayList<>();
+
+        for (SymmetricCipherType cipherType : preferChaCha ? Arrays.asList(CHACHA20_POLY1305, AES_GCM) : Arrays.asList(AES_GCM, CHACHA20_POLY1305)) {
+            if (cipherType.isAvailable()) {
+                cipherTypes.add(cipherType);
+            }
+        }
+
+        return cipherTypes;
+    }
+
+    /**
+     * Creates parameter spec for the given nonce
+     *
+     * @param nonce Nonce
+     *
+     * @return Parameter spec (null if the cipher does not use a nonce)
+     */
+    public AlgorithmParameterSpec createParameterSpec(byte[] nonce) {
+        return null;
+    }
+}
@@ -13,4 +13,8 @@ public class FailedToDecryptPacketException extends RuntimeException {
     public FailedToDecryptPacketException(Connection connection) {
         super("Failed to decrypt packet from connection " + connection.toString());
     }
+
+    public FailedToDecryptPacketException(Connection connection, Throwable cause) {
+        super("Failed to decrypt packet from connection " + connection.toString(), cause);
+    }
 }
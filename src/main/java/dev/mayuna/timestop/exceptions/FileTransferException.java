@@ -0,0 +1,15 @@
+package dev.mayuna.timestop.exceptions;
+
+import dev.mayuna.timestop.Generated;
+
+@Generated
+public class FileTransferException extends RuntimeException {
+
+    public FileTransferException(String message) {
+        super(message);
+    }
+
+    public FileTransferException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
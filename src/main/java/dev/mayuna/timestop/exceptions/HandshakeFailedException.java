@@ -0,0 +1,15 @@
+package dev.mayuna.timestop.exceptions;
+
+import dev.mayuna.timestop.Generated;
+
+@Generated
+public class HandshakeFailedException extends RuntimeException {
+
+    public HandshakeFailedException(String message) {
+        super(message);
+    }
+
+    public HandshakeFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
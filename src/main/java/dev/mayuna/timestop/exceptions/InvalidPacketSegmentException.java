@@ -0,0 +1,11 @@
+package dev.mayuna.timestop.exceptions;
+
+import dev.mayuna.timestop.Generated;
+
+@Generated
+public class InvalidPacketSegmentException extends RuntimeException {
+
+    public InvalidPacketSegmentException(String message) {
+        super(message);
+    }
+}
@@ -1,19 +1,28 @@
 package dev.mayuna.timestop.managers;
 
 import dev.mayuna.timestop.config.EncryptionConfig;
+import dev.mayuna.timestop.config.KeyExchangeType;
+import dev.mayuna.timestop.config.SymmetricCipherType;
+import dev.mayuna.timestop.utils.HKDF;
 import lombok.Getter;
-import lombok.var;
 
 import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.*;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class manages the encryption keys
@@ -21,10 +30,25 @@ import java.security.spec.X509EncodedKeySpec;
 @Getter
 public class EncryptionManager {
 
+    /**
+     * Maximum number of initialized ciphers cached per thread
+     */
+    public static int CIPHER_CACHE_SIZE = 64;
+
+    private static final ThreadLocal<Map<CipherCacheKey, Cipher>> cipherCache = ThreadLocal.withInitial(() -> new LinkedHashMap<CipherCacheKey, Cipher>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CipherCacheKey, Cipher> eldest) {
+            return size() > CIPHER_CACHE_SIZE;
+        }
+    });
+
     private final EncryptionConfig encryptionConfig;
 
+    private final int noncePrefix = new SecureRandom().nextInt();
+    private final AtomicLong nonceCounter = new AtomicLong();
+
     private KeyPair asymetricKeyPair;
-    private Key symmetricKey;
+    private final SymmetricKeyRing symmetricKeyRing = new SymmetricKeyRing();
 
     /**
      * Creates a new encryption manager
@@ -35,6 +59,142 @@ public class EncryptionManager {
         this.encryptionConfig = encryptionConfig;
     }
 
+    /**
+     * Encrypts the given data using the given key and cipher
+     *
+     * @param data       The data
+     * @param key        The key
+     * @param cipherType The cipher type
+     * @param nonce      The nonce (null if the cipher does not require it)
+     *
+     * @return The encrypted data (with authentication tag appended, if the cipher is authenticated)
+     *
+     * @throws GeneralSecurityException If the data could not be encrypted
+     */
+    public static byte[] encryptDataUsingKey(byte[] data, Key key, SymmetricCipherType cipherType, byte[] nonce) throws GeneralSecurityException {
+        if (!cipherType.requiresNonce()) {
+            return encryptDataUsingKey(data, key);
+        }
+
+        return doFinal(getCachedCipher(key, Cipher.ENCRYPT_MODE, cipherType, nonce), key, Cipher.ENCRYPT_MODE, cipherType.getTransformation(), data);
+    }
+
+    /**
+     * Decrypts the given data using the given key and cipher. Authenticated ciphers reject tampered or corrupted data with
+     * {@link AEADBadTagException}.
+     *
+     * @param data       The data
+     * @param key        The key
+     * @param cipherType The cipher type
+     * @param nonce      The nonce used for the encryption (null if the cipher does not require it)
+     *
+     * @return The decrypted data
+     *
+     * @throws GeneralSecurityException If the data could not be decrypted
+     */
+    public static byte[] decryptDataUsingKey(byte[] data, Key key, SymmetricCipherType cipherType, byte[] nonce) throws GeneralSecurityException {
+        if (!cipherType.requiresNonce()) {
+            return decryptDataUsingKey(data, key);
+        }
+
+        return doFinal(getCachedCipher(key, Cipher.DECRYPT_MODE, cipherType, nonce), key, Cipher.DECRYPT_MODE, cipherType.getTransformation(), data);
+    }
+
+    /**
+     * Encrypts the input buffer into the output buffer using the given key and cipher. Buffers may be direct, and may share the same backing
+     * array (in-place encryption, output must start at the input position and have room for {@link #getOutputSize(Key, SymmetricCipherType,
+     * int, boolean)} bytes).
+     *
+     * @param input      The input buffer (read from position to limit)
+     * @param output     The output buffer (written from position)
+     * @param key        The key
+     * @param cipherType The cipher type
+     * @param nonce      The nonce (null if the cipher does not require it)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be encrypted (e.g. {@link ShortBufferException} if the output is too small)
+     */
+    public static int encryptDataUsingKey(ByteBuffer input, ByteBuffer output, Key key, SymmetricCipherType cipherType, byte[] nonce) throws GeneralSecurityException {
+        return doFinal(input, output, key, Cipher.ENCRYPT_MODE, cipherType, nonce, null);
+    }
+
+    /**
+     * Encrypts the input buffer into the output buffer using the given key and cipher, authenticating the additional data as well
+     *
+     * @param input          The input buffer (read from position to limit)
+     * @param output         The output buffer (written from position)
+     * @param key            The key
+     * @param cipherType     The cipher type
+     * @param nonce          The nonce (null if the cipher does not require it)
+     * @param additionalData Data that are not encrypted, but must match during the decryption (ignored if the cipher is not authenticated)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be encrypted
+     * @see #encryptDataUsingKey(ByteBuffer, ByteBuffer, Key, SymmetricCipherType, byte[])
+     */
+    public static int encryptDataUsingKey(ByteBuffer input, ByteBuffer output, Key key, SymmetricCipherType cipherType, byte[] nonce, byte[] additionalData) throws GeneralSecurityException {
+        return doFinal(input, output, key, Cipher.ENCRYPT_MODE, cipherType, nonce, additionalData);
+    }
+
+    /**
+     * Decrypts the input buffer into the output buffer using the given key and cipher. Buffers may be direct, and may share the same backing
+     * array (in-place decryption).
+     *
+     * @param input      The input buffer (read from position to limit)
+     * @param output     The output buffer (written from position)
+     * @param key        The key
+     * @param cipherType The cipher type
+     * @param nonce      The nonce used for the encryption (null if the cipher does not require it)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be decrypted
+     */
+    public static int decryptDataUsingKey(ByteBuffer input, ByteBuffer output, Key key, SymmetricCipherType cipherType, byte[] nonce) throws GeneralSecurityException {
+        return doFinal(input, output, key, Cipher.DECRYPT_MODE, cipherType, nonce, null);
+    }
+
+    /**
+     * Decrypts the input buffer into the output buffer using the given key and cipher, verifying the additional data as well
+     *
+     * @param input          The input buffer (read from position to limit)
+     * @param output         The output buffer (written from position)
+     * @param key            The key
+     * @param cipherType     The cipher type
+     * @param nonce          The nonce used for the encryption (null if the cipher does not require it)
+     * @param additionalData Additional data used for the encryption (ignored if the cipher is not authenticated)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be decrypted ({@link AEADBadTagException} if the additional data do not match)
+     * @see #decryptDataUsingKey(ByteBuffer, ByteBuffer, Key, SymmetricCipherType, byte[])
+     */
+    public static int decryptDataUsingKey(ByteBuffer input, ByteBuffer output, Key key, SymmetricCipherType cipherType, byte[] nonce, byte[] additionalData) throws GeneralSecurityException {
+        return doFinal(input, output, key, Cipher.DECRYPT_MODE, cipherType, nonce, additionalData);
+    }
+
+    /**
+     * Gets the maximum number of bytes the encryption or decryption of the given input length produces
+     *
+     * @param key         The key
+     * @param cipherType  The cipher type
+     * @param inputLength The input length
+     * @param encrypt     True for encryption, false for decryption
+     *
+     * @return Maximum output size
+     *
+     * @throws GeneralSecurityException If the cipher could not be initialized
+     */
+    public static int getOutputSize(Key key, SymmetricCipherType cipherType, int inputLength, boolean encrypt) throws GeneralSecurityException {
+        if (cipherType.requiresNonce()) {
+            return encrypt ? inputLength + cipherType.getTagLength() : Math.max(0, inputLength - cipherType.getTagLength());
+        }
+
+        return getCachedCipher(key, encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE).getOutputSize(inputLength);
+    }
+
     /**
      * Encrypts the given data using the given key
      *
@@ -50,9 +210,7 @@ public class EncryptionManager {
      * @throws IllegalBlockSizeException If the block size is illegal
      */
     public static byte[] encryptDataUsingKey(byte[] data, Key key) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher cipher = Cipher.getInstance(key.getAlgorithm());
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        return cipher.doFinal(data);
+        return doFinal(getCachedCipher(key, Cipher.ENCRYPT_MODE), key, Cipher.ENCRYPT_MODE, key.getAlgorithm(), data);
     }
 
     /**
@@ -70,9 +228,180 @@ public class EncryptionManager {
      * @throws InvalidKeyException       If the key is invalid
      */
     public static byte[] decryptDataUsingKey(byte[] data, Key key) throws NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
-        Cipher cipher = Cipher.getInstance(key.getAlgorithm());
-        cipher.init(Cipher.DECRYPT_MODE, key);
-        return cipher.doFinal(data);
+        return doFinal(getCachedCipher(key, Cipher.DECRYPT_MODE), key, Cipher.DECRYPT_MODE, key.getAlgorithm(), data);
+    }
+
+    /**
+     * Gets a cipher initialized with the given key and mode from the current thread's cache. Ciphers without IV (e.g., AES/ECB, RSA) return to
+     * their initialized state after {@link Cipher#doFinal(byte[])}, so they do not have to be looked up and initialized again.
+     *
+     * @param key  The key
+     * @param mode The mode ({@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE})
+     *
+     * @return Initialized cipher
+     *
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     * @throws NoSuchPaddingException   If the padding is not supported
+     * @throws InvalidKeyException      If the key is invalid
+     */
+    private static Cipher getCachedCipher(Key key, int mode) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException {
+        Map<CipherCacheKey, Cipher> cache = cipherCache.get();
+        CipherCacheKey cacheKey = new CipherCacheKey(key, mode, key.getAlgorithm());
+        Cipher cipher = cache.get(cacheKey);
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(key.getAlgorithm());
+            cipher.init(mode, key);
+            cache.put(cacheKey, cipher);
+        }
+
+        return cipher;
+    }
+
+    /**
+     * Gets a cipher from the current thread's cache and initializes it with the given nonce. Ciphers with nonce must be initialized for every
+     * operation, but the provider lookup is skipped.
+     *
+     * @param key        The key
+     * @param mode       The mode ({@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE})
+     * @param cipherType The cipher type
+     * @param nonce      The nonce
+     *
+     * @return Initialized cipher
+     *
+     * @throws GeneralSecurityException If the cipher could not be initialized
+     */
+    private static Cipher getCachedCipher(Key key, int mode, SymmetricCipherType cipherType, byte[] nonce) throws GeneralSecurityException {
+        if (nonce == null || nonce.length != cipherType.getNonceLength()) {
+            throw new InvalidAlgorithmParameterException("Cipher " + cipherType + " requires nonce with length of " + cipherType.getNonceLength() + " bytes");
+        }
+
+        Map<CipherCacheKey, Cipher> cache = cipherCache.get();
+        CipherCacheKey cacheKey = new CipherCacheKey(key, mode, cipherType.getTransformation());
+        Cipher cipher = cache.get(cacheKey);
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(cipherType.getTransformation());
+            cache.put(cacheKey, cipher);
+        }
+
+        AlgorithmParameterSpec parameterSpec = cipherType.createParameterSpec(nonce);
+
+        try {
+            cipher.init(mode, key, parameterSpec);
+        } catch (InvalidKeyException exception) {
+            if (mode != Cipher.DECRYPT_MODE) {
+                cache.remove(cacheKey);
+                throw exception;
+            }
+
+            // Some ciphers (ChaCha20-Poly1305) refuse the key and nonce of the previous initialization even for decryption,
+            // e.g. when the same packet is decrypted again. Fresh cipher accepts it.
+            cipher = Cipher.getInstance(cipherType.getTransformation());
+            cipher.init(mode, key, parameterSpec);
+            cache.put(cacheKey, cipher);
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            cache.remove(cacheKey);
+            throw exception;
+        }
+
+        return cipher;
+    }
+
+    /**
+     * Finishes the operation on the cached cipher. If the operation fails, the cipher is evicted from the cache, so it will not be reused in
+     * unknown state.
+     *
+     * @param cipher         Cached cipher
+     * @param key            The key
+     * @param mode           The mode
+     * @param transformation The transformation
+     * @param data           The data
+     *
+     * @return Processed data
+     *
+     * @throws BadPaddingException       If the padding is bad
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    private static byte[] doFinal(Cipher cipher, Key key, int mode, String transformation, byte[] data) throws BadPaddingException, IllegalBlockSizeException {
+        try {
+            return cipher.doFinal(data);
+        } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exception) {
+            cipherCache.get().remove(new CipherCacheKey(key, mode, transformation));
+            throw exception;
+        }
+    }
+
+    /**
+     * Encrypts or decrypts the input buffer into the output buffer using a cached cipher
+     *
+     * @param input          Input buffer
+     * @param output         Output buffer
+     * @param key            The key
+     * @param mode           The mode
+     * @param cipherType     The cipher type
+     * @param nonce          The nonce
+     * @param additionalData Additional authenticated data (may be null)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be processed
+     */
+    private static int doFinal(ByteBuffer input, ByteBuffer output, Key key, int mode, SymmetricCipherType cipherType, byte[] nonce, byte[] additionalData) throws GeneralSecurityException {
+        if (input == null || output == null) {
+            throw new IllegalArgumentException("Buffers cannot be null");
+        }
+
+        Cipher cipher;
+        String transformation;
+
+        if (cipherType.requiresNonce()) {
+            cipher = getCachedCipher(key, mode, cipherType, nonce);
+            transformation = cipherType.getTransformation();
+        } else {
+            cipher = getCachedCipher(key, mode);
+            transformation = key.getAlgorithm();
+        }
+
+        try {
+            if (additionalData != null && cipherType.requiresNonce()) {
+                cipher.updateAAD(additionalData);
+            }
+
+            return cipher.doFinal(input, output);
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            cipherCache.get().remove(new CipherCacheKey(key, mode, transformation));
+            throw exception;
+        }
+    }
+
+    /**
+     * Generates a new nonce for the configured symmetric cipher. Nonce consists of a random per-manager prefix and a counter, so it is never
+     * repeated for the same key within this manager.
+     *
+     * @return The nonce (empty if the cipher does not require it)
+     */
+    public byte[] nextNonce() {
+        return nextNonce(encryptionConfig.getSymmetricCipherType());
+    }
+
+    /**
+     * Generates a new nonce for the given symmetric cipher
+     *
+     * @param cipherType The cipher type
+     *
+     * @return The nonce (empty if the cipher does not require it)
+     *
+     * @see #nextNonce()
+     */
+    public byte[] nextNonce(SymmetricCipherType cipherType) {
+        int nonceLength = cipherType.getNonceLength();
+
+        if (nonceLength == 0) {
+            return new byte[0];
+        }
+
+        return ByteBuffer.allocate(nonceLength).putInt(noncePrefix).putLong(nonceCounter.getAndIncrement()).array();
     }
 
     /**
@@ -86,7 +415,7 @@ public class EncryptionManager {
      * @throws InvalidKeySpecException  If the key spec is invalid
      */
     public PublicKey loadAsymmetricPublicKeyFromBytes(byte[] publicKeyBytes) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        KeyFactory keyFactory = KeyFactory.getInstance(encryptionConfig.getAsymmetricKeyType());
+        KeyFactory keyFactory = KeyFactory.getInstance(getAsymmetricKeyAlgorithm());
         X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publicKeyBytes);
         return keyFactory.generatePublic(publicKeySpec);
     }
@@ -97,9 +426,117 @@ public class EncryptionManager {
      * @throws NoSuchAlgorithmException If the algorithm is not supported
      */
     public void generateAsymmetricKeyPair() throws NoSuchAlgorithmException {
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance(encryptionConfig.getAsymmetricKeyType());
-        kpg.initialize(encryptionConfig.getAsymmetricKeySize());
-        asymetricKeyPair = kpg.generateKeyPair();
+        asymetricKeyPair = createAsymmetricKeyPair();
+    }
+
+    /**
+     * Creates a new asymmetric key pair for the configured key exchange without storing it in this manager (e.g. ephemeral per-connection
+     * key pairs for key agreement)
+     *
+     * @return The key pair
+     *
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public KeyPair createAsymmetricKeyPair() throws NoSuchAlgorithmException {
+        KeyExchangeType keyExchangeType = encryptionConfig.getKeyExchangeType();
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(getAsymmetricKeyAlgorithm());
+
+        if (!keyExchangeType.isKeyAgreement()) {
+            kpg.initialize(encryptionConfig.getAsymmetricKeySize());
+        } else if (keyExchangeType.createParameterSpec() != null) {
+            try {
+                kpg.initialize(keyExchangeType.createParameterSpec());
+            } catch (InvalidAlgorithmParameterException exception) {
+                throw new NoSuchAlgorithmException("Could not initialize key pair generator for " + keyExchangeType, exception);
+            }
+        }
+
+        return kpg.generateKeyPair();
+    }
+
+    /**
+     * Derives a symmetric key from a key agreement between this manager's asymmetric key pair and the other side's public key
+     *
+     * @param peerPublicKeyBytes The other side's public key bytes
+     * @param salt               Salt for the key derivation, must be the same on both sides
+     * @param cipherType         The cipher type the key will be used with
+     *
+     * @return The symmetric key
+     *
+     * @throws GeneralSecurityException If the key agreement or the key derivation fails
+     */
+    public Key deriveSymmetricKey(byte[] peerPublicKeyBytes, byte[] salt, SymmetricCipherType cipherType) throws GeneralSecurityException {
+        if (asymetricKeyPair == null) {
+            throw new IllegalStateException("Asymmetric key pair has not been generated/loaded yet");
+        }
+
+        return deriveSymmetricKey(asymetricKeyPair.getPrivate(), peerPublicKeyBytes, salt, cipherType);
+    }
+
+    /**
+     * Derives a symmetric key from a key agreement between the given private key and the other side's public key. The shared secret is
+     * passed through HKDF-SHA256 with the cipher's name as context information, so both sides get the same key only if they agreed on the
+     * cipher as well.
+     *
+     * @param privateKey         This side's private key
+     * @param peerPublicKeyBytes The other side's public key bytes
+     * @param salt               Salt for the key derivation, must be the same on both sides
+     * @param cipherType         The cipher type the key will be used with
+     *
+     * @return The symmetric key
+     *
+     * @throws GeneralSecurityException If the key agreement or the key derivation fails
+     */
+    public Key deriveSymmetricKey(PrivateKey privateKey, byte[] peerPublicKeyBytes, byte[] salt, SymmetricCipherType cipherType) throws GeneralSecurityException {
+        KeyExchangeType keyExchangeType = encryptionConfig.getKeyExchangeType();
+
+        if (!keyExchangeType.isKeyAgreement()) {
+            throw new IllegalStateException("Key exchange " + keyExchangeType + " does not use key agreement");
+        }
+
+        KeyAgreement keyAgreement = KeyAgreement.getInstance(keyExchangeType.getAgreementAlgorithm());
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(loadAsymmetricPublicKeyFromBytes(peerPublicKeyBytes), true);
+        byte[] sharedSecret = keyAgreement.generateSecret();
+
+        byte[] info = ("TimeStop " + keyExchangeType.name() + " " + cipherType.name()).getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = HKDF.derive(salt, sharedSecret, info, encryptionConfig.getSymmetricKeySize() / 8);
+        Arrays.fill(sharedSecret, (byte) 0);
+
+        return loadSymmetricKeyFromBytes(keyBytes, cipherType);
+    }
+
+    /**
+     * Derives a new symmetric key from an existing one using HKDF-SHA256 (e.g. fresh key for a resumed session) without asymmetric
+     * operations
+     *
+     * @param sourceKey  The key to derive from
+     * @param salt       Salt for the key derivation, must be the same on both sides
+     * @param label      Purpose of the derived key, keys derived for different purposes are independent
+     * @param cipherType The cipher type the key will be used with
+     *
+     * @return The symmetric key
+     *
+     * @throws GeneralSecurityException If the key derivation fails
+     */
+    public Key deriveSymmetricKey(Key sourceKey, byte[] salt, String label, SymmetricCipherType cipherType) throws GeneralSecurityException {
+        byte[] info = ("TimeStop " + label + " " + cipherType.name()).getBytes(StandardCharsets.UTF_8);
+        return loadSymmetricKeyFromBytes(HKDF.derive(salt, sourceKey.getEncoded(), info, encryptionConfig.getSymmetricKeySize() / 8), cipherType);
+    }
+
+    /**
+     * Gets the key algorithm of the asymmetric keys. RSA key exchange keeps using the configured asymmetric key type.
+     *
+     * @return The key algorithm
+     */
+    private String getAsymmetricKeyAlgorithm() {
+        KeyExchangeType keyExchangeType = encryptionConfig.getKeyExchangeType();
+
+        if (!keyExchangeType.isKeyAgreement()) {
+            return encryptionConfig.getAsymmetricKeyType();
+        }
+
+        return keyExchangeType.getKeyAlgorithm();
     }
 
     /**
@@ -108,9 +545,48 @@ public class EncryptionManager {
      * @throws NoSuchAlgorithmException If the algorithm is not supported
      */
     public void generateSymmetricKey() throws NoSuchAlgorithmException {
-        KeyGenerator keyGen = KeyGenerator.getInstance(encryptionConfig.getSymmetricKeyType());
+        symmetricKeyRing.setKey(createSymmetricKey());
+    }
+
+    /**
+     * Creates a new symmetric key without storing it in this manager (e.g. for per-connection keys)
+     *
+     * @return The symmetric key
+     *
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public Key createSymmetricKey() throws NoSuchAlgorithmException {
+        return createSymmetricKey(encryptionConfig.getSymmetricCipherType());
+    }
+
+    /**
+     * Creates a new symmetric key for the given cipher without storing it in this manager
+     *
+     * @param cipherType The cipher type
+     *
+     * @return The symmetric key
+     *
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    public Key createSymmetricKey(SymmetricCipherType cipherType) throws NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance(getSymmetricKeyType(cipherType));
         keyGen.init(encryptionConfig.getSymmetricKeySize());
-        symmetricKey = keyGen.generateKey();
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Gets the key type for the given cipher. Plain AES keeps using the configured symmetric key type.
+     *
+     * @param cipherType The cipher type
+     *
+     * @return The key type
+     */
+    private String getSymmetricKeyType(SymmetricCipherType cipherType) {
+        if (cipherType == SymmetricCipherType.AES) {
+            return encryptionConfig.getSymmetricKeyType();
+        }
+
+        return cipherType.getKeyAlgorithm();
     }
 
     /**
@@ -145,6 +621,8 @@ public class EncryptionManager {
      * @return The symmetric key
      */
     public byte[] getSymmetricKeyBytes() {
+        Key symmetricKey = getSymmetricKey();
+
         if (symmetricKey == null) {
             throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
         }
@@ -152,6 +630,27 @@ public class EncryptionManager {
         return symmetricKey.getEncoded();
     }
 
+    /**
+     * Gets the current symmetric key
+     *
+     * @return The symmetric key or null if it has not been generated/loaded yet
+     */
+    public Key getSymmetricKey() {
+        return symmetricKeyRing.getCurrentKey();
+    }
+
+    /**
+     * Rotates the symmetric key to the next epoch. The previous key can still be used for decrypting packets tagged with its epoch for
+     * {@link EncryptionConfig#getSymmetricKeyGracePeriod()}.
+     *
+     * @param symmetricKey The new symmetric key
+     *
+     * @return The new epoch
+     */
+    public int rotateSymmetricKey(Key symmetricKey) {
+        return symmetricKeyRing.rotate(symmetricKey, encryptionConfig.getSymmetricKeyGracePeriod());
+    }
+
     /**
      * Checks if the asymmetric key pair has been generated/loaded
      *
@@ -167,7 +666,7 @@ public class EncryptionManager {
      * @return If the symmetric key has been generated/loaded
      */
     public boolean hasSymmetricKey() {
-        return symmetricKey != null;
+        return getSymmetricKey() != null;
     }
 
     /**
@@ -227,7 +726,7 @@ public class EncryptionManager {
             throw new IOException("Private key file at " + privateKeyFile.getAbsolutePath() + " does not exist");
         }
 
-        KeyFactory keyFactory = KeyFactory.getInstance(encryptionConfig.getAsymmetricKeyType());
+        KeyFactory keyFactory = KeyFactory.getInstance(getAsymmetricKeyAlgorithm());
 
         // Load private key
         byte[] privateKeyBytes = Files.readAllBytes(privateKeyFile.toPath());
@@ -249,6 +748,8 @@ public class EncryptionManager {
      * @throws IOException If the file could not be created
      */
     public void saveSymmetricKey(String fileNameWithoutExtension) throws IOException {
+        Key symmetricKey = getSymmetricKey();
+
         if (symmetricKey == null) {
             throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
         }
@@ -282,7 +783,7 @@ public class EncryptionManager {
 
         // Load key
         byte[] keyBytes = Files.readAllBytes(keyFile.toPath());
-        symmetricKey = new SecretKeySpec(keyBytes, "AES");
+        symmetricKeyRing.setKey(loadSymmetricKeyFromBytes(keyBytes));
     }
 
     /**
@@ -341,11 +842,88 @@ public class EncryptionManager {
      * @throws IllegalBlockSizeException If the block size is illegal
      */
     public byte[] encryptUsingSymmetricKey(byte[] data) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Key symmetricKey = getSymmetricKey();
+
         if (symmetricKey == null) {
             throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
         }
 
-        return encryptDataUsingKey(data, symmetricKey);
+        SymmetricCipherType cipherType = encryptionConfig.getSymmetricCipherType();
+
+        if (!cipherType.requiresNonce()) {
+            return encryptDataUsingKey(data, symmetricKey);
+        }
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+
+        // Nonce is prepended to the encrypted data
+        byte[] nonce = nextNonce();
+        byte[] encryptedData = encryptUsingSymmetricKey(data, nonce);
+
+        return ByteBuffer.allocate(nonce.length + encryptedData.length).put(nonce).put(encryptedData).array();
+    }
+
+    /**
+     * Encrypts the given data using the symmetric key and the configured cipher
+     *
+     * @param data  Data
+     * @param nonce Nonce from {@link #nextNonce()} (ignored if the cipher does not require it)
+     *
+     * @return Encrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] encryptUsingSymmetricKey(byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return encryptUsingSymmetricKey(getSymmetricKey(), data, nonce);
+    }
+
+    /**
+     * Encrypts the given data using the given symmetric key (e.g. per-connection key) and the configured cipher
+     *
+     * @param symmetricKey Symmetric key
+     * @param data         Data
+     * @param nonce        Nonce from {@link #nextNonce()} (ignored if the cipher does not require it)
+     *
+     * @return Encrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] encryptUsingSymmetricKey(Key symmetricKey, byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return encryptUsingSymmetricKey(symmetricKey, encryptionConfig.getSymmetricCipherType(), data, nonce);
+    }
+
+    /**
+     * Encrypts the given data using the given symmetric key and cipher (e.g. negotiated for a connection)
+     *
+     * @param symmetricKey Symmetric key
+     * @param cipherType   Cipher type
+     * @param data         Data
+     * @param nonce        Nonce from {@link #nextNonce(SymmetricCipherType)} (ignored if the cipher does not require it)
+     *
+     * @return Encrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] encryptUsingSymmetricKey(Key symmetricKey, SymmetricCipherType cipherType, byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        if (symmetricKey == null) {
+            throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
+        }
+
+        return processUsingSymmetricKey(symmetricKey, cipherType, data, nonce, true);
     }
 
     /**
@@ -362,11 +940,167 @@ public class EncryptionManager {
      * @throws IllegalBlockSizeException If the block size is illegal
      */
     public byte[] decryptUsingSymmetricKey(byte[] data) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Key symmetricKey = getSymmetricKey();
+
+        if (symmetricKey == null) {
+            throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
+        }
+
+        SymmetricCipherType cipherType = encryptionConfig.getSymmetricCipherType();
+
+        if (!cipherType.requiresNonce()) {
+            return decryptDataUsingKey(data, symmetricKey);
+        }
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+
+        if (data.length < cipherType.getNonceLength()) {
+            throw new IllegalBlockSizeException("Data is shorter than the nonce");
+        }
+
+        // Nonce is prepended to the encrypted data
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte[] nonce = new byte[cipherType.getNonceLength()];
+        byte[] encryptedData = new byte[data.length - nonce.length];
+        buffer.get(nonce).get(encryptedData);
+
+        return decryptUsingSymmetricKey(encryptedData, nonce);
+    }
+
+    /**
+     * Decrypts the given data using the symmetric key and the configured cipher
+     *
+     * @param data  Data
+     * @param nonce Nonce used for the encryption (ignored if the cipher does not require it)
+     *
+     * @return Decrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad or the data has been tampered with ({@link AEADBadTagException})
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] decryptUsingSymmetricKey(byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return decryptUsingSymmetricKey(getSymmetricKey(), data, nonce);
+    }
+
+    /**
+     * Decrypts the given data using the given symmetric key (e.g. per-connection key) and the configured cipher
+     *
+     * @param symmetricKey Symmetric key
+     * @param data         Data
+     * @param nonce        Nonce used for the encryption (ignored if the cipher does not require it)
+     *
+     * @return Decrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad or the data has been tampered with ({@link AEADBadTagException})
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] decryptUsingSymmetricKey(Key symmetricKey, byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return decryptUsingSymmetricKey(symmetricKey, encryptionConfig.getSymmetricCipherType(), data, nonce);
+    }
+
+    /**
+     * Decrypts the given data using the given symmetric key and cipher (e.g. negotiated for a connection)
+     *
+     * @param symmetricKey Symmetric key
+     * @param cipherType   Cipher type
+     * @param data         Data
+     * @param nonce        Nonce used for the encryption (ignored if the cipher does not require it)
+     *
+     * @return Decrypted data
+     *
+     * @throws NoSuchAlgorithmException  If the algorithm is not supported
+     * @throws NoSuchPaddingException    If the padding is not supported
+     * @throws InvalidKeyException       If the key is invalid
+     * @throws BadPaddingException       If the padding is bad or the data has been tampered with ({@link AEADBadTagException})
+     * @throws IllegalBlockSizeException If the block size is illegal
+     */
+    public byte[] decryptUsingSymmetricKey(Key symmetricKey, SymmetricCipherType cipherType, byte[] data, byte[] nonce) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        if (symmetricKey == null) {
+            throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
+        }
+
+        return processUsingSymmetricKey(symmetricKey, cipherType, data, nonce, false);
+    }
+
+    /**
+     * Encrypts the input buffer into the output buffer using the given symmetric key and cipher, without allocating intermediate arrays. Input
+     * and output may share the same backing array.
+     *
+     * @param symmetricKey Symmetric key
+     * @param cipherType   Cipher type
+     * @param input        Input buffer (read from position to limit)
+     * @param output       Output buffer (written from position), see {@link #getOutputSize(Key, SymmetricCipherType, int, boolean)}
+     * @param nonce        Nonce from {@link #nextNonce(SymmetricCipherType)} (ignored if the cipher does not require it)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be encrypted
+     */
+    public int encryptUsingSymmetricKey(Key symmetricKey, SymmetricCipherType cipherType, ByteBuffer input, ByteBuffer output, byte[] nonce) throws GeneralSecurityException {
         if (symmetricKey == null) {
             throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
         }
 
-        return decryptDataUsingKey(data, symmetricKey);
+        return encryptDataUsingKey(input, output, symmetricKey, cipherType, nonce);
+    }
+
+    /**
+     * Decrypts the input buffer into the output buffer using the given symmetric key and cipher, without allocating intermediate arrays. Input
+     * and output may share the same backing array.
+     *
+     * @param symmetricKey Symmetric key
+     * @param cipherType   Cipher type
+     * @param input        Input buffer (read from position to limit)
+     * @param output       Output buffer (written from position)
+     * @param nonce        Nonce used for the encryption (ignored if the cipher does not require it)
+     *
+     * @return Number of bytes written into the output buffer
+     *
+     * @throws GeneralSecurityException If the data could not be decrypted
+     */
+    public int decryptUsingSymmetricKey(Key symmetricKey, SymmetricCipherType cipherType, ByteBuffer input, ByteBuffer output, byte[] nonce) throws GeneralSecurityException {
+        if (symmetricKey == null) {
+            throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
+        }
+
+        return decryptDataUsingKey(input, output, symmetricKey, cipherType, nonce);
+    }
+
+    /**
+     * Encrypts or decrypts the given data using the given symmetric key and cipher
+     *
+     * @param symmetricKey Symmetric key
+     * @param cipherType   Cipher type
+     * @param data         Data
+     * @param nonce        Nonce
+     * @param encrypt      True for encryption, false for decryption
+     *
+     * @return Processed data
+     */
+    private byte[] processUsingSymmetricKey(Key symmetricKey, SymmetricCipherType cipherType, byte[] data, byte[] nonce, boolean encrypt) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        if (!cipherType.requiresNonce()) {
+            return encrypt ? encryptDataUsingKey(data, symmetricKey) : decryptDataUsingKey(data, symmetricKey);
+        }
+
+        if (data == null) {
+            throw new IllegalArgumentException("Data cannot be null");
+        }
+
+        try {
+            return encrypt ? encryptDataUsingKey(data, symmetricKey, cipherType, nonce) : decryptDataUsingKey(data, symmetricKey, cipherType, nonce);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException exception) {
+            throw exception;
+        } catch (GeneralSecurityException exception) {
+            throw new InvalidKeyException("Could not initialize cipher " + cipherType, exception);
+        }
     }
 
     /**
@@ -375,6 +1109,60 @@ public class EncryptionManager {
      * @param keyBytes The key bytes
      */
     public void setSymmetricKeyFromBytes(byte[] keyBytes) {
-        symmetricKey = new SecretKeySpec(keyBytes, "AES");
+        symmetricKeyRing.setKey(loadSymmetricKeyFromBytes(keyBytes));
+    }
+
+    /**
+     * Loads the symmetric key from the given bytes without storing it in this manager (e.g. for per-connection keys)
+     *
+     * @param keyBytes The key bytes
+     *
+     * @return The symmetric key
+     */
+    public Key loadSymmetricKeyFromBytes(byte[] keyBytes) {
+        return loadSymmetricKeyFromBytes(keyBytes, encryptionConfig.getSymmetricCipherType());
+    }
+
+    /**
+     * Loads the symmetric key for the given cipher from the given bytes without storing it in this manager
+     *
+     * @param keyBytes   The key bytes
+     * @param cipherType The cipher type
+     *
+     * @return The symmetric key
+     */
+    public Key loadSymmetricKeyFromBytes(byte[] keyBytes, SymmetricCipherType cipherType) {
+        return new SecretKeySpec(keyBytes, getSymmetricKeyType(cipherType));
+    }
+
+    /**
+     * Key of the cipher cache. Keys are compared by identity, so equal keys loaded separately are initialized separately.
+     */
+    private static final class CipherCacheKey {
+
+        private final Key key;
+        private final int mode;
+        private final String transformation;
+
+        private CipherCacheKey(Key key, int mode, String transformation) {
+            this.key = key;
+            this.mode = mode;
+            this.transformation = transformation;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof CipherCacheKey)) {
+                return false;
+            }
+
+            CipherCacheKey other = (CipherCacheKey) object;
+            return key == other.key && mode == other.mode && transformation.equals(other.transformation);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(key) + mode) + transformation.hashCode();
+        }
     }
 }
@@ -0,0 +1,157 @@
+package dev.mayuna.timestop.managers;
+
+import lombok.Getter;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Symmetric key tagged with an epoch, together with the previous keys which are kept for a grace period after a rotation, so packets encrypted
+ * using them that are still in flight can be decrypted. Thread-safe, the keys are swapped atomically.
+ */
+public class SymmetricKeyRing {
+
+    private static final EpochKey[] NO_KEYS = new EpochKey[0];
+
+    private volatile Keys keys = new Keys(new EpochKey(0, null, 0), NO_KEYS);
+
+    /**
+     * Gets the current key with its epoch. Use this (instead of {@link #getCurrentKey()} and {@link #getCurrentEpoch()}) when encrypting, so
+     * the key and the epoch always match.
+     *
+     * @return The current key (its key may be null if no key has been set yet)
+     */
+    public EpochKey getCurrent() {
+        return keys.current;
+    }
+
+    /**
+     * Gets the current key
+     *
+     * @return The current key or null if no key has been set yet
+     */
+    public Key getCurrentKey() {
+        return keys.current.key;
+    }
+
+    /**
+     * Gets the current epoch
+     *
+     * @return The current epoch
+     */
+    public int getCurrentEpoch() {
+        return keys.current.epoch;
+    }
+
+    /**
+     * Gets the key of the given epoch
+     *
+     * @param epoch Epoch
+     *
+     * @return The current key, a previous key if its grace period has not elapsed yet, or null
+     */
+    public Key getKey(int epoch) {
+        Keys keys = this.keys;
+
+        if (keys.current.epoch == epoch) {
+            return keys.current.key;
+        }
+
+        for (EpochKey previousKey : keys.previous) {
+            if (previousKey.epoch == epoch) {
+                return previousKey.isExpired() ? null : previousKey.key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the current key without rotation, the epoch stays the same and the previous keys are forgotten
+     *
+     * @param key The key
+     */
+    public synchronized void setKey(Key key) {
+        keys = new Keys(new EpochKey(keys.current.epoch, key, 0), NO_KEYS);
+    }
+
+    /**
+     * Rotates to the given key with the next epoch. The current key becomes a previous key.
+     *
+     * @param key         The new key
+     * @param gracePeriod How long the previous key can be used for decryption, in milliseconds
+     *
+     * @return The new epoch
+     */
+    public synchronized int rotate(Key key, long gracePeriod) {
+        int epoch = keys.current.epoch + 1;
+        rotate(key, epoch, gracePeriod);
+        return epoch;
+    }
+
+    /**
+     * Rotates to the given key with the given epoch (e.g. epoch chosen by the other side). The current key becomes a previous key, previous keys
+     * with elapsed grace period are forgotten.
+     *
+     * @param key         The new key
+     * @param epoch       The new epoch, must differ from the current one
+     * @param gracePeriod How long the previous key can be used for decryption, in milliseconds
+     */
+    public synchronized void rotate(Key key, int epoch, long gracePeriod) {
+        if (epoch == keys.current.epoch) {
+            throw new IllegalArgumentException("Epoch " + epoch + " is already the current epoch");
+        }
+
+        List<EpochKey> previousKeys = new ArrayList<>(keys.previous.length + 1);
+
+        if (keys.current.key != null) {
+            previousKeys.add(new EpochKey(keys.current.epoch, keys.current.key, System.currentTimeMillis() + gracePeriod));
+        }
+
+        for (EpochKey previousKey : keys.previous) {
+            if (!previousKey.isExpired()) {
+                previousKeys.add(previousKey);
+            }
+        }
+
+        keys = new Keys(new EpochKey(epoch, key, 0), previousKeys.toArray(NO_KEYS));
+    }
+
+    /**
+     * Key with its epoch and, for previous keys, the end of its grace period
+     */
+    @Getter
+    public static class EpochKey {
+
+        private final int epoch;
+        private final Key key;
+        private final long expiresAt; // 0 for the current key
+
+        public EpochKey(int epoch, Key key, long expiresAt) {
+            this.epoch = epoch;
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Checks if the grace period of the previous key has elapsed
+         *
+         * @return If the key has expired
+         */
+        public boolean isExpired() {
+            return expiresAt != 0 && System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    private static class Keys {
+
+        private final EpochKey current;
+        private final EpochKey[] previous;
+
+        private Keys(EpochKey current, EpochKey[] previous) {
+            this.current = current;
+            this.previous = previous;
+        }
+    }
+}
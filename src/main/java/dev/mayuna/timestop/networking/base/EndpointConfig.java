@@ -11,5 +11,7 @@ public class EndpointConfig {
 
     protected int maxThreads = 1;
     protected boolean closeConnectionsOnTranslationException = true;
+    protected float writeBufferHighWatermark = 0.75f; // Ratio of the write buffer size at which messages are queued and connection stops being writable
+    protected float writeBufferLowWatermark = 0.25f; // Ratio of the write buffer size at which connection becomes writable again
 
 }
@@ -1,9 +1,13 @@
 package dev.mayuna.timestop.networking.base;
 
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryonet.Client;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.config.SymmetricCipherType;
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
+import dev.mayuna.timestop.exceptions.HandshakeFailedException;
 import dev.mayuna.timestop.networking.NetworkConstants;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListenerManager;
@@ -11,12 +15,18 @@ import dev.mayuna.timestop.networking.base.listener.TimeStopResponseListener;
 import dev.mayuna.timestop.networking.base.serialization.TimeStopSerialization;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import dev.mayuna.timestop.networking.timestop.TimeStopBatch;
+import dev.mayuna.timestop.networking.timestop.TimeStopHandshake;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 
+import java.security.Key;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -31,6 +41,18 @@ public class TimeStopClient extends Client implements Listener {
     private TimeStopListenerManager listenerManager;
     private TimeStopTranslatorManager translatorManager;
 
+    private final SymmetricKeyRing symmetricKeyRing = new SymmetricKeyRing(); // Used by the encryption translators instead of the encryption manager's keys, when set
+
+    @Setter
+    private volatile SymmetricCipherType symmetricCipherType; // Negotiated cipher, used instead of the configured one, when set
+
+    private TimeStopHandshake handshake;
+    private volatile TimeStopHandshake.State handshakeState;
+
+    private final TimeStopMessagePriorities messagePriorities = new TimeStopMessagePriorities();
+    private final TimeStopOutboundQueue outboundQueue;
+    private final TimeStopSequencedChannels sequencedChannels = new TimeStopSequencedChannels();
+
     /**
      * Creates a new client with the given endpoint config
      *
@@ -41,6 +63,7 @@ public class TimeStopClient extends Client implements Listener {
     public TimeStopClient(EndpointConfig endpointConfig, int writeBufferSize, int objectBufferSize) {
         super(writeBufferSize, objectBufferSize);
         this.endpointConfig = endpointConfig;
+        this.outboundQueue = new TimeStopOutboundQueue(this, super::sendTCP, (int) (writeBufferSize * endpointConfig.getWriteBufferHighWatermark()), (int) (writeBufferSize * endpointConfig.getWriteBufferLowWatermark()), messagePriorities);
         prepare();
     }
 
@@ -66,26 +89,144 @@ public class TimeStopClient extends Client implements Listener {
         // Register classes
         TimeStopSerialization.register(getKryo());
 
+        // Queued messages are written when the write buffer drains below the low watermark
+        setIdleThreshold(endpointConfig.getWriteBufferLowWatermark());
+
         // Register self listener
         addListener(this);
     }
 
+    /**
+     * Enables the built-in handshake. Must be called before connecting. The handshake is started whenever the client connects and messages
+     * sent before it completes are queued. Registers translators needed for the encrypted session.
+     *
+     * @param handshake Handshake
+     *
+     * @return Itself
+     */
+    public TimeStopClient withHandshake(TimeStopHandshake handshake) {
+        this.handshake = handshake;
+        this.handshakeState = new TimeStopHandshake.State();
+        handshake.registerTranslators(translatorManager);
+        return this;
+    }
+
+    /**
+     * Gets the current symmetric key used by the encryption translators
+     *
+     * @return The symmetric key or null
+     */
+    public Key getSymmetricKey() {
+        return symmetricKeyRing.getCurrentKey();
+    }
+
+    /**
+     * Sets the symmetric key used by the encryption translators (without rotation, see {@link SymmetricKeyRing#rotate(Key, long)})
+     *
+     * @param symmetricKey The symmetric key
+     */
+    public void setSymmetricKey(Key symmetricKey) {
+        symmetricKeyRing.setKey(symmetricKey);
+    }
+
+    /**
+     * Stops the client and closes its translators, see {@link TimeStopTranslatorManager#close()}
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        translatorManager.close();
+    }
+
     /**
      * Sends the given object to the server<br>Object will be translated before sending using {@link TimeStopTranslatorManager}.
      *
      * @param object Object to send
      *
-     * @return Number of bytes sent (0 when object was translated to null)
+     * @return Number of bytes sent (0 when object was translated to null, queued until the handshake completes or queued by the outbound queue)
      */
     @Override
     public int sendTCP(Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object);
+        return sendTCPAsync(object, null).getNow(0);
+    }
 
-        if (object == null) {
-            return 0;
+    /**
+     * Sends the given object to the server with the given priority class, see {@link #sendTCP(Object)}
+     *
+     * @param object   Object to send
+     * @param priority Priority class, overrides the priority declared for the object's type
+     *
+     * @return Number of bytes sent (0 when object was translated to null, queued until the handshake completes or queued by the outbound queue)
+     */
+    public int sendTCP(Object object, TimeStopMessagePriority priority) {
+        return sendTCPAsync(object, priority).getNow(0);
+    }
+
+    /**
+     * Sends the given object to the server<br>Object will be translated before sending using {@link TimeStopTranslatorManager}. When the write
+     * buffer is above the high watermark, the translated object is queued and written once the buffer drains.
+     *
+     * @param object Object to send
+     *
+     * @return Future completed with the number of bytes sent once the object is written (0 when object was translated to null or queued until
+     * the handshake completes)
+     */
+    public CompletableFuture<Integer> sendTCPAsync(Object object) {
+        return sendTCPAsync(object, null);
+    }
+
+    /**
+     * Sends the given object to the server with the given priority class, see {@link #sendTCPAsync(Object)}. Queued messages of lower priority
+     * classes are skipped.
+     *
+     * @param object   Object to send
+     * @param priority Priority class, overrides the priority declared for the object's type (null to use the declared one)
+     *
+     * @return Future completed with the number of bytes sent once the object is written (0 when object was translated to null or queued until
+     * the handshake completes)
+     */
+    public CompletableFuture<Integer> sendTCPAsync(Object object, TimeStopMessagePriority priority) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.queueIfHeldBack(object)) {
+            return CompletableFuture.completedFuture(0);
         }
 
-        return super.sendTCP(object);
+        TimeStopMessagePriority resolvedPriority = messagePriorities.resolve(object, priority);
+        Object translatedObject = TimeStopMessagePriorities.runWithPriority(resolvedPriority, () -> translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object));
+
+        if (translatedObject == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        return outboundQueue.write(translatedObject, resolvedPriority);
+    }
+
+    /**
+     * Checks if the client is writable. Producers should stop sending when the client is not writable, messages sent anyway are queued.
+     *
+     * @return If the client is writable
+     */
+    public boolean isWritable() {
+        return outboundQueue.isWritable();
+    }
+
+    /**
+     * Adds listener that is notified when the client stops or starts being writable
+     *
+     * @param writabilityListener Listener
+     */
+    public void addWritabilityListener(TimeStopOutboundQueue.WritabilityListener writabilityListener) {
+        outboundQueue.addWritabilityListener(writabilityListener);
+    }
+
+    /**
+     * Removes writability listener
+     *
+     * @param writabilityListener Listener
+     */
+    public void removeWritabilityListener(TimeStopOutboundQueue.WritabilityListener writabilityListener) {
+        outboundQueue.removeWritabilityListener(writabilityListener);
     }
 
     /**
@@ -93,17 +234,50 @@ public class TimeStopClient extends Client implements Listener {
      *
      * @param object Object to send
      *
-     * @return Number of bytes sent (0 when object was translated to null)
+     * @return Number of bytes sent (0 when object was translated to null or dropped because the handshake has not been completed yet)
      */
     @Override
     public int sendUDP(Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object);
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.isHeldBack(object)) {
+            return 0;
+        }
+
+        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND, true), object);
 
         if (object == null) {
             return 0;
         }
 
-        return super.sendUDP(object);
+        // Segments of a sequenced message carry its sequence
+        return super.sendUDP(TimeStopSequencedChannels.stampSegment(object));
+    }
+
+    /**
+     * Sends the given object using UDP on the unreliable-sequenced channel, see {@link TimeStopSequencedChannels}. The receiver drops the object
+     * if it has already received a newer object on the same channel. Object will be translated before sending using
+     * {@link TimeStopTranslatorManager}.
+     *
+     * @param channel Channel (e.g. an id of the state being updated)
+     * @param object  Object to send
+     *
+     * @return Number of bytes sent (0 when object was translated to null or dropped because the handshake has not been completed yet)
+     */
+    public int sendUDPSequenced(int channel, Object object) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.isHeldBack(object)) {
+            return 0;
+        }
+
+        Object sequencedMessage = sequencedChannels.stamp(channel, object, stampedMessage -> translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND, true), stampedMessage));
+
+        if (sequencedMessage == null) {
+            return 0;
+        }
+
+        return super.sendUDP(sequencedMessage);
     }
 
     /**
@@ -176,14 +350,99 @@ public class TimeStopClient extends Client implements Listener {
         return sendTCP(object);
     }
 
+    @Override
+    public void connected(Connection connection) {
+        if (handshake != null) {
+            handshake.start(this);
+        }
+    }
+
+    @Override
+    public void disconnected(Connection connection) {
+        outboundQueue.clear();
+        translatorManager.disconnected(connection);
+
+        if (handshake == null) {
+            return;
+        }
+
+        // Next connection has to complete its own handshake
+        TimeStopHandshake.State previousState = handshakeState;
+        handshakeState = new TimeStopHandshake.State();
+        previousState.fail(new HandshakeFailedException("Disconnected"));
+    }
+
+    @Override
+    public void idle(Connection connection) {
+        outboundQueue.drain();
+    }
+
     @Override
     public void received(Connection connection, Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.INBOUND), object);
+        received(connection, object, false);
+    }
+
+    /**
+     * Processes received object
+     *
+     * @param connection Connection
+     * @param object     Object
+     * @param decrypted  Whether the object has been decrypted already (a message of a decrypted batch)
+     */
+    private void received(Connection connection, Object object, boolean decrypted) {
+        TimeStopSequencedMessage sequencedMessage = null;
+
+        if (object instanceof TimeStopSequencedMessage) {
+            sequencedMessage = (TimeStopSequencedMessage) object;
+
+            // Stale messages are dropped before they are translated
+            if (!sequencedChannels.accept(sequencedMessage)) {
+                return;
+            }
+
+            object = sequencedMessage.getMessage();
+        }
+
+        TimeStopTranslator.Context context = new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.INBOUND);
+        context.setDecrypted(decrypted);
+        object = translatorManager.process(context, object);
 
         if (object == null) {
             return;
         }
 
+        if (object instanceof TimeStopBatch) {
+            Object[] messages;
+
+            try {
+                messages = ((TimeStopBatch) object).readMessages(connection.getEndPoint().getKryo());
+            } catch (KryoException exception) {
+                Log.error("Received malformed batch from connection '" + connection + "'. The connection will be terminated.", exception);
+                connection.close();
+                return;
+            }
+
+            // Every message of the batch is translated and dispatched on its own, they were encrypted as a part of the batch
+            for (Object message : messages) {
+                received(connection, message, context.isDecrypted());
+            }
+
+            return;
+        }
+
+        if (handshake != null && handshake.process(this, object, context.isDecrypted())) {
+            return;
+        }
+
+        if (sequencedMessage != null || object instanceof TimeStopSequencedMessage) {
+            // Committed by the stamp inside the translated message, the received stamp is not covered by the encryption
+            object = sequencedChannels.commit(sequencedMessage, object);
+
+            if (object == null) {
+                return;
+            }
+        }
+
         listenerManager.process(connection, object);
     }
 }
@@ -0,0 +1,374 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Pool of clients connected to the same server. Messages are spread across the connected clients, so a single logical client is not limited by
+ * head-of-line blocking of a single TCP stream and by a single update thread. Responses are received by the client that sent the request and
+ * are correlated by the message id (see {@link dev.mayuna.timestop.networking.timestop.TimeStopMessage}). Messages sent through different
+ * clients may be received in a different order than they were sent. Thread-safe.
+ */
+@Getter
+public class TimeStopClientPool {
+
+    private final List<TimeStopClient> clients;
+    private final @Getter(AccessLevel.NONE) AtomicInteger[] inFlightCounts;
+    private final @Getter(AccessLevel.NONE) List<Set<CompletableFuture<Void>>> inFlightRequests; // Completed when responded, timed out or disconnected
+    private final @Getter(AccessLevel.NONE) AtomicInteger nextClient = new AtomicInteger();
+    private volatile Strategy strategy = Strategy.LEAST_IN_FLIGHT;
+
+    /**
+     * Creates a new pool
+     *
+     * @param size          Number of clients
+     * @param clientFactory Creates the clients (with registered translators, handshake, etc.)
+     */
+    public TimeStopClientPool(int size, Supplier<TimeStopClient> clientFactory) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+
+        List<TimeStopClient> clients = new ArrayList<>(size);
+        this.inFlightCounts = new AtomicInteger[size];
+        this.inFlightRequests = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            TimeStopClient client = clientFactory.get();
+            Set<CompletableFuture<Void>> requests = ConcurrentHashMap.newKeySet();
+
+            // Responses to requests sent before the client disconnected will never arrive
+            client.addListener(new Listener() {
+                @Override
+                public void disconnected(Connection connection) {
+                    failInFlightRequests(requests);
+                }
+            });
+
+            clients.add(client);
+            inFlightCounts[i] = new AtomicInteger();
+            inFlightRequests.add(requests);
+        }
+
+        this.clients = Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Sets the strategy that picks the client for each message
+     *
+     * @param strategy Strategy
+     *
+     * @return Itself
+     */
+    public TimeStopClientPool withStrategy(Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * Starts all clients
+     */
+    public void start() {
+        for (TimeStopClient client : clients) {
+            client.start();
+        }
+    }
+
+    /**
+     * Connects all clients to the server
+     *
+     * @param timeout Timeout in milliseconds for each client
+     * @param host    Host
+     * @param tcpPort TCP port
+     *
+     * @throws IOException If any client could not connect
+     */
+    public void connect(int timeout, String host, int tcpPort) throws IOException {
+        for (TimeStopClient client : clients) {
+            client.connect(timeout, host, tcpPort);
+        }
+    }
+
+    /**
+     * Connects all clients to the server
+     *
+     * @param timeout Timeout in milliseconds for each client
+     * @param host    Host
+     * @param tcpPort TCP port
+     * @param udpPort UDP port
+     *
+     * @throws IOException If any client could not connect
+     */
+    public void connect(int timeout, String host, int tcpPort, int udpPort) throws IOException {
+        for (TimeStopClient client : clients) {
+            client.connect(timeout, host, tcpPort, udpPort);
+        }
+    }
+
+    /**
+     * Connects the clients to the shards of {@link TimeStopShardedServer}, client at index i connects to the shard at index i modulo shard count
+     *
+     * @param timeout     Timeout in milliseconds for each client
+     * @param host        Host
+     * @param baseTcpPort TCP port of the first shard
+     * @param shardCount  Number of shards
+     *
+     * @throws IOException If any client could not connect
+     */
+    public void connectToShards(int timeout, String host, int baseTcpPort, int shardCount) throws IOException {
+        for (int i = 0; i < clients.size(); i++) {
+            clients.get(i).connect(timeout, host, baseTcpPort + i % shardCount);
+        }
+    }
+
+    /**
+     * Closes all clients
+     */
+    public void close() {
+        for (TimeStopClient client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * Stops all clients
+     */
+    public void stop() {
+        for (TimeStopClient client : clients) {
+            client.stop();
+        }
+    }
+
+    /**
+     * Registers the listener to all clients
+     *
+     * @param listener Listener
+     */
+    public void registerListener(TimeStopListener<?> listener) {
+        for (TimeStopClient client : clients) {
+            client.getListenerManager().registerListener(listener);
+        }
+    }
+
+    /**
+     * Runs the action for all clients (e.g. registering translators)
+     *
+     * @param action Action
+     */
+    public void forEachClient(Consumer<TimeStopClient> action) {
+        clients.forEach(action);
+    }
+
+    /**
+     * Gets the number of messages sent with a response listener that have not been responded yet
+     *
+     * @return Number of in-flight messages
+     */
+    public int getInFlightCount() {
+        int inFlightCount = 0;
+
+        for (AtomicInteger count : inFlightCounts) {
+            inFlightCount += count.get();
+        }
+
+        return inFlightCount;
+    }
+
+    /**
+     * Sends the given object using one of the connected clients
+     *
+     * @param object Object to send
+     *
+     * @return Number of bytes sent (see {@link TimeStopClient#sendTCP(Object)})
+     */
+    public int sendTCP(Object object) {
+        return clients.get(pickClient()).sendTCP(object);
+    }
+
+    /**
+     * Sends the given object using one of the connected clients and waits for a response, see
+     * {@link TimeStopClient#sendTCPWithResponse(Object, Class, Consumer)}
+     *
+     * @param object        Object to send
+     * @param responseClass Class of the response
+     * @param onResponse    Consumer that will be called when the response is received
+     * @param <T>           Type of the response
+     *
+     * @return Number of bytes sent
+     */
+    public <T> int sendTCPWithResponse(Object object, Class<T> responseClass, Consumer<T> onResponse) {
+        int index = pickClient();
+        TimeStopClient client = clients.get(index);
+        CompletableFuture<Void> request = trackInFlightRequest(index);
+
+        try {
+            return client.sendTCPWithResponse(object, responseClass, response -> {
+                request.complete(null);
+                onResponse.accept(response);
+            });
+        } catch (RuntimeException exception) {
+            request.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            failIfDisconnected(client, request);
+        }
+    }
+
+    /**
+     * Sends the given object using one of the connected clients and waits for a response, see
+     * {@link TimeStopClient#sendTCPWithResponse(Object, Class, int, Consumer, Runnable)}
+     *
+     * @param object        Object to send
+     * @param responseClass Class of the response
+     * @param timeout       Timeout in milliseconds
+     * @param onResponse    Consumer that will be called when the response is received
+     * @param onTimeout     Runnable that will be called when the timeout elapsed
+     * @param <T>           Type of the response
+     *
+     * @return Number of bytes sent
+     */
+    public <T> int sendTCPWithResponse(Object object, Class<T> responseClass, int timeout, Consumer<T> onResponse, Runnable onTimeout) {
+        int index = pickClient();
+        TimeStopClient client = clients.get(index);
+        CompletableFuture<Void> request = trackInFlightRequest(index);
+
+        try {
+            return client.sendTCPWithResponse(object, responseClass, timeout, response -> {
+                request.complete(null);
+                onResponse.accept(response);
+            }, () -> {
+                request.complete(null);
+                onTimeout.run();
+            });
+        } catch (RuntimeException exception) {
+            request.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            failIfDisconnected(client, request);
+        }
+    }
+
+    /**
+     * Counts the request as in-flight until it is completed (on any path)
+     *
+     * @param index Index of the client sending the request
+     *
+     * @return Request to complete when it is responded, timed out or failed
+     */
+    private CompletableFuture<Void> trackInFlightRequest(int index) {
+        AtomicInteger inFlightCount = inFlightCounts[index];
+        Set<CompletableFuture<Void>> requests = inFlightRequests.get(index);
+        CompletableFuture<Void> request = new CompletableFuture<>();
+
+        inFlightCount.incrementAndGet();
+        requests.add(request);
+
+        request.whenComplete((result, exception) -> {
+            requests.remove(request);
+            inFlightCount.decrementAndGet();
+        });
+
+        return request;
+    }
+
+    /**
+     * Fails the request if the client is not connected after sending it. The disconnect listener fails only the requests tracked before the
+     * client disconnected.
+     *
+     * @param client  Client that sent the request
+     * @param request Request
+     */
+    private static void failIfDisconnected(TimeStopClient client, CompletableFuture<Void> request) {
+        if (!client.isConnected()) {
+            request.completeExceptionally(new IllegalStateException("Client is not connected"));
+        }
+    }
+
+    /**
+     * Fails the requests of a disconnected client
+     *
+     * @param requests In-flight requests of the client
+     */
+    private static void failInFlightRequests(Set<CompletableFuture<Void>> requests) {
+        for (CompletableFuture<Void> request : requests) {
+            request.completeExceptionally(new IllegalStateException("Client disconnected"));
+        }
+    }
+
+    /**
+     * Picks the client for the next message. Connected clients are preferred.
+     *
+     * @return Index of the client
+     */
+    private int pickClient() {
+        int size = clients.size();
+        int start = nextClient.getAndIncrement() & Integer.MAX_VALUE;
+
+        if (strategy == Strategy.ROUND_ROBIN) {
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % size;
+
+                if (clients.get(index).isConnected()) {
+                    return index;
+                }
+            }
+        } else {
+            int bestIndex = -1;
+            int bestCount = Integer.MAX_VALUE;
+
+            // Starts at a rotating index, so clients with the same count take turns
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % size;
+                TimeStopClient client = clients.get(index);
+
+                if (!client.isConnected()) {
+                    continue;
+                }
+
+                int count = inFlightCounts[index].get() + client.getOutboundQueue().size();
+
+                if (count < bestCount) {
+                    bestIndex = index;
+                    bestCount = count;
+                }
+            }
+
+            if (bestIndex != -1) {
+                return bestIndex;
+            }
+        }
+
+        Log.debug("No client in the pool is connected");
+        return start % size;
+    }
+
+    /**
+     * Strategy that picks the client for each message
+     */
+    public enum Strategy {
+
+        /**
+         * Clients take turns
+         */
+        ROUND_ROBIN,
+        /**
+         * Client with the least number of messages waiting for a response or in the outbound queue
+         */
+        LEAST_IN_FLIGHT
+    }
+}
@@ -1,13 +1,18 @@
 package dev.mayuna.timestop.networking.base;
 
 import com.esotericsoftware.kryonet.Connection;
+import dev.mayuna.timestop.config.SymmetricCipherType;
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListenerManager;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import dev.mayuna.timestop.networking.timestop.TimeStopHandshake;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.security.Key;
+import java.util.concurrent.CompletableFuture;
 
 @Getter @Setter
 public class TimeStopConnection extends Connection {
@@ -16,19 +21,122 @@ public class TimeStopConnection extends Connection {
     private final TimeStopTranslatorManager translatorManager;
 
     private Key publicKey;
+    private final SymmetricKeyRing symmetricKeyRing = new SymmetricKeyRing(); // Used by the encryption translators instead of the encryption manager's keys, when set
+    private volatile SymmetricCipherType symmetricCipherType; // Negotiated cipher, used instead of the configured one, when set
     private boolean encryptDataSentOverNetwork = false;
+    private volatile TimeStopHandshake.State handshakeState; // Set when the server uses the built-in handshake
+    private volatile TimeStopRateLimiter.State rateLimiterState; // Set when the server uses a rate limiter
+    private final TimeStopOutboundQueue outboundQueue;
+    private final TimeStopSequencedChannels sequencedChannels = new TimeStopSequencedChannels();
+    private volatile boolean closingAfterFlush; // Set by closeAfterFlush(), the connection is closed once everything is written
 
     /**
-     * Creates a new connection with the given translator manager
+     * Creates a new connection with the given translator manager. Messages are never queued by the outbound queue.
      *
      * @param listenerManager listener manager
      * @param translatorManager Translator manager
      */
     public TimeStopConnection(TimeStopListenerManager listenerManager, TimeStopTranslatorManager translatorManager) {
+        this(listenerManager, translatorManager, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new connection with the given translator manager and write buffer watermarks, see {@link TimeStopOutboundQueue}
+     *
+     * @param listenerManager   listener manager
+     * @param translatorManager Translator manager
+     * @param highWatermark     Number of bytes in the write buffer at which messages start being queued
+     * @param lowWatermark      Number of bytes in the write buffer at which the connection becomes writable again
+     */
+    public TimeStopConnection(TimeStopListenerManager listenerManager, TimeStopTranslatorManager translatorManager, int highWatermark, int lowWatermark) {
+        this(listenerManager, translatorManager, highWatermark, lowWatermark, new TimeStopMessagePriorities());
+    }
+
+    /**
+     * Creates a new connection with the given translator manager, write buffer watermarks and priority classes, see
+     * {@link TimeStopOutboundQueue}
+     *
+     * @param listenerManager   listener manager
+     * @param translatorManager Translator manager
+     * @param highWatermark     Number of bytes in the write buffer at which messages start being queued
+     * @param lowWatermark      Number of bytes in the write buffer at which the connection becomes writable again
+     * @param messagePriorities Priority classes of the endpoint
+     */
+    public TimeStopConnection(TimeStopListenerManager listenerManager, TimeStopTranslatorManager translatorManager, int highWatermark, int lowWatermark, TimeStopMessagePriorities messagePriorities) {
         super();
 
         this.listenerManager = listenerManager;
         this.translatorManager = translatorManager;
+        this.outboundQueue = new TimeStopOutboundQueue(this, super::sendTCP, highWatermark, lowWatermark, messagePriorities);
+    }
+
+    /**
+     * Checks if the connection is writable. Producers should stop sending when the connection is not writable, messages sent anyway are queued.
+     *
+     * @return If the connection is writable
+     */
+    public boolean isWritable() {
+        return outboundQueue.isWritable();
+    }
+
+    /**
+     * Closes the connection once the messages sent so far (including the ones queued by the outbound queue) are written to the socket, so the
+     * other side receives them (e.g. a rejection). Closed immediately when nothing is waiting, otherwise when the server notices the write
+     * buffer drained.
+     */
+    public void closeAfterFlush() {
+        closingAfterFlush = true;
+        closeIfFlushed();
+    }
+
+    /**
+     * Closes the connection if {@link #closeAfterFlush()} was called and everything has been written
+     *
+     * @return If the connection was closed
+     */
+    boolean closeIfFlushed() {
+        if (!closingAfterFlush || outboundQueue.size() != 0 || getTcpWriteBufferSize() != 0) {
+            return false;
+        }
+
+        close();
+        return true;
+    }
+
+    /**
+     * Adds listener that is notified when the connection stops or starts being writable
+     *
+     * @param writabilityListener Listener
+     */
+    public void addWritabilityListener(TimeStopOutboundQueue.WritabilityListener writabilityListener) {
+        outboundQueue.addWritabilityListener(writabilityListener);
+    }
+
+    /**
+     * Removes writability listener
+     *
+     * @param writabilityListener Listener
+     */
+    public void removeWritabilityListener(TimeStopOutboundQueue.WritabilityListener writabilityListener) {
+        outboundQueue.removeWritabilityListener(writabilityListener);
+    }
+
+    /**
+     * Gets the current symmetric key used by the encryption translators
+     *
+     * @return The symmetric key or null
+     */
+    public Key getSymmetricKey() {
+        return symmetricKeyRing.getCurrentKey();
+    }
+
+    /**
+     * Sets the symmetric key used by the encryption translators (without rotation, see {@link SymmetricKeyRing#rotate(Key, long)})
+     *
+     * @param symmetricKey The symmetric key
+     */
+    public void setSymmetricKey(Key symmetricKey) {
+        symmetricKeyRing.setKey(symmetricKey);
     }
 
     /**
@@ -36,17 +144,63 @@ public class TimeStopConnection extends Connection {
      *
      * @param object Object to send
      *
-     * @return Number of bytes sent (0 when object was translated to null)
+     * @return Number of bytes sent (0 when object was translated to null, queued until the handshake completes or queued by the outbound queue)
      */
     @Override
     public int sendTCP(Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object);
+        return sendTCPAsync(object, null).getNow(0);
+    }
 
-        if (object == null) {
-            return 0;
+    /**
+     * Sends the given object to the server with the given priority class, see {@link #sendTCP(Object)}
+     *
+     * @param object   Object to send
+     * @param priority Priority class, overrides the priority declared for the object's type
+     *
+     * @return Number of bytes sent (0 when object was translated to null, queued until the handshake completes or queued by the outbound queue)
+     */
+    public int sendTCP(Object object, TimeStopMessagePriority priority) {
+        return sendTCPAsync(object, priority).getNow(0);
+    }
+
+    /**
+     * Sends the given object to the server<br>Object will be translated before sending using {@link TimeStopTranslatorManager}. When the write
+     * buffer is above the high watermark, the translated object is queued and written once the buffer drains.
+     *
+     * @param object Object to send
+     *
+     * @return Future completed with the number of bytes sent once the object is written (0 when object was translated to null or queued until
+     * the handshake completes)
+     */
+    public CompletableFuture<Integer> sendTCPAsync(Object object) {
+        return sendTCPAsync(object, null);
+    }
+
+    /**
+     * Sends the given object to the server with the given priority class, see {@link #sendTCPAsync(Object)}. Queued messages of lower priority
+     * classes are skipped.
+     *
+     * @param object   Object to send
+     * @param priority Priority class, overrides the priority declared for the object's type (null to use the declared one)
+     *
+     * @return Future completed with the number of bytes sent once the object is written (0 when object was translated to null or queued until
+     * the handshake completes)
+     */
+    public CompletableFuture<Integer> sendTCPAsync(Object object, TimeStopMessagePriority priority) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.queueIfHeldBack(object)) {
+            return CompletableFuture.completedFuture(0);
         }
 
-        return super.sendTCP(object);
+        TimeStopMessagePriority resolvedPriority = outboundQueue.getMessagePriorities().resolve(object, priority);
+        Object translatedObject = TimeStopMessagePriorities.runWithPriority(resolvedPriority, () -> translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object));
+
+        if (translatedObject == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+
+        return outboundQueue.write(translatedObject, resolvedPriority);
     }
 
     /**
@@ -54,11 +208,93 @@ public class TimeStopConnection extends Connection {
      *
      * @param object Object to send
      *
-     * @return Number of bytes sent (0 when object was translated to null)
+     * @return Number of bytes sent (0 when object was translated to null or dropped because the handshake has not been completed yet)
      */
     @Override
     public int sendUDP(Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), object);
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.isHeldBack(object)) {
+            return 0;
+        }
+
+        object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND, true), object);
+
+        if (object == null) {
+            return 0;
+        }
+
+        // Segments of a sequenced message carry its sequence
+        return super.sendUDP(TimeStopSequencedChannels.stampSegment(object));
+    }
+
+    /**
+     * Sends the given object using UDP on the unreliable-sequenced channel, see {@link TimeStopSequencedChannels}. The receiver drops the object
+     * if it has already received a newer object on the same channel. Object will be translated before sending using
+     * {@link TimeStopTranslatorManager}.
+     *
+     * @param channel Channel (e.g. an id of the state being updated)
+     * @param object  Object to send
+     *
+     * @return Number of bytes sent (0 when object was translated to null or dropped because the handshake has not been completed yet)
+     */
+    public int sendUDPSequenced(int channel, Object object) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.isHeldBack(object)) {
+            return 0;
+        }
+
+        Object sequencedMessage = sequencedChannels.stamp(channel, object, stampedMessage -> translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND, true), stampedMessage));
+
+        if (sequencedMessage == null) {
+            return 0;
+        }
+
+        return super.sendUDP(sequencedMessage);
+    }
+
+    /**
+     * Sends the message shared by multiple connections, see {@link TimeStopServer#sendToAllTCP(Iterable, Object)}. Only translators that were
+     * not run by {@link TimeStopTranslatorManager#processShared(TimeStopTranslator.Context, Object)} are run for this connection.
+     *
+     * @param sharedTranslation Shared translation
+     *
+     * @return Number of bytes sent (0 when object was translated to null, queued until the handshake completes or queued by the outbound queue)
+     */
+    public int sendTCP(TimeStopTranslatorManager.SharedTranslation sharedTranslation) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.queueIfHeldBack(sharedTranslation.getOriginalObject())) {
+            return 0;
+        }
+
+        TimeStopMessagePriority priority = outboundQueue.getMessagePriorities().resolve(sharedTranslation.getOriginalObject(), null);
+        Object object = TimeStopMessagePriorities.runWithPriority(priority, () -> translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND), sharedTranslation, copySharedObject(sharedTranslation)));
+
+        if (object == null) {
+            return 0;
+        }
+
+        return outboundQueue.write(object, priority).getNow(0);
+    }
+
+    /**
+     * Sends the message shared by multiple connections, see {@link TimeStopServer#sendToAllUDP(Iterable, Object)}. Only translators that were
+     * not run by {@link TimeStopTranslatorManager#processShared(TimeStopTranslator.Context, Object)} are run for this connection.
+     *
+     * @param sharedTranslation Shared translation
+     *
+     * @return Number of bytes sent (0 when object was translated to null or dropped because the handshake has not been completed yet)
+     */
+    public int sendUDP(TimeStopTranslatorManager.SharedTranslation sharedTranslation) {
+        TimeStopHandshake.State handshakeState = this.handshakeState;
+
+        if (handshakeState != null && handshakeState.isHeldBack(sharedTranslation.getOriginalObject())) {
+            return 0;
+        }
+
+        Object object = translatorManager.process(new TimeStopTranslator.Context(this, TimeStopTranslator.Context.Way.OUTBOUND, true), sharedTranslation, copySharedObject(sharedTranslation));
 
         if (object == null) {
             return 0;
@@ -66,4 +302,21 @@ public class TimeStopConnection extends Connection {
 
         return super.sendUDP(object);
     }
+
+    /**
+     * Copies the shared packet, so per-connection translators (e.g. encryption) do not modify packets of other connections
+     *
+     * @param sharedTranslation Shared translation
+     *
+     * @return Translated object or its copy
+     */
+    private static Object copySharedObject(TimeStopTranslatorManager.SharedTranslation sharedTranslation) {
+        Object object = sharedTranslation.getTranslatedObject();
+
+        if (object instanceof TimeStopPacket) {
+            return ((TimeStopPacket) object).copy();
+        }
+
+        return object;
+    }
 }
@@ -0,0 +1,223 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Group of connections (e.g. a room) that messages can be sent to at once. Message sent to the group is translated by connection-independent
+ * translators (e.g. serialized) only once (once per shard for groups of {@link TimeStopShardedServer}, since members are translated by the
+ * translator managers of their shards) and then written to every member on the group's executor. Each member has its own queue, so a slow
+ * member does not delay the others and messages are written to every member in the order they were sent. Thread-safe.
+ */
+@Getter
+public class TimeStopConnectionGroup {
+
+    public static int WRITES_PER_TURN = 64;
+
+    private final String name;
+    private final Executor executor;
+    private final @Getter(AccessLevel.NONE) ConcurrentHashMap<TimeStopConnection, Member> members = new ConcurrentHashMap<>();
+    private volatile int maxPendingMessages; // Per member, 0 for unlimited
+
+    /**
+     * Creates a new group
+     *
+     * @param name     Name of the group
+     * @param executor Executor that writes the messages to the members
+     */
+    public TimeStopConnectionGroup(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * Limits the number of messages waiting to be written to a single member. Messages above the limit are not sent to the member (e.g. a
+     * member that cannot keep up with the state updates skips some of them).
+     *
+     * @param maxPendingMessages Maximum number of pending messages per member, 0 for unlimited
+     *
+     * @return Itself
+     */
+    public TimeStopConnectionGroup withMaxPendingMessages(int maxPendingMessages) {
+        this.maxPendingMessages = maxPendingMessages;
+        return this;
+    }
+
+    /**
+     * Adds the connection to the group
+     *
+     * @param connection Connection
+     *
+     * @return True if the connection was not a member yet
+     */
+    public boolean add(TimeStopConnection connection) {
+        return members.putIfAbsent(connection, new Member(connection)) == null;
+    }
+
+    /**
+     * Removes the connection from the group. Messages that are already pending are still written to it.
+     *
+     * @param connection Connection
+     *
+     * @return True if the connection was a member
+     */
+    public boolean remove(Connection connection) {
+        return members.remove(connection) != null;
+    }
+
+    /**
+     * Checks if the connection is a member of the group
+     *
+     * @param connection Connection
+     *
+     * @return If the connection is a member
+     */
+    public boolean contains(Connection connection) {
+        return members.containsKey(connection);
+    }
+
+    /**
+     * Gets the members of the group
+     *
+     * @return Live view of the members
+     */
+    public Set<TimeStopConnection> getConnections() {
+        return members.keySet();
+    }
+
+    /**
+     * Gets the number of members
+     *
+     * @return Number of members
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Sends the object to all members using TCP
+     *
+     * @param object Object to send
+     */
+    public void sendTCP(Object object) {
+        send(object, false, (connection, sharedTranslation) -> connection.sendTCP(sharedTranslation));
+    }
+
+    /**
+     * Sends the object to all members using UDP
+     *
+     * @param object Object to send
+     */
+    public void sendUDP(Object object) {
+        send(object, true, (connection, sharedTranslation) -> connection.sendUDP(sharedTranslation));
+    }
+
+    private void send(Object object, boolean udp, Sender sender) {
+        // Members are translated by the translator manager of their server (shard)
+        Map<TimeStopTranslatorManager, TimeStopTranslatorManager.SharedTranslation> sharedTranslations = new IdentityHashMap<>();
+
+        for (Member member : members.values()) {
+            TimeStopTranslatorManager translatorManager = member.connection.getTranslatorManager();
+            TimeStopTranslatorManager.SharedTranslation sharedTranslation = sharedTranslations.get(translatorManager);
+
+            if (sharedTranslation == null) {
+                sharedTranslation = translatorManager.processShared(new TimeStopTranslator.Context(member.connection, TimeStopTranslator.Context.Way.OUTBOUND, udp), object);
+
+                if (sharedTranslation == null) {
+                    return;
+                }
+
+                sharedTranslations.put(translatorManager, sharedTranslation);
+            }
+
+            TimeStopTranslatorManager.SharedTranslation finalSharedTranslation = sharedTranslation;
+            member.enqueue(connection -> sender.send(connection, finalSharedTranslation));
+        }
+    }
+
+    private interface Sender {
+
+        void send(TimeStopConnection connection, TimeStopTranslatorManager.SharedTranslation sharedTranslation);
+    }
+
+    /**
+     * Member's queue of pending writes, drained by at most one task on the executor at a time
+     */
+    private class Member implements Runnable {
+
+        private final TimeStopConnection connection;
+        private final Queue<Consumer<TimeStopConnection>> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Member(TimeStopConnection connection) {
+            this.connection = connection;
+        }
+
+        private void enqueue(Consumer<TimeStopConnection> write) {
+            int maxPendingMessages = TimeStopConnectionGroup.this.maxPendingMessages;
+
+            // Reserved before checking, so concurrent senders cannot exceed the limit together
+            if (pendingCount.incrementAndGet() > maxPendingMessages && maxPendingMessages > 0) {
+                pendingCount.decrementAndGet();
+                Log.debug("Skipping message for connection " + connection + " in group " + name + ", too many pending messages");
+                return;
+            }
+
+            pendingWrites.add(write);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException exception) {
+                    // Executor is shutting down (e.g. the server is being closed), pending writes are written when the next message is sent
+                    scheduled.set(false);
+                    Log.debug("Could not schedule writes to connection " + connection + " in group " + name + ", executor rejected them");
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Consumer<TimeStopConnection> write;
+            int writes = 0;
+
+            // Limited number of writes at once, so members with many pending messages take turns with the others
+            while (writes++ < WRITES_PER_TURN && (write = pendingWrites.poll()) != null) {
+                pendingCount.decrementAndGet();
+
+                try {
+                    write.accept(connection);
+                } catch (Exception exception) {
+                    Log.error("Could not send message to connection " + connection + " in group " + name, exception);
+                }
+            }
+
+            scheduled.set(false);
+
+            // Writes left for the next turn or enqueued after the queue was drained but before the flag was cleared
+            if (!pendingWrites.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package dev.mayuna.timestop.networking.base;
+
+import dev.mayuna.timestop.networking.timestop.Packets;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentCredit;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentNack;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Priority classes of outbound messages of an endpoint. Priority of a message is resolved from the priority passed to the send call, then from
+ * the priority of the message being translated (messages sent by translators, e.g. segments, inherit it) and then from the priority declared
+ * for the message's type (or its closest supertype). Messages without any priority are {@link TimeStopMessagePriority#NORMAL}.<br>
+ * By default, queued messages are written in strict priority order. With weights, each priority class gets a share of the writes, so bulk
+ * traffic is not starved by higher priority classes. Thread-safe.
+ */
+@Getter
+public class TimeStopMessagePriorities {
+
+    private static final ThreadLocal<TimeStopMessagePriority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+    private final Map<Class<?>, TimeStopMessagePriority> declaredPriorities = new ConcurrentHashMap<>();
+    private final Map<Class<?>, TimeStopMessagePriority> resolvedPriorities = new ConcurrentHashMap<>();
+    private volatile int[] weights; // Null for strict priority
+
+    /**
+     * Creates a new priority classes with the default priorities (protocol messages, segment credits and segment NACKs are urgent, file transfer segments are
+     * bulk)
+     */
+    public TimeStopMessagePriorities() {
+        withPriority(Packets.BasePacket.class, TimeStopMessagePriority.URGENT);
+        withPriority(TimeStopPacketSegmentCredit.class, TimeStopMessagePriority.URGENT);
+        withPriority(TimeStopPacketSegmentNack.class, TimeStopMessagePriority.URGENT);
+        withPriority(TimeStopFileTransferSegment.class, TimeStopMessagePriority.BULK);
+    }
+
+    /**
+     * Declares the priority of the message type and its subtypes
+     *
+     * @param messageClass Message class
+     * @param priority     Priority
+     *
+     * @return Itself
+     */
+    public TimeStopMessagePriorities withPriority(Class<?> messageClass, TimeStopMessagePriority priority) {
+        declaredPriorities.put(messageClass, priority);
+        resolvedPriorities.clear();
+        return this;
+    }
+
+    /**
+     * Writes queued messages in weighted order instead of strict priority order. Out of every sum of weights writes, each priority class gets
+     * the number of writes equal to its weight (unused writes are given to the other classes).
+     *
+     * @param weights Weight of each priority class in the order of {@link TimeStopMessagePriority}, e.g. 8, 4, 2, 1
+     *
+     * @return Itself
+     */
+    public TimeStopMessagePriorities withWeights(int... weights) {
+        if (weights.length != TimeStopMessagePriority.values().length) {
+            throw new IllegalArgumentException("Weights must be specified for all " + TimeStopMessagePriority.values().length + " priority classes");
+        }
+
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weights must be positive");
+            }
+        }
+
+        this.weights = Arrays.copyOf(weights, weights.length);
+        return this;
+    }
+
+    /**
+     * Writes queued messages in strict priority order (default)
+     *
+     * @return Itself
+     */
+    public TimeStopMessagePriorities withStrictPriority() {
+        this.weights = null;
+        return this;
+    }
+
+    /**
+     * Checks if the queued messages are written in weighted order
+     *
+     * @return If weighted
+     */
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * Resolves the priority of the message
+     *
+     * @param object   Message
+     * @param priority Priority passed to the send call, may be null
+     *
+     * @return Priority
+     */
+    public TimeStopMessagePriority resolve(Object object, TimeStopMessagePriority priority) {
+        if (priority != null) {
+            return priority;
+        }
+
+        TimeStopMessagePriority currentPriority = CURRENT_PRIORITY.get();
+
+        if (currentPriority != null) {
+            return currentPriority;
+        }
+
+        if (object == null) {
+            return TimeStopMessagePriority.NORMAL;
+        }
+
+        return resolvedPriorities.computeIfAbsent(object.getClass(), this::resolveDeclaredPriority);
+    }
+
+    private TimeStopMessagePriority resolveDeclaredPriority(Class<?> messageClass) {
+        for (Class<?> currentClass = messageClass; currentClass != null; currentClass = currentClass.getSuperclass()) {
+            TimeStopMessagePriority priority = declaredPriorities.get(currentClass);
+
+            if (priority != null) {
+                return priority;
+            }
+
+            for (Class<?> interfaceClass : currentClass.getInterfaces()) {
+                priority = declaredPriorities.get(interfaceClass);
+
+                if (priority != null) {
+                    return priority;
+                }
+            }
+        }
+
+        return TimeStopMessagePriority.NORMAL;
+    }
+
+    /**
+     * Gets the priority of the message being translated on the current thread, see {@link #runWithPriority(TimeStopMessagePriority, Supplier)}
+     *
+     * @return Priority or null
+     */
+    public static TimeStopMessagePriority getCurrentPriority() {
+        return CURRENT_PRIORITY.get();
+    }
+
+    /**
+     * Runs the supplier (e.g. translation of the message) with the given priority, messages sent by it without a priority inherit it
+     *
+     * @param priority Priority
+     * @param supplier Supplier
+     * @param <T>      Type of the result
+     *
+     * @return Result of the supplier
+     */
+    public static <T> T runWithPriority(TimeStopMessagePriority priority, Supplier<T> supplier) {
+        TimeStopMessagePriority previousPriority = CURRENT_PRIORITY.get();
+        CURRENT_PRIORITY.set(priority);
+
+        try {
+            return supplier.get();
+        } finally {
+            if (previousPriority == null) {
+                CURRENT_PRIORITY.remove();
+            } else {
+                CURRENT_PRIORITY.set(previousPriority);
+            }
+        }
+    }
+}
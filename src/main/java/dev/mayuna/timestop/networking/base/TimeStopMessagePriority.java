@@ -0,0 +1,25 @@
+package dev.mayuna.timestop.networking.base;
+
+/**
+ * Priority class of outbound messages. Messages queued in the connection's outbound queue are written in the order of their priority class,
+ * messages of the same class are written in the order they were sent. See {@link TimeStopMessagePriorities}.
+ */
+public enum TimeStopMessagePriority {
+
+    /**
+     * Time-critical messages (e.g. inputs, heartbeats, protocol messages)
+     */
+    URGENT,
+    /**
+     * Messages that should skip regular traffic
+     */
+    HIGH,
+    /**
+     * Regular messages, default priority
+     */
+    NORMAL,
+    /**
+     * Bulk traffic (e.g. snapshots, file transfers)
+     */
+    BULK
+}
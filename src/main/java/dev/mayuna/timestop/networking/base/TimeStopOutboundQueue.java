@@ -0,0 +1,337 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.minlog.Log;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToIntFunction;
+
+/**
+ * Outbound queue of a connection. Translated messages are written into KryoNet's write buffer only while it holds less than the high watermark,
+ * otherwise they are queued and written once the buffer drains (on the endpoint's update thread, see {@link Connection#setIdleThreshold(float)}),
+ * so a slow reader does not overflow the write buffer. The connection stops being writable when the high watermark is reached and becomes
+ * writable again when the queue is empty and the buffer holds at most the low watermark.<br>
+ * Each priority class has its own queue, so queued messages are written in the order of their priority class (strict or weighted, see
+ * {@link TimeStopMessagePriorities}) and a message may skip queued messages of lower priority classes. Thread-safe.
+ */
+@Getter
+public class TimeStopOutboundQueue {
+
+    private final Connection connection;
+    private final ToIntFunction<Object> writer;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final TimeStopMessagePriorities messagePriorities;
+    private final List<WritabilityListener> writabilityListeners = new CopyOnWriteArrayList<>();
+
+    private final @Getter(AccessLevel.NONE) List<ArrayDeque<QueuedMessage>> queuedMessages; // One queue for each priority class
+    private final @Getter(AccessLevel.NONE) int[] remainingWeights = new int[TimeStopMessagePriority.values().length];
+    private @Getter(AccessLevel.NONE) int queuedMessageCount;
+    private volatile boolean writable = true;
+
+    /**
+     * Creates a new outbound queue
+     *
+     * @param connection    Connection
+     * @param writer        Writes the translated message into the connection's write buffer (e.g. KryoNet's sendTCP)
+     * @param highWatermark Number of bytes in the write buffer at which messages start being queued
+     * @param lowWatermark  Number of bytes in the write buffer at which the connection becomes writable again
+     */
+    public TimeStopOutboundQueue(Connection connection, ToIntFunction<Object> writer, int highWatermark, int lowWatermark) {
+        this(connection, writer, highWatermark, lowWatermark, new TimeStopMessagePriorities());
+    }
+
+    /**
+     * Creates a new outbound queue
+     *
+     * @param connection        Connection
+     * @param writer            Writes the translated message into the connection's write buffer (e.g. KryoNet's sendTCP)
+     * @param highWatermark     Number of bytes in the write buffer at which messages start being queued
+     * @param lowWatermark      Number of bytes in the write buffer at which the connection becomes writable again
+     * @param messagePriorities Priority classes of the endpoint
+     */
+    public TimeStopOutboundQueue(Connection connection, ToIntFunction<Object> writer, int highWatermark, int lowWatermark, TimeStopMessagePriorities messagePriorities) {
+        this.connection = connection;
+        this.writer = writer;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.messagePriorities = messagePriorities;
+        this.queuedMessages = new ArrayList<>(TimeStopMessagePriority.values().length);
+
+        for (int i = 0; i < TimeStopMessagePriority.values().length; i++) {
+            queuedMessages.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Gets the outbound queue of the connection
+     *
+     * @param connection Connection
+     *
+     * @return Outbound queue or null if the connection is not a TimeStop connection
+     */
+    public static TimeStopOutboundQueue get(Connection connection) {
+        if (connection instanceof TimeStopConnection) {
+            return ((TimeStopConnection) connection).getOutboundQueue();
+        }
+
+        if (connection instanceof TimeStopClient) {
+            return ((TimeStopClient) connection).getOutboundQueue();
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the connection is writable, see {@link #isWritable()}
+     *
+     * @param connection Connection
+     *
+     * @return If the connection is writable (true for connections without an outbound queue)
+     */
+    public static boolean isWritable(Connection connection) {
+        TimeStopOutboundQueue outboundQueue = get(connection);
+        return outboundQueue == null || outboundQueue.isWritable();
+    }
+
+    /**
+     * Adds writability listener
+     *
+     * @param writabilityListener Listener
+     */
+    public void addWritabilityListener(WritabilityListener writabilityListener) {
+        writabilityListeners.add(writabilityListener);
+    }
+
+    /**
+     * Removes writability listener
+     *
+     * @param writabilityListener Listener
+     */
+    public void removeWritabilityListener(WritabilityListener writabilityListener) {
+        writabilityListeners.remove(writabilityListener);
+    }
+
+    /**
+     * Gets the number of queued messages
+     *
+     * @return Number of queued messages
+     */
+    public synchronized int size() {
+        return queuedMessageCount;
+    }
+
+    /**
+     * Gets the number of queued messages of the priority class
+     *
+     * @param priority Priority
+     *
+     * @return Number of queued messages
+     */
+    public synchronized int size(TimeStopMessagePriority priority) {
+        return queuedMessages.get(priority.ordinal()).size();
+    }
+
+    /**
+     * Writes the translated message with {@link TimeStopMessagePriority#NORMAL} priority, see {@link #write(Object, TimeStopMessagePriority)}
+     *
+     * @param object Translated message
+     *
+     * @return Future completed with the number of bytes written once the message is written (0 if the connection was closed before)
+     */
+    public CompletableFuture<Integer> write(Object object) {
+        return write(object, TimeStopMessagePriority.NORMAL);
+    }
+
+    /**
+     * Writes the translated message or queues it when the write buffer is above the high watermark (or other messages of the same or higher
+     * priority class are queued)
+     *
+     * @param object   Translated message
+     * @param priority Priority class of the message
+     *
+     * @return Future completed with the number of bytes written once the message is written (0 if the connection was closed before)
+     */
+    public CompletableFuture<Integer> write(Object object, TimeStopMessagePriority priority) {
+        CompletableFuture<Integer> future;
+        boolean writableBefore;
+
+        synchronized (this) {
+            writableBefore = writable;
+
+            if (!hasQueuedMessages(priority) && connection.getTcpWriteBufferSize() < highWatermark) {
+                future = CompletableFuture.completedFuture(writer.applyAsInt(object));
+            } else {
+                future = new CompletableFuture<>();
+                queuedMessages.get(priority.ordinal()).add(new QueuedMessage(object, future));
+                queuedMessageCount++;
+            }
+
+            updateWritability();
+        }
+
+        notifyWritabilityListeners(writableBefore);
+        return future;
+    }
+
+    /**
+     * Writes queued messages while the write buffer is below the high watermark. Called when the write buffer drains.
+     */
+    public void drain() {
+        if (writable) {
+            // Nothing is queued
+            return;
+        }
+
+        boolean writableBefore;
+
+        synchronized (this) {
+            writableBefore = writable;
+
+            while (queuedMessageCount > 0 && connection.getTcpWriteBufferSize() < highWatermark) {
+                QueuedMessage queuedMessage = pollNext();
+                int bytes = 0;
+
+                try {
+                    bytes = writer.applyAsInt(queuedMessage.object);
+                } catch (Exception exception) {
+                    Log.error("Could not write queued message to connection " + connection, exception);
+                }
+
+                queuedMessage.future.complete(bytes);
+            }
+
+            updateWritability();
+        }
+
+        notifyWritabilityListeners(writableBefore);
+    }
+
+    /**
+     * Discards queued messages (e.g. when the connection was closed), their futures are completed with 0
+     */
+    public void clear() {
+        boolean writableBefore;
+
+        synchronized (this) {
+            writableBefore = writable;
+
+            for (ArrayDeque<QueuedMessage> queue : queuedMessages) {
+                QueuedMessage queuedMessage;
+
+                while ((queuedMessage = queue.poll()) != null) {
+                    queuedMessage.future.complete(0);
+                }
+            }
+
+            queuedMessageCount = 0;
+            writable = true;
+        }
+
+        notifyWritabilityListeners(writableBefore);
+    }
+
+    /**
+     * Checks if there are queued messages of the same or higher priority class
+     *
+     * @param priority Priority
+     *
+     * @return If there are such messages
+     */
+    private boolean hasQueuedMessages(TimeStopMessagePriority priority) {
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            if (!queuedMessages.get(i).isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Polls the next queued message, strictly by priority or by the remaining weights of the priority classes
+     *
+     * @return Queued message
+     */
+    private QueuedMessage pollNext() {
+        queuedMessageCount--;
+        int[] weights = messagePriorities.getWeights();
+
+        if (weights == null) {
+            for (ArrayDeque<QueuedMessage> queue : queuedMessages) {
+                if (!queue.isEmpty()) {
+                    return queue.poll();
+                }
+            }
+        } else {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < queuedMessages.size(); i++) {
+                    if (!queuedMessages.get(i).isEmpty() && remainingWeights[i] > 0) {
+                        remainingWeights[i]--;
+                        return queuedMessages.get(i).poll();
+                    }
+                }
+
+                // Every non-empty class used up its weight, next round
+                System.arraycopy(weights, 0, remainingWeights, 0, remainingWeights.length);
+            }
+        }
+
+        throw new IllegalStateException("Queued message count does not match the queues");
+    }
+
+    private void updateWritability() {
+        if (queuedMessageCount > 0 || connection.getTcpWriteBufferSize() >= highWatermark) {
+            writable = false;
+        } else if (connection.getTcpWriteBufferSize() <= lowWatermark) {
+            writable = true;
+        }
+    }
+
+    private void notifyWritabilityListeners(boolean writableBefore) {
+        boolean writable = this.writable;
+
+        if (writable == writableBefore) {
+            return;
+        }
+
+        for (WritabilityListener writabilityListener : writabilityListeners) {
+            try {
+                writabilityListener.writabilityChanged(connection, writable);
+            } catch (Exception exception) {
+                Log.error("Writability listener failed for connection " + connection, exception);
+            }
+        }
+    }
+
+    /**
+     * Listens for changes of connection's writability
+     */
+    public interface WritabilityListener {
+
+        /**
+         * Called when the connection stops or starts being writable. Producers should stop sending when the connection is not writable.
+         *
+         * @param connection Connection
+         * @param writable   If the connection is writable
+         */
+        void writabilityChanged(Connection connection, boolean writable);
+    }
+
+    private static class QueuedMessage {
+
+        private final Object object;
+        private final CompletableFuture<Integer> future;
+
+        private QueuedMessage(Object object, CompletableFuture<Integer> future) {
+            this.object = object;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
+import dev.mayuna.timestop.utils.TokenBucket;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many messages and bytes each connection may send to the server, so a single connection cannot monopolize the listener manager's
+ * executor. Each connection has token buckets for the connection limit and for each limited message class. Received messages are checked
+ * before they are passed to the listener manager; messages above the limit are delayed, dropped or the connection is closed, based on the
+ * policy. Bytes are counted when received (including segments and batches), messages when they are about to be passed to the listeners.<br>
+ * Checking the limits is lock-free. Handshake messages are never limited. Thread-safe.
+ */
+@Getter
+public class TimeStopRateLimiter {
+
+    public static final long DEFAULT_MAX_DELAY = 1000;
+
+    private static final Limit NO_LIMIT = new Limit();
+
+    private volatile Limit connectionLimit = new Limit(); // Unlimited
+    private final @Getter(AccessLevel.NONE) Map<Class<?>, Limit> messageClassLimits = new ConcurrentHashMap<>();
+    private final @Getter(AccessLevel.NONE) Map<Class<?>, Limit> resolvedMessageClassLimits = new ConcurrentHashMap<>();
+    private volatile Policy policy = Policy.DROP;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private final AtomicLong droppedMessageCount = new AtomicLong();
+
+    private final @Getter(AccessLevel.NONE) ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TimeStopRateLimiter-Delay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Sets the limit of each connection (all messages together)
+     *
+     * @param connectionLimit Limit
+     *
+     * @return Itself
+     */
+    public TimeStopRateLimiter withConnectionLimit(Limit connectionLimit) {
+        this.connectionLimit = connectionLimit;
+        return this;
+    }
+
+    /**
+     * Sets the limit of the message class (and its subclasses) for each connection. Messages must fit into both connection and message class
+     * limits.
+     *
+     * @param messageClass Message class
+     * @param limit        Limit
+     *
+     * @return Itself
+     */
+    public TimeStopRateLimiter withMessageClassLimit(Class<?> messageClass, Limit limit) {
+        messageClassLimits.put(messageClass, limit);
+        resolvedMessageClassLimits.clear();
+        return this;
+    }
+
+    /**
+     * Sets the policy for messages above the limit
+     *
+     * @param policy Policy
+     *
+     * @return Itself
+     */
+    public TimeStopRateLimiter withPolicy(Policy policy) {
+        this.policy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the maximum delay of messages with {@link Policy#DELAY} policy, messages that would have to be delayed longer are dropped
+     *
+     * @param maxDelay Maximum delay in milliseconds
+     *
+     * @return Itself
+     */
+    public TimeStopRateLimiter withMaxDelay(long maxDelay) {
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Creates rate limiter state of a new connection. Limits changed afterward apply only to new connections, except of new message class
+     * limits.
+     *
+     * @return State
+     */
+    public State createState() {
+        return new State(this, connectionLimit.createBuckets());
+    }
+
+    /**
+     * Gets rate limiter state of the connection
+     *
+     * @param connection Connection
+     *
+     * @return State or null if the connection is not limited
+     */
+    public static State getState(Connection connection) {
+        if (connection instanceof TimeStopConnection) {
+            return ((TimeStopConnection) connection).getRateLimiterState();
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the number of bytes of the received object as sent over the network (without framing), 0 if unknown or counted already (reassembled
+     * packets)
+     *
+     * @param object Received object (before translation)
+     *
+     * @return Number of bytes
+     */
+    public static int getSize(Object object) {
+        if (object instanceof TimeStopSequencedMessage) {
+            return getSize(((TimeStopSequencedMessage) object).getMessage());
+        }
+
+        if (object instanceof TimeStopPacket) {
+            TimeStopPacket timeStopPacket = (TimeStopPacket) object;
+            return timeStopPacket.isReassembled() ? 0 : timeStopPacket.getDataLength();
+        }
+
+        if (object instanceof TimeStopPacketSegment) {
+            byte[] data = ((TimeStopPacketSegment) object).getData();
+            return data == null ? 0 : data.length;
+        }
+
+        if (object instanceof TimeStopFileTransferSegment) {
+            byte[] data = ((TimeStopFileTransferSegment) object).getData();
+            return data == null ? 0 : data.length;
+        }
+
+        if (object instanceof byte[]) {
+            return ((byte[]) object).length;
+        }
+
+        return 0;
+    }
+
+    private Limit getMessageClassLimit(Class<?> messageClass) {
+        if (messageClassLimits.isEmpty()) {
+            return NO_LIMIT;
+        }
+
+        return resolvedMessageClassLimits.computeIfAbsent(messageClass, ignored -> {
+            for (Class<?> currentClass = messageClass; currentClass != null; currentClass = currentClass.getSuperclass()) {
+                Limit limit = messageClassLimits.get(currentClass);
+
+                if (limit != null) {
+                    return limit;
+                }
+            }
+
+            return NO_LIMIT;
+        });
+    }
+
+    /**
+     * Policy for messages above the limit
+     */
+    public enum Policy {
+
+        /**
+         * Messages are passed to the listeners once the connection is within the limit again (up to the maximum delay, longer delayed messages
+         * are dropped). Order of the messages is kept.
+         */
+        DELAY,
+        /**
+         * Messages are dropped
+         */
+        DROP,
+        /**
+         * Connection is closed
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Limit of messages per second and bytes per second, 0 for unlimited
+     */
+    @Getter
+    public static class Limit {
+
+        private double messagesPerSecond;
+        private long messageBurst;
+        private double bytesPerSecond;
+        private long byteBurst;
+
+        /**
+         * Limits messages per second
+         *
+         * @param messagesPerSecond Messages per second
+         * @param messageBurst      Number of messages that may be received at once
+         *
+         * @return Itself
+         */
+        public Limit withMessages(double messagesPerSecond, long messageBurst) {
+            this.messagesPerSecond = messagesPerSecond;
+            this.messageBurst = messageBurst;
+            return this;
+        }
+
+        /**
+         * Limits bytes per second
+         *
+         * @param bytesPerSecond Bytes per second
+         * @param byteBurst      Number of bytes that may be received at once
+         *
+         * @return Itself
+         */
+        public Limit withBytes(double bytesPerSecond, long byteBurst) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.byteBurst = byteBurst;
+            return this;
+        }
+
+        private Buckets createBuckets() {
+            return new Buckets(messagesPerSecond > 0 ? new TokenBucket(messagesPerSecond, messageBurst) : null,
+                               bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, byteBurst) : null);
+        }
+    }
+
+    private static class Buckets {
+
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        private Buckets(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Acquires a message and the bytes
+         *
+         * @param bytes   Number of bytes of the message
+         * @param reserve Whether missing tokens are borrowed
+         *
+         * @return Nanoseconds until the message is within the limit, 0 if it is within the limit now
+         */
+        private long acquire(long bytes, boolean reserve) {
+            long delay = 0;
+
+            if (messages != null) {
+                if (reserve) {
+                    delay = messages.reserve(1);
+                } else if (!messages.tryAcquire(1)) {
+                    return messages.getDelay() + 1;
+                }
+            }
+
+            // Bytes have already been received, so they are always counted
+            if (this.bytes != null && bytes > 0) {
+                delay = Math.max(delay, this.bytes.reserve(bytes));
+            }
+
+            return delay;
+        }
+
+        /**
+         * Returns the message acquired by {@link #acquire(long, boolean)} (bytes have been received, so they are not returned)
+         */
+        private void releaseMessage() {
+            if (messages != null) {
+                messages.release(1);
+            }
+        }
+    }
+
+    /**
+     * Rate limiter state of a connection
+     */
+    @Getter
+    public static class State {
+
+        private final TimeStopRateLimiter rateLimiter;
+        private final @Getter(AccessLevel.NONE) Buckets connectionBuckets;
+        private final @Getter(AccessLevel.NONE) Map<Class<?>, Buckets> messageClassBuckets = new ConcurrentHashMap<>();
+        private @Getter(AccessLevel.NONE) long unattributedBytes; // Bytes received since the last message, accessed only by the update thread
+
+        private final @Getter(AccessLevel.NONE) ArrayDeque<DelayedMessage> delayedMessages = new ArrayDeque<>();
+        private final AtomicInteger delayedMessageCount = new AtomicInteger();
+        private @Getter(AccessLevel.NONE) long lastDispatchAt; // Guarded by delayedMessages
+
+        private State(TimeStopRateLimiter rateLimiter, Buckets connectionBuckets) {
+            this.rateLimiter = rateLimiter;
+            this.connectionBuckets = connectionBuckets;
+        }
+
+        /**
+         * Counts received bytes. Called for every received object before translation.
+         *
+         * @param bytes Number of bytes
+         */
+        public void received(int bytes) {
+            if (bytes <= 0) {
+                return;
+            }
+
+            unattributedBytes += bytes;
+
+            if (connectionBuckets.bytes != null) {
+                connectionBuckets.bytes.reserve(bytes);
+            }
+        }
+
+        /**
+         * Passes the translated message to the dispatch if the connection is within the limits, otherwise applies the policy
+         *
+         * @param connection Connection
+         * @param object     Translated message
+         * @param dispatch   Passes the message to the listeners
+         */
+        public void process(Connection connection, Object object, Runnable dispatch) {
+            if (object instanceof FrameworkMessage) {
+                dispatch.run();
+                return;
+            }
+
+            Policy policy = rateLimiter.policy;
+            boolean reserve = policy == Policy.DELAY;
+            long bytes = unattributedBytes;
+            unattributedBytes = 0;
+
+            long delay = connectionBuckets.acquire(0, reserve);
+
+            if (connectionBuckets.bytes != null) {
+                delay = Math.max(delay, connectionBuckets.bytes.getDelay());
+            }
+
+            Limit messageClassLimit = rateLimiter.getMessageClassLimit(object.getClass());
+            Buckets classBuckets = null;
+
+            if (messageClassLimit != NO_LIMIT && (delay == 0 || reserve)) {
+                classBuckets = messageClassBuckets.computeIfAbsent(object.getClass(), ignored -> messageClassLimit.createBuckets());
+                delay = Math.max(delay, classBuckets.acquire(bytes, reserve));
+            }
+
+            // Fast path, delayed messages have to be dispatched first
+            if (delay == 0 && (!reserve || delayedMessageCount.get() == 0)) {
+                dispatch.run();
+                return;
+            }
+
+            switch (policy) {
+                case DELAY: {
+                    if (TimeUnit.NANOSECONDS.toMillis(delay) > rateLimiter.maxDelay) {
+                        // Dropped message does not keep its reserved slot, otherwise a burst would delay the following messages far beyond the drop
+                        connectionBuckets.releaseMessage();
+
+                        if (classBuckets != null) {
+                            classBuckets.releaseMessage();
+                        }
+
+                        drop(connection, object);
+                        return;
+                    }
+
+                    delay(delay, dispatch);
+                    return;
+                }
+                case DISCONNECT: {
+                    Log.warn("Connection " + connection + " exceeded the rate limit with " + object.getClass().getName() + ", closing it");
+                    connection.close();
+                    return;
+                }
+                default: {
+                    drop(connection, object);
+                }
+            }
+        }
+
+        private void drop(Connection connection, Object object) {
+            rateLimiter.droppedMessageCount.incrementAndGet();
+            Log.debug("Dropping " + object.getClass().getName() + " from connection " + connection + ", rate limit exceeded");
+        }
+
+        /**
+         * Queues the message, so it is dispatched after the delay and after previously delayed messages
+         *
+         * @param delay    Delay in nanoseconds
+         * @param dispatch Dispatch
+         */
+        private void delay(long delay, Runnable dispatch) {
+            synchronized (delayedMessages) {
+                long dispatchAt = Math.max(System.nanoTime() + delay, lastDispatchAt);
+                lastDispatchAt = dispatchAt;
+
+                delayedMessages.add(new DelayedMessage(dispatchAt, dispatch));
+                delayedMessageCount.incrementAndGet();
+
+                if (delayedMessages.size() == 1) {
+                    schedule(dispatchAt);
+                }
+            }
+        }
+
+        private void schedule(long dispatchAt) {
+            rateLimiter.scheduler.schedule(this::dispatchDelayed, Math.max(dispatchAt - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        }
+
+        private void dispatchDelayed() {
+            synchronized (delayedMessages) {
+                DelayedMessage delayedMessage;
+
+                while ((delayedMessage = delayedMessages.peek()) != null && delayedMessage.dispatchAt - System.nanoTime() <= 0) {
+                    delayedMessages.poll();
+
+                    try {
+                        delayedMessage.dispatch.run();
+                    } catch (Exception exception) {
+                        Log.error("Could not dispatch delayed message", exception);
+                    }
+
+                    delayedMessageCount.decrementAndGet();
+                }
+
+                if (delayedMessage != null) {
+                    schedule(delayedMessage.dispatchAt);
+                }
+            }
+        }
+    }
+
+    private static class DelayedMessage {
+
+        private final long dispatchAt;
+        private final Runnable dispatch;
+
+        private DelayedMessage(long dispatchAt, Runnable dispatch) {
+            this.dispatchAt = dispatchAt;
+            this.dispatch = dispatch;
+        }
+    }
+}
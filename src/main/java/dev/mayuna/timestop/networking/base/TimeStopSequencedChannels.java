@@ -0,0 +1,196 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Unreliable-sequenced UDP channels of a connection. Messages sent on a channel are stamped with the channel's next sequence number twice:
+ * inside the translated message (so the stamp is encrypted and authenticated together with the message) and on the translated message. Received
+ * messages older than the newest message received on the same channel are dropped by the outer stamp before they are translated. A message
+ * becomes the newest one only by the stamp found inside the translated message, which must match the outer one, so once the messages are
+ * encrypted using an authenticated cipher, a forged or corrupted stamp cannot make the valid messages stale. Messages may still be lost, but a
+ * stale message is never dispatched after a newer one. Thread-safe.
+ */
+public class TimeStopSequencedChannels {
+
+    /**
+     * Maximum number of channels whose newest received sequence is kept. Channels are chosen by the sender, so the least recently used channel
+     * is forgotten once the limit is reached; the next message on a forgotten channel is accepted regardless of its sequence.
+     */
+    public static int MAX_RECEIVED_CHANNELS = 1024;
+
+    private static final ThreadLocal<TimeStopSequencedMessage> CURRENT_STAMP = new ThreadLocal<>();
+
+    private final Map<Integer, AtomicInteger> sentSequences = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> receivedSequences = Collections.synchronizedMap(new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > MAX_RECEIVED_CHANNELS;
+        }
+    });
+    private final AtomicLong droppedMessageCount = new AtomicLong();
+
+    /**
+     * Gets the sequenced channels of the connection
+     *
+     * @param connection Connection
+     *
+     * @return Sequenced channels or null if the connection is not a TimeStop connection
+     */
+    public static TimeStopSequencedChannels get(Connection connection) {
+        if (connection instanceof TimeStopConnection) {
+            return ((TimeStopConnection) connection).getSequencedChannels();
+        }
+
+        if (connection instanceof TimeStopClient) {
+            return ((TimeStopClient) connection).getSequencedChannels();
+        }
+
+        return null;
+    }
+
+    /**
+     * Stamps the message with the channel's next sequence number and translates it while it is stamped, so messages sent using UDP during the
+     * translation (e.g. segments) can be stamped with the same sequence number, see {@link #stampSegment(Object)}
+     *
+     * @param channel    Channel
+     * @param message    Message
+     * @param translator Translates the stamped message
+     *
+     * @return Translated message stamped with the sequence number or null if the message was translated to null
+     */
+    public TimeStopSequencedMessage stamp(int channel, Object message, Function<Object, Object> translator) {
+        int sequence = sentSequences.computeIfAbsent(channel, ignored -> new AtomicInteger()).incrementAndGet();
+        TimeStopSequencedMessage stampedMessage = new TimeStopSequencedMessage(channel, sequence, false, message);
+        Object translatedMessage = withStamp(new TimeStopSequencedMessage(channel, sequence, true, null), () -> translator.apply(stampedMessage));
+        return translatedMessage != null ? new TimeStopSequencedMessage(channel, sequence, false, translatedMessage) : null;
+    }
+
+    /**
+     * Gets the stamp of the sequenced message being translated on the current thread
+     *
+     * @return Stamp or null if no sequenced message is being translated on the current thread
+     */
+    public static TimeStopSequencedMessage getCurrentStamp() {
+        return CURRENT_STAMP.get();
+    }
+
+    /**
+     * Runs the action while messages sent using UDP on the current thread are stamped with the stamp (e.g. when segments of a sequenced message
+     * are sent again), see {@link #stampSegment(Object)}
+     *
+     * @param stamp  Stamp obtained by {@link #getCurrentStamp()} (null to run the action as it is)
+     * @param action Action
+     * @param <T>    Type of the action's result
+     *
+     * @return Action's result
+     */
+    public static <T> T withStamp(TimeStopSequencedMessage stamp, Supplier<T> action) {
+        if (stamp == null) {
+            return action.get();
+        }
+
+        TimeStopSequencedMessage previousStamp = CURRENT_STAMP.get();
+        CURRENT_STAMP.set(stamp);
+
+        try {
+            return action.get();
+        } finally {
+            if (previousStamp == null) {
+                CURRENT_STAMP.remove();
+            } else {
+                CURRENT_STAMP.set(previousStamp);
+            }
+        }
+    }
+
+    /**
+     * Stamps the translated message with the sequence number of the sequenced message being translated on the current thread
+     *
+     * @param message Translated message
+     *
+     * @return Stamped message or the message itself if no sequenced message is being translated on the current thread
+     */
+    public static Object stampSegment(Object message) {
+        TimeStopSequencedMessage currentStamp = CURRENT_STAMP.get();
+
+        if (currentStamp == null) {
+            return message;
+        }
+
+        return new TimeStopSequencedMessage(currentStamp.getChannel(), currentStamp.getSequence(), true, message);
+    }
+
+    /**
+     * Checks if the received message is not older than the newest message received on its channel. Segments of the newest message are
+     * accepted as well. The message does not become the newest one until it is committed, see {@link #commit(TimeStopSequencedMessage, Object)}.
+     *
+     * @param sequencedMessage Received message
+     *
+     * @return True if the message should be translated and dispatched, false if it should be dropped
+     */
+    public boolean accept(TimeStopSequencedMessage sequencedMessage) {
+        Integer newestSequence = receivedSequences.get(sequencedMessage.getChannel());
+
+        // Compared by difference, so the sequence may overflow
+        int difference = newestSequence == null ? 1 : sequencedMessage.getSequence() - newestSequence;
+
+        if (difference > 0 || (difference == 0 && sequencedMessage.isSegment())) {
+            return true;
+        }
+
+        droppedMessageCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Makes the translated message the newest message of its channel by the stamp inside of it. Called once the message has been translated
+     * successfully (and accepted by the handshake). The received stamp is not covered by the encryption, so it is used only to drop stale
+     * messages early.
+     *
+     * @param sequencedMessage  Received message (the last segment's if the message was reassembled from segments), null if unknown
+     * @param translatedMessage Translated message
+     *
+     * @return Message to dispatch or null if it should be dropped (stale, or its stamps do not match)
+     */
+    public Object commit(TimeStopSequencedMessage sequencedMessage, Object translatedMessage) {
+        if (!(translatedMessage instanceof TimeStopSequencedMessage)) {
+            // Not sent on a sequenced channel, unless the received stamp has been forged
+            return sequencedMessage == null ? translatedMessage : null;
+        }
+
+        TimeStopSequencedMessage stampedMessage = (TimeStopSequencedMessage) translatedMessage;
+
+        if (stampedMessage.isSegment() || (sequencedMessage != null && (sequencedMessage.getChannel() != stampedMessage.getChannel() || sequencedMessage.getSequence() != stampedMessage.getSequence()))) {
+            return null;
+        }
+
+        synchronized (receivedSequences) {
+            if (!accept(stampedMessage)) {
+                return null;
+            }
+
+            receivedSequences.put(stampedMessage.getChannel(), stampedMessage.getSequence());
+        }
+
+        return stampedMessage.getMessage();
+    }
+
+    /**
+     * Gets the number of received messages dropped because a newer message had been received on the same channel
+     *
+     * @return Number of dropped messages
+     */
+    public long getDroppedMessageCount() {
+        return droppedMessageCount.get();
+    }
+}
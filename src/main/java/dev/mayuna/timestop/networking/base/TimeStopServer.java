@@ -1,9 +1,11 @@
 package dev.mayuna.timestop.networking.base;
 
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.kryonet.Server;
 import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.exceptions.HandshakeFailedException;
 import dev.mayuna.timestop.networking.NetworkConstants;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListenerManager;
@@ -11,11 +13,22 @@ import dev.mayuna.timestop.networking.base.listener.TimeStopResponseListener;
 import dev.mayuna.timestop.networking.base.serialization.TimeStopSerialization;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import dev.mayuna.timestop.networking.timestop.TimeStopBatch;
+import dev.mayuna.timestop.networking.timestop.TimeStopHandshake;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
 import lombok.Getter;
 import lombok.NonNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -25,10 +38,19 @@ import java.util.function.Consumer;
 @Getter
 public class TimeStopServer extends Server implements Listener {
 
+    public static int MIN_GROUP_THREADS = 4;
+
     private final Timer timeoutTimer = new Timer();
     private final EndpointConfig endpointConfig;
+    private final int writeBufferSize;
+    private final TimeStopMessagePriorities messagePriorities;
     private TimeStopListenerManager listenerManager;
     private TimeStopTranslatorManager translatorManager;
+    private TimeStopHandshake handshake;
+    private TimeStopRateLimiter rateLimiter;
+    private final ConcurrentHashMap<String, TimeStopConnectionGroup> groups = new ConcurrentHashMap<>();
+    private volatile Executor groupExecutor; // Set using withGroupExecutor(), not shut down by the server
+    private volatile ExecutorService ownedGroupExecutor; // Created by the server when no executor is set, shut down on close
 
     /**
      * Creates a new server with the given endpoint config
@@ -38,8 +60,27 @@ public class TimeStopServer extends Server implements Listener {
      * @param objectBufferSize Object buffer size
      */
     public TimeStopServer(EndpointConfig endpointConfig, int writeBufferSize, int objectBufferSize) {
+        this(endpointConfig, writeBufferSize, objectBufferSize, null, null, new TimeStopMessagePriorities());
+    }
+
+    /**
+     * Creates a new server with the given endpoint config that shares the managers with other servers (e.g. shards of
+     * {@link TimeStopShardedServer})
+     *
+     * @param endpointConfig    Endpoint config
+     * @param writeBufferSize   Write buffer size
+     * @param objectBufferSize  Object buffer size
+     * @param listenerManager   Listener manager, null to create a new one
+     * @param translatorManager Translator manager, null to create a new one
+     * @param messagePriorities Priority classes of outbound messages
+     */
+    public TimeStopServer(EndpointConfig endpointConfig, int writeBufferSize, int objectBufferSize, TimeStopListenerManager listenerManager, TimeStopTranslatorManager translatorManager, TimeStopMessagePriorities messagePriorities) {
         super(writeBufferSize, objectBufferSize);
         this.endpointConfig = endpointConfig;
+        this.writeBufferSize = writeBufferSize;
+        this.listenerManager = listenerManager;
+        this.translatorManager = translatorManager;
+        this.messagePriorities = messagePriorities;
         prepare();
     }
 
@@ -59,8 +100,13 @@ public class TimeStopServer extends Server implements Listener {
         Log.info("Preparing server...");
 
         // Listener & translator manager
-        listenerManager = new TimeStopListenerManager(endpointConfig.getMaxThreads());
-        translatorManager = new TimeStopTranslatorManager(endpointConfig.isCloseConnectionsOnTranslationException());
+        if (listenerManager == null) {
+            listenerManager = new TimeStopListenerManager(endpointConfig.getMaxThreads());
+        }
+
+        if (translatorManager == null) {
+            translatorManager = new TimeStopTranslatorManager(endpointConfig.isCloseConnectionsOnTranslationException());
+        }
 
         // Register classes
         TimeStopSerialization.register(getKryo());
@@ -70,29 +116,268 @@ public class TimeStopServer extends Server implements Listener {
     }
 
     /**
-     * Creates a new TimeStopConnection with current listener manager and translator manager
+     * Enables the built-in handshake. Must be called before binding. Connections have to complete the handshake before their messages are
+     * passed to listeners and messages sent to them before it completes are queued. Registers translators needed for the encrypted session.
+     *
+     * @param handshake Handshake
+     *
+     * @return Itself
+     */
+    public TimeStopServer withHandshake(TimeStopHandshake handshake) {
+        this.handshake = handshake;
+        handshake.registerTranslators(translatorManager);
+        return this;
+    }
+
+    /**
+     * Enables rate limiting of received messages. Must be called before binding, connections accepted before are not limited.
+     *
+     * @param rateLimiter Rate limiter
+     *
+     * @return Itself
+     */
+    public TimeStopServer withRateLimiter(TimeStopRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * Sets the executor that writes messages sent to connection groups to their members. By default, a fixed thread pool with a thread for each
+     * available processor (at least {@link #MIN_GROUP_THREADS}) is created when the first message is sent to a group and shut down when the
+     * server is closed. Executor set using this method is not shut down by the server.
+     *
+     * @param groupExecutor Executor
+     *
+     * @return Itself
+     */
+    public TimeStopServer withGroupExecutor(Executor groupExecutor) {
+        this.groupExecutor = groupExecutor;
+        return this;
+    }
+
+    /**
+     * Gets the connection group with the given name, creates it if it does not exist
+     *
+     * @param name Name of the group
+     *
+     * @return The group
+     */
+    public TimeStopConnectionGroup getOrCreateGroup(String name) {
+        return groups.computeIfAbsent(name, groupName -> new TimeStopConnectionGroup(groupName, runnable -> getOrCreateGroupExecutor().execute(runnable)));
+    }
+
+    /**
+     * Gets the connection group with the given name
+     *
+     * @param name Name of the group
+     *
+     * @return The group or null if it does not exist
+     */
+    public TimeStopConnectionGroup getGroup(String name) {
+        return groups.get(name);
+    }
+
+    /**
+     * Removes the connection group with the given name
+     *
+     * @param name Name of the group
+     *
+     * @return The removed group or null if it did not exist
+     */
+    public TimeStopConnectionGroup removeGroup(String name) {
+        return groups.remove(name);
+    }
+
+    /**
+     * Stops the server and closes its translators, see {@link TimeStopTranslatorManager#close()}
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        translatorManager.close();
+    }
+
+    /**
+     * Closes the server and shuts down the group executor created by the server (it is created again when a message is sent to a group)
+     */
+    @Override
+    public void close() {
+        super.close();
+        shutdownOwnedGroupExecutor();
+    }
+
+    private Executor getOrCreateGroupExecutor() {
+        Executor groupExecutor = this.groupExecutor;
+
+        if (groupExecutor == null) {
+            groupExecutor = ownedGroupExecutor;
+        }
+
+        return groupExecutor != null ? groupExecutor : getOrCreateOwnedGroupExecutor();
+    }
+
+    private synchronized ExecutorService getOrCreateOwnedGroupExecutor() {
+        if (ownedGroupExecutor == null) {
+            ownedGroupExecutor = Executors.newFixedThreadPool(Math.max(MIN_GROUP_THREADS, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "TimeStopServer-Group");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return ownedGroupExecutor;
+    }
+
+    private synchronized void shutdownOwnedGroupExecutor() {
+        if (ownedGroupExecutor != null) {
+            ownedGroupExecutor.shutdown();
+            ownedGroupExecutor = null;
+        }
+    }
+
+    /**
+     * Creates a new TimeStopConnection with current listener manager, translator manager, write buffer watermarks and priority classes
      *
      * @return Connection
      */
     @Override
     protected Connection newConnection() {
-        return new TimeStopConnection(listenerManager, translatorManager);
+        TimeStopConnection connection = new TimeStopConnection(listenerManager, translatorManager, (int) (writeBufferSize * endpointConfig.getWriteBufferHighWatermark()), (int) (writeBufferSize * endpointConfig.getWriteBufferLowWatermark()), messagePriorities);
+
+        // Queued messages are written when the write buffer drains below the low watermark
+        connection.setIdleThreshold(endpointConfig.getWriteBufferLowWatermark());
+
+        if (handshake != null) {
+            connection.setHandshakeState(new TimeStopHandshake.State());
+        }
+
+        if (rateLimiter != null) {
+            connection.setRateLimiterState(rateLimiter.createState());
+        }
+
+        return connection;
+    }
+
+    @Override
+    public void idle(Connection connection) {
+        TimeStopOutboundQueue outboundQueue = TimeStopOutboundQueue.get(connection);
+
+        if (outboundQueue != null) {
+            outboundQueue.drain();
+        }
+
+        if (connection instanceof TimeStopConnection) {
+            ((TimeStopConnection) connection).closeIfFlushed();
+        }
+    }
+
+    @Override
+    public void disconnected(Connection connection) {
+        TimeStopOutboundQueue outboundQueue = TimeStopOutboundQueue.get(connection);
+
+        if (outboundQueue != null) {
+            outboundQueue.clear();
+        }
+
+        for (TimeStopConnectionGroup group : groups.values()) {
+            group.remove(connection);
+        }
+
+        translatorManager.disconnected(connection);
+
+        TimeStopHandshake.State handshakeState = TimeStopHandshake.getState(connection);
+
+        if (handshakeState != null) {
+            handshakeState.fail(new HandshakeFailedException("Disconnected"));
+        }
     }
 
     /**
-     * Processes received objects. Translates them using {@link TimeStopTranslatorManager} and then passes them to {@link TimeStopListenerManager}.
+     * Processes received objects. Translates them using {@link TimeStopTranslatorManager} and then passes them to {@link TimeStopListenerManager}
+     * (if the connection is within the limits of the rate limiter). Objects received on an unreliable-sequenced channel are dropped before the
+     * translation if a newer object has been received on the same channel.
      *
      * @param connection Connection
      * @param object     Object
      */
     @Override
     public void received(Connection connection, Object object) {
-        object = translatorManager.process(new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.INBOUND), object);
+        received(connection, object, false);
+    }
+
+    /**
+     * Processes received object
+     *
+     * @param connection Connection
+     * @param object     Object
+     * @param decrypted  Whether the object has been decrypted already (a message of a decrypted batch)
+     */
+    private void received(Connection connection, Object object, boolean decrypted) {
+        TimeStopRateLimiter.State rateLimiterState = TimeStopRateLimiter.getState(connection);
+
+        if (rateLimiterState != null) {
+            rateLimiterState.received(TimeStopRateLimiter.getSize(object));
+        }
+
+        TimeStopSequencedChannels sequencedChannels = TimeStopSequencedChannels.get(connection);
+        TimeStopSequencedMessage sequencedMessage = null;
+
+        if (object instanceof TimeStopSequencedMessage) {
+            sequencedMessage = (TimeStopSequencedMessage) object;
+
+            if (sequencedChannels != null && !sequencedChannels.accept(sequencedMessage)) {
+                return;
+            }
+
+            object = sequencedMessage.getMessage();
+        }
+
+        TimeStopTranslator.Context context = new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.INBOUND);
+        context.setDecrypted(decrypted);
+        object = translatorManager.process(context, object);
 
         if (object == null) {
             return;
         }
 
+        if (object instanceof TimeStopBatch) {
+            Object[] messages;
+
+            try {
+                messages = ((TimeStopBatch) object).readMessages(connection.getEndPoint().getKryo());
+            } catch (KryoException exception) {
+                Log.error("Received malformed batch from connection '" + connection + "'. The connection will be terminated.", exception);
+                connection.close();
+                return;
+            }
+
+            // Every message of the batch is translated and dispatched on its own, they were encrypted as a part of the batch
+            for (Object message : messages) {
+                received(connection, message, context.isDecrypted());
+            }
+
+            return;
+        }
+
+        if (handshake != null && handshake.process(connection, object, context.isDecrypted())) {
+            return;
+        }
+
+        if (sequencedChannels != null && (sequencedMessage != null || object instanceof TimeStopSequencedMessage)) {
+            // Committed by the stamp inside the translated message, the received stamp is not covered by the encryption
+            object = sequencedChannels.commit(sequencedMessage, object);
+
+            if (object == null) {
+                return;
+            }
+        }
+
+        if (rateLimiterState != null) {
+            Object message = object;
+            rateLimiterState.process(connection, message, () -> listenerManager.process(connection, message));
+            return;
+        }
+
         listenerManager.process(connection, object);
     }
 
@@ -106,6 +391,120 @@ public class TimeStopServer extends Server implements Listener {
         sendToTCP(connection.getID(), object);
     }
 
+    /**
+     * Sends the given object to all connections. Object is translated by connection-independent translators (e.g. serialized) only once, see
+     * {@link #sendToAllTCP(Iterable, Object)}.
+     *
+     * @param object Object to send
+     */
+    @Override
+    public void sendToAllTCP(Object object) {
+        sendToAllTCP(Arrays.asList(getConnections()), object);
+    }
+
+    /**
+     * Sends the given object to all connections except the one with the given ID. Object is translated by connection-independent translators
+     * (e.g. serialized) only once, see {@link #sendToAllTCP(Iterable, Object)}.
+     *
+     * @param connectionID Connection ID to skip
+     * @param object       Object to send
+     */
+    @Override
+    public void sendToAllExceptTCP(int connectionID, Object object) {
+        sendToAllTCP(getConnectionsExcept(connectionID), object);
+    }
+
+    /**
+     * Sends the given object to all connections using UDP. Object is translated by connection-independent translators (e.g. serialized) only
+     * once, see {@link #sendToAllUDP(Iterable, Object)}.
+     *
+     * @param object Object to send
+     */
+    @Override
+    public void sendToAllUDP(Object object) {
+        sendToAllUDP(Arrays.asList(getConnections()), object);
+    }
+
+    /**
+     * Sends the given object to all connections except the one with the given ID using UDP. Object is translated by connection-independent
+     * translators (e.g. serialized) only once, see {@link #sendToAllUDP(Iterable, Object)}.
+     *
+     * @param connectionID Connection ID to skip
+     * @param object       Object to send
+     */
+    @Override
+    public void sendToAllExceptUDP(int connectionID, Object object) {
+        sendToAllUDP(getConnectionsExcept(connectionID), object);
+    }
+
+    /**
+     * Broadcasts the given object to the given connections. Connection-independent translators (e.g. {@link TimeStopPacketTranslator}'s
+     * serialization) are run only once and their result is shared, only the remaining translators (e.g. session encryption) are run for each
+     * connection.
+     *
+     * @param connections Connections
+     * @param object      Object to send
+     */
+    public void sendToAllTCP(Iterable<? extends Connection> connections, Object object) {
+        TimeStopTranslatorManager.SharedTranslation sharedTranslation = null;
+
+        for (Connection connection : connections) {
+            if (!(connection instanceof TimeStopConnection)) {
+                connection.sendTCP(object);
+                continue;
+            }
+
+            if (sharedTranslation == null) {
+                sharedTranslation = translatorManager.processShared(new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.OUTBOUND), object);
+
+                if (sharedTranslation == null) {
+                    return;
+                }
+            }
+
+            ((TimeStopConnection) connection).sendTCP(sharedTranslation);
+        }
+    }
+
+    /**
+     * Broadcasts the given object to the given connections using UDP, see {@link #sendToAllTCP(Iterable, Object)}
+     *
+     * @param connections Connections
+     * @param object      Object to send
+     */
+    public void sendToAllUDP(Iterable<? extends Connection> connections, Object object) {
+        TimeStopTranslatorManager.SharedTranslation sharedTranslation = null;
+
+        for (Connection connection : connections) {
+            if (!(connection instanceof TimeStopConnection)) {
+                connection.sendUDP(object);
+                continue;
+            }
+
+            if (sharedTranslation == null) {
+                sharedTranslation = translatorManager.processShared(new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.OUTBOUND, true), object);
+
+                if (sharedTranslation == null) {
+                    return;
+                }
+            }
+
+            ((TimeStopConnection) connection).sendUDP(sharedTranslation);
+        }
+    }
+
+    private List<Connection> getConnectionsExcept(int connectionID) {
+        List<Connection> connections = new ArrayList<>();
+
+        for (Connection connection : getConnections()) {
+            if (connection.getID() != connectionID) {
+                connections.add(connection);
+            }
+        }
+
+        return connections;
+    }
+
     /**
      * Sends the given object to the server and waits for a response<br>Object will be translated before sending using
      * {@link TimeStopTranslatorManager}.
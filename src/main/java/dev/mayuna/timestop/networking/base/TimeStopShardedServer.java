@@ -0,0 +1,289 @@
+package dev.mayuna.timestop.networking.base;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.networking.NetworkConstants;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListenerManager;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopHandshake;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Server that spreads connections across multiple {@link TimeStopServer} shards. Each shard has its own selector loop with its own update
+ * thread, buffers and Kryo instance, so socket reads and writes of different shards run in parallel. Shards share the listener manager and the
+ * priority classes. Each shard has its own translator manager, so translation on different shards does not contend for one lock (translators
+ * are registered using {@link #registerTranslator(Supplier)}).<br>
+ * Each shard is bound to its own port (base port + index of the shard), clients are spread across the shards by connecting to different ports
+ * (see {@link TimeStopClientPool#connectToShards(int, String, int, int)}). Connection groups are shared by all shards.
+ */
+@Getter
+public class TimeStopShardedServer {
+
+    private final EndpointConfig endpointConfig;
+    private final TimeStopListenerManager listenerManager;
+    private final TimeStopMessagePriorities messagePriorities = new TimeStopMessagePriorities();
+    private final List<TimeStopServer> shards;
+
+    /**
+     * Creates a new sharded server
+     *
+     * @param endpointConfig   Endpoint config
+     * @param shardCount       Number of shards (e.g. number of available processors)
+     * @param writeBufferSize  Write buffer size
+     * @param objectBufferSize Object buffer size
+     */
+    public TimeStopShardedServer(EndpointConfig endpointConfig, int shardCount, int writeBufferSize, int objectBufferSize) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+
+        this.endpointConfig = endpointConfig;
+        this.listenerManager = new TimeStopListenerManager(endpointConfig.getMaxThreads());
+
+        List<TimeStopServer> shards = new ArrayList<>(shardCount);
+
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new TimeStopServer(endpointConfig, writeBufferSize, objectBufferSize, listenerManager, null, messagePriorities));
+        }
+
+        this.shards = Collections.unmodifiableList(shards);
+
+        // Groups are kept by the first shard, connections of other shards have to be removed from them as well
+        TimeStopServer groupShard = shards.get(0);
+
+        for (int i = 1; i < shardCount; i++) {
+            shards.get(i).addListener(new Listener() {
+                @Override
+                public void disconnected(Connection connection) {
+                    for (TimeStopConnectionGroup group : groupShard.getGroups().values()) {
+                        group.remove(connection);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates a new sharded server with a shard for each available processor
+     *
+     * @param endpointConfig Endpoint config
+     */
+    public TimeStopShardedServer(EndpointConfig endpointConfig) {
+        this(endpointConfig, Runtime.getRuntime().availableProcessors(), NetworkConstants.WRITE_BUFFER_SIZE, NetworkConstants.OBJECT_BUFFER_SIZE);
+    }
+
+    /**
+     * Enables the built-in handshake on all shards, see {@link TimeStopServer#withHandshake(TimeStopHandshake)}. Must be called before binding.
+     *
+     * @param handshake Handshake
+     *
+     * @return Itself
+     */
+    public TimeStopShardedServer withHandshake(TimeStopHandshake handshake) {
+        for (TimeStopServer shard : shards) {
+            shard.withHandshake(handshake);
+        }
+
+        return this;
+    }
+
+    /**
+     * Registers a translator in the translator manager of every shard. Every shard gets its own instance, since translators may keep state of
+     * their connections.
+     *
+     * @param translatorFactory Creates the translator for each shard
+     */
+    public void registerTranslator(Supplier<? extends TimeStopTranslator> translatorFactory) {
+        for (TimeStopServer shard : shards) {
+            shard.getTranslatorManager().registerTranslator(translatorFactory.get());
+        }
+    }
+
+    /**
+     * Enables rate limiting of received messages on all shards, see {@link TimeStopServer#withRateLimiter(TimeStopRateLimiter)}
+     *
+     * @param rateLimiter Rate limiter
+     *
+     * @return Itself
+     */
+    public TimeStopShardedServer withRateLimiter(TimeStopRateLimiter rateLimiter) {
+        for (TimeStopServer shard : shards) {
+            shard.withRateLimiter(rateLimiter);
+        }
+
+        return this;
+    }
+
+    /**
+     * Runs the action for all shards (e.g. registering classes in their Kryo, see {@link #registerClass(Class)})
+     *
+     * @param action Action
+     */
+    public void forEachShard(Consumer<TimeStopServer> action) {
+        shards.forEach(action);
+    }
+
+    /**
+     * Registers the class in Kryo of all shards
+     *
+     * @param type Class
+     */
+    public void registerClass(Class<?> type) {
+        for (TimeStopServer shard : shards) {
+            shard.getKryo().register(type);
+        }
+    }
+
+    /**
+     * Binds the shards to consecutive TCP ports starting at the base port
+     *
+     * @param baseTcpPort TCP port of the first shard
+     *
+     * @throws IOException If any shard could not be bound
+     */
+    public void bind(int baseTcpPort) throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).bind(baseTcpPort + i);
+        }
+    }
+
+    /**
+     * Binds the shards to consecutive TCP and UDP ports starting at the base ports
+     *
+     * @param baseTcpPort TCP port of the first shard
+     * @param baseUdpPort UDP port of the first shard
+     *
+     * @throws IOException If any shard could not be bound
+     */
+    public void bind(int baseTcpPort, int baseUdpPort) throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).bind(baseTcpPort + i, baseUdpPort + i);
+        }
+    }
+
+    /**
+     * Starts update threads of all shards
+     */
+    public void start() {
+        Log.info("Starting " + shards.size() + " server shards...");
+
+        for (TimeStopServer shard : shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Closes all shards
+     */
+    public void close() {
+        for (TimeStopServer shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Stops all shards
+     */
+    public void stop() {
+        for (TimeStopServer shard : shards) {
+            shard.stop();
+        }
+    }
+
+    /**
+     * Gets connections of all shards
+     *
+     * @return Connections
+     */
+    public Connection[] getConnections() {
+        List<Connection> connections = new ArrayList<>();
+
+        for (TimeStopServer shard : shards) {
+            connections.addAll(Arrays.asList(shard.getConnections()));
+        }
+
+        return connections.toArray(new Connection[0]);
+    }
+
+    /**
+     * Gets the shard the connection belongs to
+     *
+     * @param connection Connection
+     *
+     * @return Shard or null
+     */
+    public TimeStopServer getShard(Connection connection) {
+        for (TimeStopServer shard : shards) {
+            if (connection.getEndPoint() == shard) {
+                return shard;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Sends the given object to all connections of all shards. Object is translated by connection-independent translators once per shard, see
+     * {@link TimeStopServer#sendToAllTCP(Iterable, Object)}.
+     *
+     * @param object Object to send
+     */
+    public void sendToAllTCP(Object object) {
+        for (TimeStopServer shard : shards) {
+            shard.sendToAllTCP(object);
+        }
+    }
+
+    /**
+     * Sends the given object to all connections of all shards using UDP, see {@link TimeStopServer#sendToAllUDP(Iterable, Object)}.
+     *
+     * @param object Object to send
+     */
+    public void sendToAllUDP(Object object) {
+        for (TimeStopServer shard : shards) {
+            shard.sendToAllUDP(object);
+        }
+    }
+
+    /**
+     * Gets the connection group with the given name, creates it if it does not exist. Group may contain connections of any shard.
+     *
+     * @param name Name of the group
+     *
+     * @return The group
+     */
+    public TimeStopConnectionGroup getOrCreateGroup(String name) {
+        return shards.get(0).getOrCreateGroup(name);
+    }
+
+    /**
+     * Gets the connection group with the given name
+     *
+     * @param name Name of the group
+     *
+     * @return The group or null if it does not exist
+     */
+    public TimeStopConnectionGroup getGroup(String name) {
+        return shards.get(0).getGroup(name);
+    }
+
+    /**
+     * Removes the connection group with the given name
+     *
+     * @param name Name of the group
+     *
+     * @return The removed group or null if it did not exist
+     */
+    public TimeStopConnectionGroup removeGroup(String name) {
+        return shards.get(0).removeGroup(name);
+    }
+}
@@ -3,9 +3,16 @@ package dev.mayuna.timestop.networking.base.serialization;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.minlog.Log;
 import dev.mayuna.timestop.networking.timestop.Packets;
+import dev.mayuna.timestop.networking.timestop.TimeStopBatch;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferStatus;
 import dev.mayuna.timestop.networking.timestop.TimeStopMessage;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentCredit;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentNack;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
 
 import java.util.UUID;
 
@@ -40,6 +47,8 @@ public class TimeStopSerialization {
     private static void registerJavaClasses(Kryo kryo) {
         // Basic
         kryo.register(byte[].class);
+        kryo.register(int[].class);
+        kryo.register(String[].class);
         kryo.register(boolean.class);
 
         // Serializers
@@ -54,6 +63,13 @@ public class TimeStopSerialization {
     private static void registerTimeStopClasses(Kryo kryo) {
         kryo.register(TimeStopPacket.class);
         kryo.register(TimeStopPacketSegment.class);
+        kryo.register(TimeStopPacketSegmentCredit.class);
+        kryo.register(TimeStopPacketSegmentNack.class);
+        kryo.register(TimeStopBatch.class);
+        kryo.register(TimeStopSequencedMessage.class);
+        kryo.register(TimeStopFileTransfer.class);
+        kryo.register(TimeStopFileTransferSegment.class);
+        kryo.register(TimeStopFileTransferStatus.class);
 
         // Packets
         kryo.register(TimeStopMessage.class);
@@ -62,5 +78,8 @@ public class TimeStopSerialization {
         kryo.register(Packets.AsymmetricKeyExchange.class);
         kryo.register(Packets.SymmetricKeyExchange.class);
         kryo.register(Packets.EncryptedCommunicationRequest.class);
+        kryo.register(Packets.HandshakeRequest.class);
+        kryo.register(Packets.HandshakeResponse.class);
+        kryo.register(Packets.SymmetricKeyRotation.class);
     }
 }
@@ -33,6 +33,33 @@ public abstract class TimeStopTranslator {
      */
     public abstract Object translate(Context context, Object object);
 
+    /**
+     * Checks if the translator's outbound result does not depend on the connection (e.g. serialization), so it can be translated once and shared
+     * when the same object is sent to multiple connections, see {@link TimeStopTranslatorManager#processShared(Context, Object)}. Such
+     * translators must not reset the context.
+     *
+     * @return If the translator is connection-independent (false by default)
+     */
+    public boolean isConnectionIndependent() {
+        return false;
+    }
+
+    /**
+     * Releases resources of the translator (e.g. threads). Called when the endpoint the translator is registered to is stopped, see
+     * {@link TimeStopTranslatorManager#close()}. The translator must still work if the endpoint is started again.
+     */
+    public void close() {
+    }
+
+    /**
+     * Releases state the translator keeps for the connection (e.g. partially received messages). Called when the connection disconnects from
+     * the endpoint the translator is registered to, see {@link TimeStopTranslatorManager#disconnected(Connection)}.
+     *
+     * @param connection Connection
+     */
+    public void disconnected(Connection connection) {
+    }
+
     /**
      * Context for received/sent messages.
      */
@@ -40,7 +67,9 @@ public abstract class TimeStopTranslator {
     public static class Context extends ConnectionContext {
 
         private final Way way;
+        private final boolean udp;
         private boolean reset;
+        private boolean decrypted; // Inbound only
 
         /**
          * Creates a new context
@@ -49,8 +78,20 @@ public abstract class TimeStopTranslator {
          * @param way        Way of the message
          */
         public Context(@NonNull Connection connection, @NonNull Way way) {
+            this(connection, way, false);
+        }
+
+        /**
+         * Creates a new context
+         *
+         * @param connection Connection the message was received from / will be sent to
+         * @param way        Way of the message
+         * @param udp        Whether the outbound message will be sent using UDP (unknown for inbound messages)
+         */
+        public Context(@NonNull Connection connection, @NonNull Way way, boolean udp) {
             super(connection);
             this.way = way;
+            this.udp = udp;
         }
 
         /**
@@ -63,6 +104,16 @@ public abstract class TimeStopTranslator {
             this.reset = reset;
         }
 
+        /**
+         * Marks the inbound message as decrypted, so the endpoint knows it has been received from the peer holding the session key
+         *
+         * @param decrypted Whether the message has been decrypted
+         */
+        @SuppressWarnings({"LombokSetterMayBeUsed", "RedundantSuppression"})
+        public void setDecrypted(boolean decrypted) {
+            this.decrypted = decrypted;
+        }
+
         /**
          * Gets the way of the message
          */
@@ -1,8 +1,10 @@
 package dev.mayuna.timestop.networking.base.translator;
 
+import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.minlog.Log;
 import lombok.Getter;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -43,6 +45,46 @@ public class TimeStopTranslatorManager {
         translators.remove(translator);
     }
 
+    /**
+     * Closes all registered translators, see {@link TimeStopTranslator#close()}
+     */
+    public void close() {
+        List<TimeStopTranslator> registeredTranslators;
+
+        synchronized (translators) {
+            registeredTranslators = new ArrayList<>(translators);
+        }
+
+        for (TimeStopTranslator translator : registeredTranslators) {
+            try {
+                translator.close();
+            } catch (Exception exception) {
+                Log.error("Error while closing translator " + translator.getClass().getName(), exception);
+            }
+        }
+    }
+
+    /**
+     * Notifies all registered translators that the connection has disconnected, see {@link TimeStopTranslator#disconnected(Connection)}
+     *
+     * @param connection Connection
+     */
+    public void disconnected(Connection connection) {
+        List<TimeStopTranslator> registeredTranslators;
+
+        synchronized (translators) {
+            registeredTranslators = new ArrayList<>(translators);
+        }
+
+        for (TimeStopTranslator translator : registeredTranslators) {
+            try {
+                translator.disconnected(connection);
+            } catch (Exception exception) {
+                Log.error("Error while releasing state of connection '" + connection + "' in translator " + translator.getClass().getName(), exception);
+            }
+        }
+    }
+
     /**
      * Processes message<br>If some translator returns null, returned value will be null (and other translators will not be executed)
      *
@@ -52,33 +94,108 @@ public class TimeStopTranslatorManager {
      * @return Translated message
      */
     public Object process(TimeStopTranslator.Context context, Object object) {
+        synchronized (translators) {
+            return process(context, object, translators, closeConnectionsOnTranslationException);
+        }
+    }
+
+    /**
+     * Processes outbound message using leading connection-independent translators only (see
+     * {@link TimeStopTranslator#isConnectionIndependent()}), so the result can be shared by multiple connections. Remaining translators are run
+     * for each connection using {@link #process(TimeStopTranslator.Context, SharedTranslation)}.
+     *
+     * @param context Translating context (of any of the connections, e.g. the first one)
+     * @param object  Message to process
+     *
+     * @return Shared translation or null if some translator returned null
+     */
+    public SharedTranslation processShared(TimeStopTranslator.Context context, Object object) {
+        List<TimeStopTranslator> sharedTranslators = new ArrayList<>();
+        List<TimeStopTranslator> remainingTranslators = new ArrayList<>();
+
         synchronized (translators) {
             for (TimeStopTranslator translator : translators) {
-                try {
-                    // TODO: Catch errors and close connections
-                    object = translator.translate(context, object);
-
-                    if (context.isReset()) {
-                        context.setReset(false);
-                        object = process(context, object);
-                    }
-
-                    // If the translated object is null, we should not continue
-                    if (object == null) {
-                        return null;
-                    }
-                } catch (Exception exception) {
-                    Log.error("Error while translating message for connection '" + context.getConnection().toString()  + "'." + (closeConnectionsOnTranslationException ? " The connection will be terminated." : ""), exception);
-
-                    if (closeConnectionsOnTranslationException) {
-                        context.getConnection().close();
-                    }
+                if (remainingTranslators.isEmpty() && translator.isConnectionIndependent()) {
+                    sharedTranslators.add(translator);
+                } else {
+                    remainingTranslators.add(translator);
+                }
+            }
+        }
+
+        Object translatedObject;
+
+        synchronized (translators) {
+            // Failure is not caused by the context's connection, so it is not closed
+            translatedObject = process(context, object, sharedTranslators, false);
+        }
+
+        if (translatedObject == null) {
+            return null;
+        }
+
+        return new SharedTranslation(object, translatedObject, remainingTranslators);
+    }
+
+    /**
+     * Processes message shared by multiple connections using the translators that were not run by
+     * {@link #processShared(TimeStopTranslator.Context, Object)}
+     *
+     * @param context           Translating context of the connection
+     * @param sharedTranslation Shared translation
+     * @param object            Message to process (shared translated object or its copy)
+     *
+     * @return Translated message
+     */
+    public Object process(TimeStopTranslator.Context context, SharedTranslation sharedTranslation, Object object) {
+        synchronized (translators) {
+            return process(context, object, sharedTranslation.getRemainingTranslators(), closeConnectionsOnTranslationException);
+        }
+    }
+
+    private Object process(TimeStopTranslator.Context context, Object object, List<TimeStopTranslator> translators, boolean closeConnectionOnException) {
+        for (TimeStopTranslator translator : translators) {
+            try {
+                // TODO: Catch errors and close connections
+                object = translator.translate(context, object);
 
+                if (context.isReset()) {
+                    context.setReset(false);
+                    object = process(context, object);
+                }
+
+                // If the translated object is null, we should not continue
+                if (object == null) {
                     return null;
                 }
+            } catch (Exception exception) {
+                Log.error("Error while translating message for connection '" + context.getConnection().toString()  + "'." + (closeConnectionOnException ? " The connection will be terminated." : ""), exception);
+
+                if (closeConnectionOnException) {
+                    context.getConnection().close();
+                }
+
+                return null;
             }
         }
 
         return object;
     }
+
+    /**
+     * Message translated by connection-independent translators, shared by multiple connections
+     */
+    @Getter
+    public static class SharedTranslation {
+
+        private final Object originalObject;
+        private final Object translatedObject;
+        private final List<TimeStopTranslator> remainingTranslators;
+
+        private SharedTranslation(Object originalObject, Object translatedObject, List<TimeStopTranslator> remainingTranslators) {
+            this.originalObject = originalObject;
+            this.translatedObject = translatedObject;
+            this.remainingTranslators = remainingTranslators;
+        }
+    }
 }
@@ -1,8 +1,12 @@
 package dev.mayuna.timestop.networking.timestop;
 
+import dev.mayuna.timestop.config.KeyExchangeType;
+import dev.mayuna.timestop.config.SymmetricCipherType;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
+
 /**
  * This class contains all messages that are used in the TimeStop protocol
  */
@@ -80,6 +84,7 @@ public class Packets {
     public static class AsymmetricKeyExchange extends BasePacket {
 
         private byte[] publicKey;
+        private String[] symmetricCipherTypes; // Supported symmetric ciphers, the most preferred first
 
         public AsymmetricKeyExchange() {
         }
@@ -88,9 +93,26 @@ public class Packets {
             this.publicKey = publicKey;
         }
 
+        public AsymmetricKeyExchange(byte[] publicKey, String[] symmetricCipherTypes) {
+            this.publicKey = publicKey;
+            this.symmetricCipherTypes = symmetricCipherTypes;
+        }
+
         public static AsymmetricKeyExchange create(byte[] publicKey) {
             return new AsymmetricKeyExchange(publicKey);
         }
+
+        /**
+         * Creates a new asymmetric key exchange message which offers the given symmetric ciphers
+         *
+         * @param publicKey            The public key
+         * @param symmetricCipherTypes Supported symmetric ciphers, the most preferred first
+         *
+         * @return The message
+         */
+        public static AsymmetricKeyExchange create(byte[] publicKey, List<SymmetricCipherType> symmetricCipherTypes) {
+            return new AsymmetricKeyExchange(publicKey, SymmetricCipherType.toNames(symmetricCipherTypes));
+        }
     }
 
     /**
@@ -100,6 +122,9 @@ public class Packets {
     public static class SymmetricKeyExchange extends BasePacket {
 
         private byte[] encryptedSymmetricKey;
+        private String symmetricCipherType; // Cipher chosen from the offered ones, null for the configured one
+        private byte[] publicKey; // Key agreement only, the symmetric key is derived on both sides instead of being sent
+        private byte[] salt; // Key agreement only
 
         public SymmetricKeyExchange() {
         }
@@ -108,9 +133,164 @@ public class Packets {
             this.encryptedSymmetricKey = encryptedSymmetricKey;
         }
 
+        public SymmetricKeyExchange(byte[] encryptedSymmetricKey, String symmetricCipherType) {
+            this.encryptedSymmetricKey = encryptedSymmetricKey;
+            this.symmetricCipherType = symmetricCipherType;
+        }
+
+        public SymmetricKeyExchange(byte[] encryptedSymmetricKey, String symmetricCipherType, byte[] publicKey, byte[] salt) {
+            this.encryptedSymmetricKey = encryptedSymmetricKey;
+            this.symmetricCipherType = symmetricCipherType;
+            this.publicKey = publicKey;
+            this.salt = salt;
+        }
+
         public static SymmetricKeyExchange create(byte[] encryptedSymmetricKey) {
             return new SymmetricKeyExchange(encryptedSymmetricKey);
         }
+
+        /**
+         * Creates a new symmetric key exchange message with the negotiated cipher
+         *
+         * @param encryptedSymmetricKey The encrypted symmetric key
+         * @param symmetricCipherType   The negotiated cipher
+         *
+         * @return The message
+         *
+         * @throws IllegalArgumentException If the cipher is null
+         */
+        public static SymmetricKeyExchange create(byte[] encryptedSymmetricKey, SymmetricCipherType symmetricCipherType) {
+            return new SymmetricKeyExchange(encryptedSymmetricKey, requireCipherType(symmetricCipherType).name());
+        }
+
+        /**
+         * Creates a new symmetric key exchange message for key agreement. The message does not contain the symmetric key, the other side
+         * derives it from its private key, the given public key and salt.
+         *
+         * @param publicKey           The public key of this side
+         * @param salt                The salt used for the key derivation
+         * @param symmetricCipherType The negotiated cipher
+         *
+         * @return The message
+         *
+         * @throws IllegalArgumentException If the cipher is null
+         */
+        public static SymmetricKeyExchange createKeyAgreement(byte[] publicKey, byte[] salt, SymmetricCipherType symmetricCipherType) {
+            return new SymmetricKeyExchange(null, requireCipherType(symmetricCipherType).name(), publicKey, salt);
+        }
+
+        /**
+         * Creates a new symmetric key exchange message which rejects the key exchange, e.g. when there's no common cipher
+         * ({@link SymmetricCipherType#negotiate(String[], List)} returned null). The sender should then close the connection using
+         * {@link dev.mayuna.timestop.networking.base.TimeStopConnection#closeAfterFlush()}, so the rejection is delivered.
+         *
+         * @param reason Reason of the rejection
+         *
+         * @return The message
+         */
+        public static SymmetricKeyExchange createRejection(String reason) {
+            SymmetricKeyExchange message = new SymmetricKeyExchange();
+            message.withError(reason);
+            return message;
+        }
+
+        private static SymmetricCipherType requireCipherType(SymmetricCipherType symmetricCipherType) {
+            if (symmetricCipherType == null) {
+                throw new IllegalArgumentException("No symmetric cipher was negotiated, reject the key exchange using createRejection() instead");
+            }
+
+            return symmetricCipherType;
+        }
+
+        /**
+         * Checks if the symmetric key should be derived using key agreement
+         *
+         * @return If the message is for key agreement
+         */
+        public boolean isKeyAgreement() {
+            return publicKey != null;
+        }
+
+        /**
+         * Gets the negotiated cipher
+         *
+         * @return The cipher or null if not negotiated (or unknown)
+         */
+        public SymmetricCipherType getNegotiatedSymmetricCipherType() {
+            return SymmetricCipherType.fromName(symmetricCipherType);
+        }
+    }
+
+    /**
+     * First message of the built-in handshake, sent by the client. Contains everything the server needs to respond with the session, so the
+     * handshake takes one round trip.
+     */
+    @Getter
+    public static class HandshakeRequest extends AsymmetricKeyExchange {
+
+        private int protocolVersion;
+        private String keyExchangeType;
+        private @Setter byte[] sessionTicket; // Ticket of the previous session, when resuming
+        private @Setter byte[] clientNonce; // Fresh random bytes of the client, when resuming, mixed into the resumed session key
+
+        public HandshakeRequest() {
+        }
+
+        public HandshakeRequest(int protocolVersion, String keyExchangeType, byte[] publicKey, String[] symmetricCipherTypes) {
+            super(publicKey, symmetricCipherTypes);
+            this.protocolVersion = protocolVersion;
+            this.keyExchangeType = keyExchangeType;
+        }
+
+        /**
+         * Gets the key exchange type requested by the client
+         *
+         * @return The key exchange type or null if unknown
+         */
+        public KeyExchangeType getRequestedKeyExchangeType() {
+            return KeyExchangeType.fromName(keyExchangeType);
+        }
+    }
+
+    /**
+     * Response to {@link HandshakeRequest}, sent by the server. Contains either the session key encrypted using client's public key (RSA) or
+     * server's public key and salt (key agreement), or an error.
+     */
+    @Getter
+    public static class HandshakeResponse extends SymmetricKeyExchange {
+
+        private int protocolVersion;
+        private @Setter boolean resumed; // Session was resumed from the ticket, key is derived from the ticket's key, salt and client's nonce
+        private @Setter boolean sessionTicketRejected; // Ticket was not accepted, client should start a full handshake
+        private @Setter byte[] sessionTicket; // Ticket for resuming the session later
+        private @Setter long sessionTicketLifetime; // In milliseconds
+
+        public HandshakeResponse() {
+        }
+
+        public HandshakeResponse(int protocolVersion, byte[] encryptedSymmetricKey, String symmetricCipherType, byte[] publicKey, byte[] salt) {
+            super(encryptedSymmetricKey, symmetricCipherType, publicKey, salt);
+            this.protocolVersion = protocolVersion;
+        }
+    }
+
+    /**
+     * Replaces the session's symmetric key with a new key of the given epoch. Sent encrypted using the current key, the receiver keeps the
+     * current key for the grace period, so packets that are still in flight can be decrypted.
+     */
+    @Getter
+    public static class SymmetricKeyRotation extends BasePacket {
+
+        private int keyEpoch;
+        private byte[] symmetricKey;
+
+        public SymmetricKeyRotation() {
+        }
+
+        public SymmetricKeyRotation(int keyEpoch, byte[] symmetricKey) {
+            this.keyEpoch = keyEpoch;
+            this.symmetricKey = symmetricKey;
+        }
     }
 
     /**
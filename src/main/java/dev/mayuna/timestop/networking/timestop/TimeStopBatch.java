@@ -0,0 +1,50 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import lombok.Getter;
+
+/**
+ * Multiple messages coalesced by {@link dev.mayuna.timestop.networking.timestop.translators.TimeStopBatchTranslator} into one packet. Messages are
+ * unpacked by the receiving endpoint and passed to the translators and listeners one by one, in the order they were sent.
+ */
+@Getter
+public class TimeStopBatch {
+
+    private byte[] data; // Messages serialized one after another
+    private int messageCount;
+
+    public TimeStopBatch() {
+    }
+
+    public TimeStopBatch(byte[] data, int messageCount) {
+        this.data = data;
+        this.messageCount = messageCount;
+    }
+
+    /**
+     * Deserializes the messages
+     *
+     * @param kryo Kryo of the endpoint
+     *
+     * @return Messages in the order they were sent
+     *
+     * @throws KryoException If the batch is malformed
+     */
+    public Object[] readMessages(Kryo kryo) {
+        // Every message takes at least one byte, so the count received from the other endpoint cannot exceed the size of the data
+        if (data == null || messageCount < 0 || messageCount > data.length) {
+            throw new KryoException("Invalid batch of " + messageCount + " messages in " + (data == null ? 0 : data.length) + " bytes");
+        }
+
+        Input input = new Input(data);
+        Object[] messages = new Object[messageCount];
+
+        for (int i = 0; i < messageCount; i++) {
+            messages[i] = kryo.readClassAndObject(input);
+        }
+
+        return messages;
+    }
+}
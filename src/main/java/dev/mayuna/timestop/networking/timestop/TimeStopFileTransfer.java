@@ -0,0 +1,61 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.File;
+import java.util.UUID;
+
+/**
+ * Describes a file transfer. Sent before the first {@link TimeStopFileTransferSegment} and passed to listeners when the file has been received.
+ */
+@Getter
+public class TimeStopFileTransfer {
+
+    private UUID uuid;
+    private String fileName;
+    private long fileSize;
+    private int segmentSize;
+    private int segmentCount;
+
+    /**
+     * Local file (source file on the sending side, received file on the receiving side). Not sent over the network.
+     */
+    @Setter
+    private transient File file;
+
+    public TimeStopFileTransfer() {
+        uuid = UUID.randomUUID();
+    }
+
+    public TimeStopFileTransfer(File file, int segmentSize) {
+        this();
+        this.file = file;
+        this.fileName = file.getName();
+        this.fileSize = file.length();
+        this.segmentSize = segmentSize;
+        this.segmentCount = (int) ((fileSize + segmentSize - 1) / segmentSize);
+    }
+
+    /**
+     * Gets the offset of the segment with the given index
+     *
+     * @param segmentIndex Segment index
+     *
+     * @return Offset in the file
+     */
+    public long getSegmentOffset(int segmentIndex) {
+        return (long) segmentIndex * segmentSize;
+    }
+
+    /**
+     * Gets the length of the segment with the given index
+     *
+     * @param segmentIndex Segment index
+     *
+     * @return Length of the segment
+     */
+    public int getSegmentLength(int segmentIndex) {
+        return (int) Math.min(segmentSize, fileSize - getSegmentOffset(segmentIndex));
+    }
+}
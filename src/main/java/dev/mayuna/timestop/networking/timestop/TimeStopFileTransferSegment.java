@@ -0,0 +1,42 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+@Getter
+public class TimeStopFileTransferSegment {
+
+    private UUID transferUuid;
+    private byte[] data;
+    private long offset;
+    private int segmentIndex;
+    private long checksum;
+
+    public TimeStopFileTransferSegment() {
+    }
+
+    public TimeStopFileTransferSegment(UUID transferUuid, byte[] data, long offset, int segmentIndex) {
+        this.transferUuid = transferUuid;
+        this.data = data;
+        this.offset = offset;
+        this.segmentIndex = segmentIndex;
+        this.checksum = computeChecksum(data);
+    }
+
+    /**
+     * Checks if the data matches the CRC-32C checksum
+     *
+     * @return If the data is valid
+     */
+    public boolean isChecksumValid() {
+        return data != null && computeChecksum(data) == checksum;
+    }
+
+    private static long computeChecksum(byte[] data) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(data, 0, data.length);
+        return crc32c.getValue();
+    }
+}
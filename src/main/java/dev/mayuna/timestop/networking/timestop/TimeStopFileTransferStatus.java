@@ -0,0 +1,70 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Sent by the receiving side of a file transfer. Contains segment ranges that the receiver is missing. Empty ranges mean that the file has been
+ * received completely.
+ */
+@Getter
+public class TimeStopFileTransferStatus {
+
+    private UUID transferUuid;
+    private int[] missingRanges; // Pairs of [from, to)
+
+    public TimeStopFileTransferStatus() {
+    }
+
+    public TimeStopFileTransferStatus(UUID transferUuid, int[] missingRanges) {
+        this.transferUuid = transferUuid;
+        this.missingRanges = missingRanges;
+    }
+
+    /**
+     * Creates a status with ranges of segments that are not set in the received segments
+     *
+     * @param transferUuid     Transfer UUID
+     * @param receivedSegments Received segments
+     * @param segmentCount     Segment count
+     *
+     * @return The status
+     */
+    public static TimeStopFileTransferStatus fromReceivedSegments(UUID transferUuid, BitSet receivedSegments, int segmentCount) {
+        List<Integer> ranges = new ArrayList<>();
+        int from = receivedSegments.nextClearBit(0);
+
+        while (from < segmentCount) {
+            int to = receivedSegments.nextSetBit(from);
+
+            if (to == -1 || to > segmentCount) {
+                to = segmentCount;
+            }
+
+            ranges.add(from);
+            ranges.add(to);
+            from = receivedSegments.nextClearBit(to);
+        }
+
+        int[] missingRanges = new int[ranges.size()];
+
+        for (int i = 0; i < missingRanges.length; i++) {
+            missingRanges[i] = ranges.get(i);
+        }
+
+        return new TimeStopFileTransferStatus(transferUuid, missingRanges);
+    }
+
+    /**
+     * Checks if the receiver has received all segments
+     *
+     * @return If the transfer is complete
+     */
+    public boolean isComplete() {
+        return missingRanges == null || missingRanges.length == 0;
+    }
+}
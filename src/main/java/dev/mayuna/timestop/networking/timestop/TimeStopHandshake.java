@@ -0,0 +1,759 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.config.EncryptionConfig;
+import dev.mayuna.timestop.config.KeyExchangeType;
+import dev.mayuna.timestop.config.SymmetricCipherType;
+import dev.mayuna.timestop.exceptions.HandshakeFailedException;
+import dev.mayuna.timestop.managers.EncryptionManager;
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopConnection;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketEncryptionTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.Getter;
+
+import javax.crypto.KeyGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Built-in handshake which negotiates the protocol version, the symmetric cipher and the session key in one round trip. The client sends
+ * {@link Packets.HandshakeRequest} as soon as it connects, the server responds with {@link Packets.HandshakeResponse} and both sides then
+ * encrypt everything using the session key. Messages sent before the handshake completes are queued and sent afterward, in order.
+ */
+@Getter
+public class TimeStopHandshake {
+
+    public static int SALT_LENGTH = 32;
+
+    private static final String RESUMPTION_LABEL = "resumption";
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final EncryptionManager encryptionManager;
+    private final int protocolVersion;
+
+    private volatile Key sessionTicketKey; // Server's side, null when session tickets are not issued
+    private volatile long sessionTicketLifetime;
+    private volatile SessionTicket sessionTicket; // Client's side, ticket of the last session
+
+    /**
+     * Creates a new handshake
+     *
+     * @param encryptionManager Encryption manager, its config must be the same on both sides
+     * @param protocolVersion   Protocol version, both sides must use the same
+     */
+    public TimeStopHandshake(EncryptionManager encryptionManager, int protocolVersion) {
+        this.encryptionManager = encryptionManager;
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * Enables issuing of session tickets on the server's side with a random ticket key. Tickets are valid only until the server restarts.
+     *
+     * @param lifetime Lifetime of tickets in milliseconds, resumed sessions keep the original expiry
+     *
+     * @return Itself
+     */
+    public TimeStopHandshake withSessionTickets(long lifetime) {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(SymmetricCipherType.AES_GCM.getKeyAlgorithm());
+            keyGenerator.init(256);
+            return withSessionTickets(keyGenerator.generateKey(), lifetime);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Could not generate session ticket key", exception);
+        }
+    }
+
+    /**
+     * Enables issuing of session tickets on the server's side. A client presenting a valid ticket gets its session restored without any
+     * asymmetric operation: the new session key is derived from the ticket's key. Servers sharing the ticket key accept each other's
+     * tickets.
+     *
+     * @param sessionTicketKey AES key tickets are encrypted with
+     * @param lifetime         Lifetime of tickets in milliseconds, resumed sessions keep the original expiry
+     *
+     * @return Itself
+     */
+    public TimeStopHandshake withSessionTickets(Key sessionTicketKey, long lifetime) {
+        this.sessionTicketKey = sessionTicketKey;
+        this.sessionTicketLifetime = lifetime;
+        return this;
+    }
+
+    /**
+     * Forgets the session ticket on the client's side, so the next handshake is a full one
+     */
+    public void clearSessionTicket() {
+        sessionTicket = null;
+    }
+
+    /**
+     * Gets the handshake state of the connection
+     *
+     * @param connection Connection
+     *
+     * @return The state or null if the connection does not use the handshake
+     */
+    public static State getState(Connection connection) {
+        if (connection instanceof TimeStopConnection) {
+            return ((TimeStopConnection) connection).getHandshakeState();
+        }
+
+        if (connection instanceof TimeStopClient) {
+            return ((TimeStopClient) connection).getHandshakeState();
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks if the handshake of the context's connection has been completed (e.g. for the encryption translator's condition)
+     *
+     * @param context Context
+     *
+     * @return If the handshake has been completed
+     */
+    public static boolean isCompleted(TimeStopTranslator.Context context) {
+        State state = getState(context.getConnection());
+        return state != null && state.isCompleted();
+    }
+
+    /**
+     * Registers translators needed for the encrypted session: {@link TimeStopPacketTranslator} (if not registered yet) and encryption
+     * translators that encrypt everything once the handshake has been completed
+     *
+     * @param translatorManager Translator manager
+     */
+    public void registerTranslators(TimeStopTranslatorManager translatorManager) {
+        synchronized (translatorManager.getTranslators()) {
+            if (translatorManager.getTranslators().stream().noneMatch(translator -> translator instanceof TimeStopPacketTranslator)) {
+                translatorManager.registerTranslator(new TimeStopPacketTranslator());
+            }
+        }
+
+        translatorManager.registerTranslator(new TimeStopPacketEncryptionTranslator.Encrypt(encryptionManager, TimeStopHandshake::isCompleted));
+        translatorManager.registerTranslator(new TimeStopPacketEncryptionTranslator.Decrypt(encryptionManager, context -> true));
+    }
+
+    /**
+     * Starts the handshake on the client's side. Called when the client connects. Session is resumed when the client has a ticket of
+     * the previous session.
+     *
+     * @param client Client
+     */
+    public void start(TimeStopClient client) {
+        State state = client.getHandshakeState();
+        EncryptionConfig encryptionConfig = encryptionManager.getEncryptionConfig();
+        SessionTicket sessionTicket = this.sessionTicket;
+
+        if (sessionTicket != null && !sessionTicket.isExpired()) {
+            // Fresh for every resumption, so a replayed resumption request does not produce the same session key
+            byte[] clientNonce = new byte[SALT_LENGTH];
+            secureRandom.nextBytes(clientNonce);
+
+            Packets.HandshakeRequest request = new Packets.HandshakeRequest(protocolVersion, encryptionConfig.getKeyExchangeType().name(), null, SymmetricCipherType.toNames(encryptionConfig.getSupportedSymmetricCipherTypes()));
+            request.setSessionTicket(sessionTicket.getTicket());
+            request.setClientNonce(clientNonce);
+            state.setSessionTicket(sessionTicket);
+            state.setClientNonce(clientNonce);
+            client.sendTCP(request);
+            return;
+        }
+
+        startFullHandshake(client, state);
+    }
+
+    /**
+     * Starts the full handshake on the client's side
+     *
+     * @param client Client
+     * @param state  Handshake state
+     */
+    private void startFullHandshake(TimeStopClient client, State state) {
+        EncryptionConfig encryptionConfig = encryptionManager.getEncryptionConfig();
+        KeyExchangeType keyExchangeType = encryptionConfig.getKeyExchangeType();
+
+        try {
+            KeyPair keyPair;
+
+            if (keyExchangeType.isKeyAgreement()) {
+                // Key agreement key pairs are cheap, so every connection has its own
+                keyPair = encryptionManager.createAsymmetricKeyPair();
+            } else {
+                synchronized (encryptionManager) {
+                    if (!encryptionManager.hasAsymmetricKeyPair()) {
+                        encryptionManager.generateAsymmetricKeyPair();
+                    }
+                }
+
+                keyPair = encryptionManager.getAsymetricKeyPair();
+            }
+
+            state.setKeyPair(keyPair);
+            client.sendTCP(new Packets.HandshakeRequest(protocolVersion, keyExchangeType.name(), keyPair.getPublic().getEncoded(), SymmetricCipherType.toNames(encryptionConfig.getSupportedSymmetricCipherTypes())));
+        } catch (GeneralSecurityException exception) {
+            fail(client, state, new HandshakeFailedException("Could not create handshake request", exception));
+        }
+    }
+
+    /**
+     * Processes a received message. Handshake messages are consumed, other messages are consumed (dropped) when received before the handshake
+     * has been completed. Once the handshake has been completed, every message must have been decrypted using the session key: the
+     * connection is closed on the first message that was not (except KryoNet's framework messages), as it may have been injected.
+     *
+     * @param connection Connection
+     * @param object     Received message
+     * @param decrypted  Whether the message has been decrypted, see {@link TimeStopTranslator.Context#isDecrypted()}
+     *
+     * @return True if the message was consumed and should not be passed to listeners
+     */
+    public boolean process(Connection connection, Object object, boolean decrypted) {
+        State state = getState(connection);
+
+        if (state == null || object instanceof FrameworkMessage) {
+            return false;
+        }
+
+        if (state.isCompleted() && !decrypted) {
+            Log.warn("Received unencrypted " + object.getClass().getSimpleName() + " from connection " + connection + " after the handshake was completed. The connection will be terminated.");
+            connection.close();
+            return true;
+        }
+
+        if (object instanceof Packets.HandshakeRequest && connection instanceof TimeStopConnection) {
+            if (state.isCompleted()) {
+                Log.warn("Ignoring repeated handshake request from connection " + connection);
+                return true;
+            }
+
+            processRequest((TimeStopConnection) connection, state, (Packets.HandshakeRequest) object);
+            return true;
+        }
+
+        if (object instanceof Packets.HandshakeResponse && connection instanceof TimeStopClient) {
+            if (state.isCompleted()) {
+                Log.warn("Ignoring repeated handshake response");
+                return true;
+            }
+
+            processResponse((TimeStopClient) connection, state, (Packets.HandshakeResponse) object);
+            return true;
+        }
+
+        if (!state.isCompleted()) {
+            Log.warn("Dropping " + object.getClass().getSimpleName() + " from connection " + connection + " received before the handshake was completed");
+            return true;
+        }
+
+        if (object instanceof Packets.SymmetricKeyRotation && connection instanceof TimeStopClient) {
+            // Processed on the update thread before any following message is decrypted, so messages encrypted using the new key never
+            // arrive before the key itself
+            processKeyRotation((TimeStopClient) connection, (Packets.SymmetricKeyRotation) object);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Rotates the connection's symmetric key while the traffic continues. The new key is sent encrypted using the current key and then used for
+     * all following packets. Both sides keep the previous key for {@link EncryptionConfig#getSymmetricKeyGracePeriod()}, so packets that are
+     * still in flight can be decrypted. Rotation is always initiated by the server, so both sides agree on the epochs.
+     *
+     * @param connection Server's connection with completed handshake
+     *
+     * @return The new key epoch
+     *
+     * @throws GeneralSecurityException If the key could not be created
+     */
+    public int rotateSymmetricKey(TimeStopConnection connection) throws GeneralSecurityException {
+        State state = connection.getHandshakeState();
+
+        if (state == null || !state.isCompleted()) {
+            throw new IllegalStateException("Handshake of connection " + connection + " has not been completed yet");
+        }
+
+        SymmetricKeyRing symmetricKeyRing = connection.getSymmetricKeyRing();
+
+        synchronized (symmetricKeyRing) {
+            Key symmetricKey = encryptionManager.createSymmetricKey(connection.getSymmetricCipherType());
+            int keyEpoch = symmetricKeyRing.getCurrentEpoch() + 1;
+
+            // Sent before the local rotation, so the client receives the key before any packet encrypted using it
+            connection.sendTCP(new Packets.SymmetricKeyRotation(keyEpoch, symmetricKey.getEncoded()));
+            symmetricKeyRing.rotate(symmetricKey, keyEpoch, encryptionManager.getEncryptionConfig().getSymmetricKeyGracePeriod());
+            return keyEpoch;
+        }
+    }
+
+    /**
+     * Processes the key rotation on the client's side
+     *
+     * @param client   Client
+     * @param rotation Key rotation
+     */
+    private void processKeyRotation(TimeStopClient client, Packets.SymmetricKeyRotation rotation) {
+        try {
+            Key symmetricKey = encryptionManager.loadSymmetricKeyFromBytes(rotation.getSymmetricKey(), client.getSymmetricCipherType());
+            client.getSymmetricKeyRing().rotate(symmetricKey, rotation.getKeyEpoch(), encryptionManager.getEncryptionConfig().getSymmetricKeyGracePeriod());
+        } catch (Exception exception) {
+            fail(client, client.getHandshakeState(), new HandshakeFailedException("Could not rotate symmetric key to epoch " + rotation.getKeyEpoch(), exception));
+        }
+    }
+
+    /**
+     * Processes the handshake request on the server's side
+     *
+     * @param connection Connection
+     * @param state      Handshake state
+     * @param request    Request
+     */
+    private void processRequest(TimeStopConnection connection, State state, Packets.HandshakeRequest request) {
+        EncryptionConfig encryptionConfig = encryptionManager.getEncryptionConfig();
+        KeyExchangeType keyExchangeType = encryptionConfig.getKeyExchangeType();
+
+        if (request.getProtocolVersion() != protocolVersion) {
+            reject(connection, state, request, "Unsupported protocol version " + request.getProtocolVersion() + ", server uses " + protocolVersion);
+            return;
+        }
+
+        if (request.getRequestedKeyExchangeType() != keyExchangeType) {
+            reject(connection, state, request, "Unsupported key exchange " + request.getKeyExchangeType() + ", server uses " + keyExchangeType);
+            return;
+        }
+
+        if (request.getSessionTicket() != null) {
+            resume(connection, state, request);
+            return;
+        }
+
+        SymmetricCipherType cipherType = request.getSymmetricCipherTypes() == null ? encryptionConfig.getSymmetricCipherType() : SymmetricCipherType.negotiate(request.getSymmetricCipherTypes(), encryptionConfig.getSupportedSymmetricCipherTypes());
+
+        if (cipherType == null) {
+            reject(connection, state, request, "No common symmetric cipher");
+            return;
+        }
+
+        Packets.HandshakeResponse response;
+        Key sessionKey;
+
+        try {
+            if (keyExchangeType.isKeyAgreement()) {
+                KeyPair keyPair = encryptionManager.createAsymmetricKeyPair();
+                byte[] salt = new byte[SALT_LENGTH];
+                secureRandom.nextBytes(salt);
+
+                sessionKey = encryptionManager.deriveSymmetricKey(keyPair.getPrivate(), request.getPublicKey(), salt, cipherType);
+                response = new Packets.HandshakeResponse(protocolVersion, null, cipherType.name(), keyPair.getPublic().getEncoded(), salt);
+            } else {
+                PublicKey clientPublicKey = encryptionManager.loadAsymmetricPublicKeyFromBytes(request.getPublicKey());
+
+                sessionKey = encryptionManager.createSymmetricKey(cipherType);
+                response = new Packets.HandshakeResponse(protocolVersion, EncryptionManager.encryptDataUsingKey(sessionKey.getEncoded(), clientPublicKey), cipherType.name(), null, null);
+            }
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            Log.error("Could not process handshake request from connection " + connection, exception);
+            reject(connection, state, request, "Invalid handshake request");
+            return;
+        }
+
+        accept(connection, state, request, response, sessionKey, cipherType, System.currentTimeMillis() + sessionTicketLifetime);
+    }
+
+    /**
+     * Resumes the session from the request's ticket on the server's side. The ticket is rejected when it is invalid or expired, the client
+     * then starts a full handshake.
+     *
+     * @param connection Connection
+     * @param state      Handshake state
+     * @param request    Request with a session ticket
+     */
+    private void resume(TimeStopConnection connection, State state, Packets.HandshakeRequest request) {
+        SessionTicket sessionTicket = openSessionTicket(request.getSessionTicket());
+        byte[] clientNonce = request.getClientNonce();
+
+        if (sessionTicket == null || !sessionTicket.getCipherType().isAvailable() || clientNonce == null || clientNonce.length != SALT_LENGTH) {
+            Packets.HandshakeResponse response = new Packets.HandshakeResponse();
+            response.setSessionTicketRejected(true);
+            response.withResponseTo(request);
+            connection.sendTCP(response);
+            return;
+        }
+
+        SymmetricCipherType cipherType = sessionTicket.getCipherType();
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+
+        Key sessionKey;
+
+        try {
+            // Every resumed session has its own key, both sides contribute to it
+            sessionKey = encryptionManager.deriveSymmetricKey(sessionTicket.getSessionKey(), createResumptionSalt(salt, clientNonce), RESUMPTION_LABEL, cipherType);
+        } catch (GeneralSecurityException exception) {
+            Log.error("Could not resume session of connection " + connection, exception);
+            reject(connection, state, request, "Could not resume session");
+            return;
+        }
+
+        Packets.HandshakeResponse response = new Packets.HandshakeResponse(protocolVersion, null, cipherType.name(), null, salt);
+        response.setResumed(true);
+        accept(connection, state, request, response, sessionKey, cipherType, sessionTicket.getExpiresAt());
+    }
+
+    /**
+     * Accepts the handshake on the server's side: issues a session ticket (if enabled), sends the response and completes the handshake
+     *
+     * @param connection          Connection
+     * @param state               Handshake state
+     * @param request             Request
+     * @param response            Response
+     * @param sessionKey          Session key
+     * @param cipherType          Session cipher
+     * @param sessionTicketExpiry When the issued session ticket expires
+     */
+    private void accept(TimeStopConnection connection, State state, Packets.HandshakeRequest request, Packets.HandshakeResponse response, Key sessionKey, SymmetricCipherType cipherType, long sessionTicketExpiry) {
+        if (sessionTicketKey != null) {
+            try {
+                response.setSessionTicket(sealSessionTicket(sessionKey, cipherType, sessionTicketExpiry));
+                response.setSessionTicketLifetime(sessionTicketExpiry - System.currentTimeMillis());
+            } catch (GeneralSecurityException exception) {
+                Log.error("Could not issue session ticket for connection " + connection, exception);
+            }
+        }
+
+        // Key is set first, so client's messages can be decrypted as soon as it receives the response. Response itself is sent unencrypted,
+        // everything after it is encrypted.
+        connection.setSymmetricKey(sessionKey);
+        connection.setSymmetricCipherType(cipherType);
+        response.withResponseTo(request);
+        connection.sendTCP(response);
+        state.setResumed(response.isResumed());
+        state.complete(connection::sendTCP);
+    }
+
+    /**
+     * Processes the handshake response on the client's side
+     *
+     * @param client   Client
+     * @param state    Handshake state
+     * @param response Response
+     */
+    private void processResponse(TimeStopClient client, State state, Packets.HandshakeResponse response) {
+        if (response.isSessionTicketRejected()) {
+            // Only a request with a ticket can be rejected this way, so the client falls back to the full handshake at most once
+            if (state.getSessionTicket() == null) {
+                fail(client, state, new HandshakeFailedException("Session ticket was rejected, but none was presented"));
+                return;
+            }
+
+            Log.info("Session ticket was rejected, starting full handshake");
+            sessionTicket = null;
+            state.setSessionTicket(null);
+            state.setClientNonce(null);
+            startFullHandshake(client, state);
+            return;
+        }
+
+        if (response.hasError()) {
+            fail(client, state, new HandshakeFailedException("Server rejected the handshake: " + response.getErrorMessage()));
+            return;
+        }
+
+        SymmetricCipherType cipherType = response.getNegotiatedSymmetricCipherType();
+        KeyPair keyPair = state.getKeyPair();
+        SessionTicket usedSessionTicket = state.getSessionTicket();
+
+        if (response.getProtocolVersion() != protocolVersion || cipherType == null || (response.isResumed() ? usedSessionTicket == null || response.getSalt() == null : keyPair == null)) {
+            fail(client, state, new HandshakeFailedException("Invalid handshake response"));
+            return;
+        }
+
+        Key sessionKey;
+
+        try {
+            if (response.isResumed()) {
+                sessionKey = encryptionManager.deriveSymmetricKey(usedSessionTicket.getSessionKey(), createResumptionSalt(response.getSalt(), state.getClientNonce()), RESUMPTION_LABEL, cipherType);
+            } else if (response.isKeyAgreement()) {
+                sessionKey = encryptionManager.deriveSymmetricKey(keyPair.getPrivate(), response.getPublicKey(), response.getSalt(), cipherType);
+            } else {
+                sessionKey = encryptionManager.loadSymmetricKeyFromBytes(EncryptionManager.decryptDataUsingKey(response.getEncryptedSymmetricKey(), keyPair.getPrivate()), cipherType);
+            }
+        } catch (GeneralSecurityException | RuntimeException exception) {
+            fail(client, state, new HandshakeFailedException("Could not establish the session key", exception));
+            return;
+        }
+
+        if (response.getSessionTicket() != null) {
+            sessionTicket = new SessionTicket(response.getSessionTicket(), sessionKey, cipherType, System.currentTimeMillis() + response.getSessionTicketLifetime());
+        }
+
+        state.setKeyPair(null);
+        state.setSessionTicket(null);
+        state.setClientNonce(null);
+        state.setResumed(response.isResumed());
+        client.setSymmetricKey(sessionKey);
+        client.setSymmetricCipherType(cipherType);
+        state.complete(client::sendTCP);
+    }
+
+    /**
+     * Creates the salt of the resumed session's key from the server's salt and the client's nonce
+     *
+     * @param serverSalt  Server's salt
+     * @param clientNonce Client's nonce
+     *
+     * @return Salt
+     */
+    private static byte[] createResumptionSalt(byte[] serverSalt, byte[] clientNonce) {
+        byte[] salt = Arrays.copyOf(serverSalt, serverSalt.length + clientNonce.length);
+        System.arraycopy(clientNonce, 0, salt, serverSalt.length, clientNonce.length);
+        return salt;
+    }
+
+    /**
+     * Encrypts the session into a ticket using the ticket key
+     *
+     * @param sessionKey Session key
+     * @param cipherType Session cipher
+     * @param expiresAt  When the ticket expires
+     *
+     * @return Ticket (nonce followed by the encrypted session)
+     *
+     * @throws GeneralSecurityException If the encryption fails
+     */
+    private byte[] sealSessionTicket(Key sessionKey, SymmetricCipherType cipherType, long expiresAt) throws GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            byte[] sessionKeyBytes = sessionKey.getEncoded();
+            output.writeLong(expiresAt);
+            output.writeUTF(cipherType.name());
+            output.writeShort(sessionKeyBytes.length);
+            output.write(sessionKeyBytes);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Could not write session ticket", exception);
+        }
+
+        byte[] nonce = encryptionManager.nextNonce(SymmetricCipherType.AES_GCM);
+        byte[] encrypted = EncryptionManager.encryptDataUsingKey(bytes.toByteArray(), sessionTicketKey, SymmetricCipherType.AES_GCM, nonce);
+
+        byte[] ticket = Arrays.copyOf(nonce, nonce.length + encrypted.length);
+        System.arraycopy(encrypted, 0, ticket, nonce.length, encrypted.length);
+        return ticket;
+    }
+
+    /**
+     * Decrypts the session from the ticket using the ticket key
+     *
+     * @param ticket Ticket
+     *
+     * @return The session or null if the ticket is invalid, has been tampered with or has expired
+     */
+    private SessionTicket openSessionTicket(byte[] ticket) {
+        Key sessionTicketKey = this.sessionTicketKey;
+        int nonceLength = SymmetricCipherType.AES_GCM.getNonceLength();
+
+        if (sessionTicketKey == null || ticket.length <= nonceLength) {
+            return null;
+        }
+
+        try {
+            byte[] nonce = Arrays.copyOf(ticket, nonceLength);
+            byte[] decrypted = EncryptionManager.decryptDataUsingKey(Arrays.copyOfRange(ticket, nonceLength, ticket.length), sessionTicketKey, SymmetricCipherType.AES_GCM, nonce);
+
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(decrypted))) {
+                long expiresAt = input.readLong();
+                SymmetricCipherType cipherType = SymmetricCipherType.fromName(input.readUTF());
+                byte[] sessionKeyBytes = new byte[input.readUnsignedShort()];
+                input.readFully(sessionKeyBytes);
+
+                if (cipherType == null || System.currentTimeMillis() >= expiresAt) {
+                    return null;
+                }
+
+                return new SessionTicket(ticket, encryptionManager.loadSymmetricKeyFromBytes(sessionKeyBytes, cipherType), cipherType, expiresAt);
+            }
+        } catch (GeneralSecurityException | IOException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Rejects the handshake request. The connection is closed once the response is written, so a client that does not close it itself is not
+     * left connected.
+     *
+     * @param connection Connection
+     * @param state      Handshake state
+     * @param request    Request
+     * @param reason     Reason
+     */
+    private void reject(TimeStopConnection connection, State state, Packets.HandshakeRequest request, String reason) {
+        Log.warn("Rejecting handshake from connection " + connection + ": " + reason);
+
+        Packets.HandshakeResponse response = new Packets.HandshakeResponse();
+        response.withError(reason).withResponseTo(request);
+        connection.sendTCP(response);
+        state.fail(new HandshakeFailedException(reason));
+        connection.closeAfterFlush();
+    }
+
+    /**
+     * Fails the handshake and closes the connection
+     *
+     * @param connection Connection
+     * @param state      Handshake state
+     * @param exception  Reason
+     */
+    private void fail(Connection connection, State state, HandshakeFailedException exception) {
+        Log.error("Handshake with connection " + connection + " failed", exception);
+        state.fail(exception);
+        connection.close();
+    }
+
+    /**
+     * Handshake state of a connection. Holds messages sent before the handshake completes.
+     */
+    public static class State {
+
+        private final Queue<Object> pendingMessages = new LinkedList<>();
+        private final @Getter CompletableFuture<Void> completion = new CompletableFuture<>(); // Completed exceptionally when the handshake fails
+
+        private volatile boolean completed;
+        private volatile @Getter boolean resumed; // Session was resumed from a session ticket
+        private volatile @Getter KeyPair keyPair; // Client's side only, until the response is received
+        private volatile @Getter SessionTicket sessionTicket; // Client's side only, ticket presented in the request
+        private volatile @Getter byte[] clientNonce; // Client's side only, nonce presented with the ticket
+
+        /**
+         * Checks if the handshake has been completed
+         *
+         * @return If the handshake has been completed
+         */
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        void setKeyPair(KeyPair keyPair) {
+            this.keyPair = keyPair;
+        }
+
+        void setSessionTicket(SessionTicket sessionTicket) {
+            this.sessionTicket = sessionTicket;
+        }
+
+        void setClientNonce(byte[] clientNonce) {
+            this.clientNonce = clientNonce;
+        }
+
+        void setResumed(boolean resumed) {
+            this.resumed = resumed;
+        }
+
+        /**
+         * Checks if the message is held back until the handshake completes. Handshake and framework messages are never held back.
+         *
+         * @param object Message
+         *
+         * @return If the message is held back
+         */
+        public boolean isHeldBack(Object object) {
+            return !completed && !(object instanceof FrameworkMessage) && !(object instanceof Packets.HandshakeRequest) && !(object instanceof Packets.HandshakeResponse);
+        }
+
+        /**
+         * Queues the message if it is held back until the handshake completes
+         *
+         * @param object Message
+         *
+         * @return True if the message has been queued and should not be sent now
+         */
+        public synchronized boolean queueIfHeldBack(Object object) {
+            if (!isHeldBack(object)) {
+                return false;
+            }
+
+            if (completion.isDone()) {
+                // Handshake failed, nothing will ever be sent
+                return true;
+            }
+
+            pendingMessages.add(object);
+            return true;
+        }
+
+        /**
+         * Completes the handshake and sends the queued messages. Messages sent concurrently wait until the queued ones are sent, so the order
+         * is kept.
+         *
+         * @param sender Sends a message
+         */
+        synchronized void complete(Consumer<Object> sender) {
+            completed = true;
+
+            Object object;
+
+            while ((object = pendingMessages.poll()) != null) {
+                sender.accept(object);
+            }
+
+            completion.complete(null);
+        }
+
+        /**
+         * Fails the handshake and discards the queued messages
+         *
+         * @param exception Reason
+         */
+        public synchronized void fail(Throwable exception) {
+            pendingMessages.clear();
+            completion.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Session ticket with the session it wraps
+     */
+    @Getter
+    public static class SessionTicket {
+
+        private final byte[] ticket; // Encrypted using server's ticket key, opaque to the client
+        private final Key sessionKey;
+        private final SymmetricCipherType cipherType;
+        private final long expiresAt;
+
+        public SessionTicket(byte[] ticket, Key sessionKey, SymmetricCipherType cipherType, long expiresAt) {
+            this.ticket = ticket;
+            this.sessionKey = sessionKey;
+            this.cipherType = cipherType;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Checks if the ticket has expired
+         *
+         * @return If the ticket has expired
+         */
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package dev.mayuna.timestop.networking.timestop;
 
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.utils.DirectBufferPool;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -14,6 +18,35 @@ public class TimeStopPacket {
     private UUID uuid;
     private byte[] data;
     private boolean encrypted;
+    private byte[] nonce; // Set when encrypted using a cipher that requires nonce
+    private int keyEpoch; // Epoch of the symmetric key used for the encryption
+
+    /**
+     * Data of packets that were reassembled into a memory-mapped file or decrypted into a pooled buffer (instead of {@link #data}). Not sent
+     * over the network.
+     */
+    private transient ByteBuffer dataBuffer;
+    private transient File dataFile;
+    private transient DirectBufferPool dataBufferPool;
+
+    /**
+     * Outbound only, not sent over the network. Payload encrypted means that the packet wraps an already encrypted segment; encrypt segments
+     * means that the packet is encrypted segment by segment instead of as a whole.
+     */
+    private transient boolean payloadEncrypted;
+    private transient boolean encryptSegments;
+
+    /**
+     * Inbound only, not sent over the network. Reassembled means that the packet has been put together from received segments, which have been
+     * counted by the rate limiter already.
+     */
+    private transient boolean reassembled;
+
+    /**
+     * Inbound only, not sent over the network. Decrypted means that the packet has been reassembled from segments encrypted one by one, which
+     * have been decrypted by the segment translator.
+     */
+    private transient boolean decrypted;
 
     public TimeStopPacket() {
         uuid = UUID.randomUUID();
@@ -23,4 +56,92 @@ public class TimeStopPacket {
         this();
         this.data = data;
     }
+
+    /**
+     * Creates a copy of outbound packet sharing the same data (e.g. for sending the same packet to multiple connections, whose translators
+     * replace the data instead of modifying it)
+     *
+     * @return Copy of the packet with the same UUID
+     */
+    public TimeStopPacket copy() {
+        TimeStopPacket packet = new TimeStopPacket(data);
+        packet.uuid = uuid;
+        packet.encrypted = encrypted;
+        packet.nonce = nonce;
+        packet.keyEpoch = keyEpoch;
+        packet.payloadEncrypted = payloadEncrypted;
+        packet.encryptSegments = encryptSegments;
+        return packet;
+    }
+
+    /**
+     * Gets the data as a buffer. For packets backed by a memory-mapped file, the mapped buffer is returned without copying it onto the heap.
+     *
+     * @return Data buffer
+     */
+    public ByteBuffer getDataAsBuffer() {
+        if (dataBuffer != null) {
+            return dataBuffer.duplicate();
+        }
+
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Gets the data length
+     *
+     * @return Data length
+     */
+    public int getDataLength() {
+        if (dataBuffer != null) {
+            return dataBuffer.limit();
+        }
+
+        return data.length;
+    }
+
+    /**
+     * Gets the data as a byte array. For packets backed by a memory-mapped file, the data is copied onto the heap.
+     *
+     * @return Data
+     */
+    public byte[] readData() {
+        if (data != null || dataBuffer == null) {
+            return data;
+        }
+
+        byte[] bytes = new byte[dataBuffer.limit()];
+        dataBuffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Releases the data buffer back to its pool and deletes the file backing the data (if any). The data must not be used afterward.
+     */
+    public void releaseData() {
+        if (dataBufferPool != null) {
+            dataBufferPool.release(dataBuffer);
+            dataBufferPool = null;
+            dataBuffer = null;
+        }
+
+        deleteDataFile();
+    }
+
+    /**
+     * Deletes the file backing the data (if any). The data buffer must not be used afterward.
+     */
+    public void deleteDataFile() {
+        if (dataFile == null) {
+            return;
+        }
+
+        dataBuffer = null;
+
+        if (!dataFile.delete()) {
+            Log.debug("Could not delete packet data file " + dataFile.getAbsolutePath() + ", it will be deleted on exit");
+        }
+
+        dataFile = null;
+    }
 }
@@ -1,7 +1,9 @@
 package dev.mayuna.timestop.networking.timestop;
 
 import lombok.Getter;
+import lombok.Setter;
 
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 @Getter
@@ -11,7 +13,14 @@ public class TimeStopPacketSegment {
     private UUID parentUuid;
     private byte[] data;
     private int segmentIndex;
-    private int segmentCount;
+    private int segmentCount; // 0 when the segments are sized adaptively
+    private int offset;
+    private int totalLength;
+    private boolean encrypted;
+    private byte[] nonce;
+    private int keyEpoch;
+    private boolean encryptedIndividually; // Encrypted on its own, not as a part of the encrypted parent packet
+    private @Setter boolean udp; // Sent using UDP, may be lost, duplicated or reordered
 
     public TimeStopPacketSegment() {
         uuid = UUID.randomUUID();
@@ -23,4 +32,43 @@ public class TimeStopPacketSegment {
         this.segmentIndex = segmentIndex;
         this.segmentCount = segmentCount;
     }
+
+    public TimeStopPacketSegment(TimeStopPacket parent, byte[] data, int segmentIndex, int segmentCount, int offset) {
+        this(parent.getUuid(), data, segmentIndex, segmentCount);
+        this.offset = offset;
+        this.totalLength = parent.getData().length;
+        this.encrypted = parent.isEncrypted();
+        this.nonce = parent.getNonce();
+        this.keyEpoch = parent.getKeyEpoch();
+    }
+
+    /**
+     * Replaces the data with data encrypted individually for this segment
+     *
+     * @param encryptedData Encrypted data
+     * @param nonce         Nonce used for the encryption
+     * @param keyEpoch      Epoch of the symmetric key used for the encryption
+     */
+    public void setIndividuallyEncryptedData(byte[] encryptedData, byte[] nonce, int keyEpoch) {
+        this.data = encryptedData;
+        this.nonce = nonce;
+        this.keyEpoch = keyEpoch;
+        this.encrypted = true;
+        this.encryptedIndividually = true;
+    }
+
+    /**
+     * Creates additional authenticated data for individual encryption, so the encrypted data cannot be moved to another position or packet
+     *
+     * @return Additional data
+     */
+    public byte[] createAdditionalData() {
+        return ByteBuffer.allocate(28)
+                         .putLong(parentUuid.getMostSignificantBits())
+                         .putLong(parentUuid.getLeastSignificantBits())
+                         .putInt(segmentIndex)
+                         .putInt(offset)
+                         .putInt(totalLength)
+                         .array();
+    }
 }
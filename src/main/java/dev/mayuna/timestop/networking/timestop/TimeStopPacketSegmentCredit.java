@@ -0,0 +1,20 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+
+/**
+ * Grants the sender of {@link TimeStopPacketSegment}s permission to send more segments. Used only when acknowledgements are enabled on the segment
+ * translator.
+ */
+@Getter
+public class TimeStopPacketSegmentCredit {
+
+    private int segments;
+
+    public TimeStopPacketSegmentCredit() {
+    }
+
+    public TimeStopPacketSegmentCredit(int segments) {
+        this.segments = segments;
+    }
+}
@@ -0,0 +1,24 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks the sender of a packet segmented for UDP to send the missing {@link TimeStopPacketSegment}s again. Used only when retransmission is
+ * enabled on the segment translator.
+ */
+@Getter
+public class TimeStopPacketSegmentNack {
+
+    private UUID parentUuid;
+    private int[] segmentIndexes;
+
+    public TimeStopPacketSegmentNack() {
+    }
+
+    public TimeStopPacketSegmentNack(UUID parentUuid, int[] segmentIndexes) {
+        this.parentUuid = parentUuid;
+        this.segmentIndexes = segmentIndexes;
+    }
+}
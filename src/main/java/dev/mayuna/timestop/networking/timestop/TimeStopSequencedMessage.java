@@ -0,0 +1,25 @@
+package dev.mayuna.timestop.networking.timestop;
+
+import lombok.Getter;
+
+/**
+ * Translated message sent using UDP on an unreliable-sequenced channel, see {@link dev.mayuna.timestop.networking.base.TimeStopSequencedChannels}
+ */
+@Getter
+public class TimeStopSequencedMessage {
+
+    private int channel;
+    private int sequence;
+    private boolean segment; // Segment of the sequenced message, other segments carry the same sequence
+    private Object message;
+
+    public TimeStopSequencedMessage() {
+    }
+
+    public TimeStopSequencedMessage(int channel, int sequence, boolean segment, Object message) {
+        this.channel = channel;
+        this.sequence = sequence;
+        this.segment = segment;
+        this.message = message;
+    }
+}
@@ -0,0 +1,224 @@
+package dev.mayuna.timestop.networking.timestop.translators;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.Packets;
+import dev.mayuna.timestop.networking.timestop.TimeStopBatch;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferStatus;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentCredit;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentNack;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Coalesces small outbound TCP messages into {@link TimeStopBatch}es. Messages sent to a connection within {@link #getMaxDelay()} milliseconds
+ * (or until the batch reaches {@link #getMaxBatchSize()} bytes) are serialized into one batch, which then goes through the other translators
+ * (serialization, encryption) as a single packet. Receiving endpoint unpacks the batch and dispatches the messages one by one, so this
+ * translator has to be registered only on the sending side.<br>Batched messages are not sent immediately ({@code sendTCP} returns 0). Messages
+ * sent using UDP and the protocol's own messages are never batched; the latter flush the pending batch first, so the order is kept.
+ * Broadcasts are translated for each connection when this translator is registered.
+ */
+public class TimeStopBatchTranslator extends TimeStopTranslator {
+
+    public static int DEFAULT_MAX_DELAY = 5; // In milliseconds
+    public static int DEFAULT_MAX_BATCH_SIZE = 16_384; // 16KB
+
+    /**
+     * Sent through the connection to flush its pending batch, so the batch is sent from within the translation like any other message (and
+     * locks are always acquired in the same order)
+     */
+    private static final Object FLUSH = new Object();
+
+    private final Map<Connection, PendingBatch> pendingBatches = Collections.synchronizedMap(new WeakHashMap<>());
+    private ScheduledExecutorService scheduler; // Created on first batch, shut down when the endpoint is stopped
+
+    private final @Getter int maxDelay;
+    private final @Getter int maxBatchSize;
+    private Predicate<Object> filter = object -> true;
+
+    /**
+     * Creates a new TimeStopBatchTranslator with priority 120 (before {@link TimeStopPacketTranslator})
+     *
+     * @param maxDelay     Maximum time in milliseconds a message waits for other messages
+     * @param maxBatchSize Batch is sent as soon as its serialized messages reach this size in bytes
+     */
+    public TimeStopBatchTranslator(int maxDelay, int maxBatchSize) {
+        super(120);
+        this.maxDelay = maxDelay;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Creates a new TimeStopBatchTranslator with priority 120, {@link #DEFAULT_MAX_DELAY} and {@link #DEFAULT_MAX_BATCH_SIZE}
+     */
+    public TimeStopBatchTranslator() {
+        this(DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Batches only messages accepted by the filter, other messages are sent immediately (after the pending batch)
+     *
+     * @param filter Filter
+     *
+     * @return Itself
+     */
+    public TimeStopBatchTranslator withFilter(Predicate<Object> filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    @Override
+    public Object translate(Context context, Object object) {
+        if (context.getWay() != Context.Way.OUTBOUND || context.isUdp() || object instanceof TimeStopBatch) {
+            return object;
+        }
+
+        Connection connection = context.getConnection();
+
+        if (object == FLUSH) {
+            sendPendingBatch(connection);
+            return null;
+        }
+
+        if (!isBatchable(object)) {
+            sendPendingBatch(connection);
+            return object;
+        }
+
+        PendingBatch pendingBatch;
+
+        synchronized (pendingBatches) {
+            pendingBatch = pendingBatches.computeIfAbsent(connection, key -> new PendingBatch());
+        }
+
+        pendingBatch.add(connection, object);
+        return null;
+    }
+
+    /**
+     * Sends the pending batch of the connection immediately
+     *
+     * @param connection Connection
+     */
+    public void flush(Connection connection) {
+        connection.sendTCP(FLUSH);
+    }
+
+    /**
+     * Shuts down the thread flushing the batches and discards pending batches (the endpoint's connections are closed as well)
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        pendingBatches.clear();
+    }
+
+    private synchronized ScheduledFuture<?> scheduleFlush(Connection connection) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TimeStopBatchTranslator-Flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return scheduler.schedule(() -> flush(connection), maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPendingBatch(Connection connection) {
+        PendingBatch pendingBatch = pendingBatches.get(connection);
+
+        if (pendingBatch != null) {
+            pendingBatch.flush(connection);
+        }
+    }
+
+    private boolean isBatchable(Object object) {
+        if (object instanceof FrameworkMessage || object instanceof Packets.BasePacket) {
+            return false;
+        }
+
+        if (object instanceof TimeStopPacket || object instanceof TimeStopPacketSegment || object instanceof TimeStopPacketSegmentCredit
+            || object instanceof TimeStopPacketSegmentNack) {
+            return false;
+        }
+
+        if (object instanceof TimeStopFileTransfer || object instanceof TimeStopFileTransferSegment || object instanceof TimeStopFileTransferStatus) {
+            return false;
+        }
+
+        return filter.test(object);
+    }
+
+    /**
+     * Messages of a connection waiting to be sent. Does not reference the connection, so it can be garbage collected.
+     */
+    private class PendingBatch {
+
+        private final Output output = new Output(TimeStopPacketTranslator.INITIAL_BUFFER_SIZE, TimeStopPacketTranslator.BUFFER_SIZE);
+        private int messageCount;
+        private ScheduledFuture<?> flushTask;
+
+        private synchronized void add(Connection connection, Object object) {
+            Kryo kryo = connection.getEndPoint().getKryo();
+            int position = output.position();
+
+            try {
+                kryo.writeClassAndObject(output, object);
+            } catch (RuntimeException exception) {
+                output.setPosition(position);
+                throw exception;
+            }
+
+            messageCount++;
+
+            if (output.position() >= maxBatchSize) {
+                flush(connection);
+            } else if (flushTask == null) {
+                flushTask = scheduleFlush(connection);
+            }
+        }
+
+        private synchronized void flush(Connection connection) {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+
+            if (messageCount == 0) {
+                return;
+            }
+
+            TimeStopBatch batch = new TimeStopBatch(output.toBytes(), messageCount);
+            output.reset();
+            messageCount = 0;
+
+            // Sent from within the translation, so the next batch or message cannot overtake this one
+            try {
+                connection.sendTCP(batch);
+            } catch (Exception exception) {
+                Log.error("Could not send batch of " + batch.getMessageCount() + " messages to connection " + connection, exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package dev.mayuna.timestop.networking.timestop.translators;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.exceptions.FileTransferException;
+import dev.mayuna.timestop.networking.NetworkConstants;
+import dev.mayuna.timestop.networking.base.TimeStopOutboundQueue;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends and receives files without loading them into the memory. Files are read using {@link FileChannel} straight into
+ * {@link TimeStopFileTransferSegment}s and received segments are written at their offset into a preallocated file (with {@link #PART_FILE_EXTENSION})
+ * which is renamed to the target file once complete. Existing files are never overwritten and files bigger than the maximum file size are
+ * rejected.<br>When the file is received, {@link TimeStopFileTransfer} with {@link TimeStopFileTransfer#getFile()} set to the received file is
+ * passed to the listeners.<br>Transfers are
+ * resumable: the receiver persists received segments next to the file (with {@link #PROGRESS_FILE_EXTENSION}) and replies to every
+ * {@link TimeStopFileTransfer} with {@link TimeStopFileTransferStatus} containing the missing segments, which are then sent by the sender.<br>This
+ * translator must be registered on both sides.
+ */
+public class TimeStopFileTransferTranslator extends TimeStopTranslator {
+
+    public static final String PROGRESS_FILE_EXTENSION = ".progress";
+    public static final String PART_FILE_EXTENSION = ".part";
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024L * 1024 * 1024; // 1 GiB
+
+    /**
+     * Smallest segment size accepted from the sender, so a transfer cannot be announced with a huge number of tiny segments
+     */
+    public static final int MIN_SEGMENT_SIZE = 1024;
+
+    /**
+     * Largest segment count accepted from the sender, bounds the progress file and the received segments held in the memory (1 byte and 1 bit
+     * per segment). Transfers of files bigger than {@code MAX_SEGMENT_COUNT * segmentSize} need bigger segments.
+     */
+    public static final int MAX_SEGMENT_COUNT = 1024 * 1024;
+
+    private static final int SEGMENT_OVERHEAD = 256;
+    private static final int PROGRESS_HEADER_SIZE = Long.BYTES * 3 + Integer.BYTES; // UUID, file size, segment count
+
+    private final Map<UUID, ReceivingFileTransfer> receivingTransfers = new ConcurrentHashMap<>();
+    private final Map<UUID, TimeStopFileTransfer> sendingTransfers = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "TimeStopFileTransferTranslator-Sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File targetDirectory;
+    private final int segmentSize;
+    private final int writeBufferSize;
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    /**
+     * Creates a new TimeStopFileTransferTranslator with priority 50
+     *
+     * @param targetDirectory Directory where received files will be saved
+     * @param segmentSize     Size of a single file segment (should be smaller than the object buffer size, at least {@link #MIN_SEGMENT_SIZE})
+     * @param writeBufferSize Write buffer size of the endpoint
+     */
+    public TimeStopFileTransferTranslator(File targetDirectory, int segmentSize, int writeBufferSize) {
+        super(50);
+
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes");
+        }
+
+        this.targetDirectory = targetDirectory;
+        this.segmentSize = segmentSize;
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * Creates a new TimeStopFileTransferTranslator with priority 50 and {@link NetworkConstants#WRITE_BUFFER_SIZE}
+     *
+     * @param targetDirectory Directory where received files will be saved
+     * @param segmentSize     Size of a single file segment (should be smaller than the object buffer size, at least {@link #MIN_SEGMENT_SIZE})
+     */
+    public TimeStopFileTransferTranslator(File targetDirectory, int segmentSize) {
+        this(targetDirectory, segmentSize, NetworkConstants.WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Sets the maximum size of a received file. Transfers of bigger files are rejected before any space is allocated.
+     *
+     * @param maxFileSize Maximum file size in bytes ({@link #DEFAULT_MAX_FILE_SIZE} by default)
+     *
+     * @return Itself
+     */
+    public TimeStopFileTransferTranslator withMaxFileSize(long maxFileSize) {
+        if (maxFileSize < 0) {
+            throw new IllegalArgumentException("Maximum file size must not be negative");
+        }
+
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    @Override
+    public Object translate(Context context, Object object) {
+        if (object instanceof FrameworkMessage || context.getWay() != Context.Way.INBOUND) {
+            return object;
+        }
+
+        if (object instanceof TimeStopFileTransfer) {
+            return startReceiving(context, (TimeStopFileTransfer) object);
+        }
+
+        if (object instanceof TimeStopFileTransferSegment) {
+            return receiveSegment(context, (TimeStopFileTransferSegment) object);
+        }
+
+        if (object instanceof TimeStopFileTransferStatus) {
+            processStatus(context, (TimeStopFileTransferStatus) object);
+            return null;
+        }
+
+        return object;
+    }
+
+    /**
+     * Starts sending the given file over the given connection. Segments are sent asynchronously once the receiver replies with the missing
+     * segments. Only a single segment is held in the memory at once.
+     *
+     * @param connection Connection
+     * @param file       File to send
+     *
+     * @return File transfer which may be used for {@link #resumeFile(Connection, TimeStopFileTransfer)}
+     */
+    public TimeStopFileTransfer sendFile(Connection connection, File file) {
+        TimeStopFileTransfer transfer = new TimeStopFileTransfer(file, segmentSize);
+        resumeFile(connection, transfer);
+        return transfer;
+    }
+
+    /**
+     * Resumes sending the given file transfer over the given connection (e.g., after reconnect). Receiver will request only the segments it has
+     * not received yet.
+     *
+     * @param connection Connection
+     * @param transfer   File transfer returned by {@link #sendFile(Connection, File)}
+     */
+    public void resumeFile(Connection connection, TimeStopFileTransfer transfer) {
+        if (transfer.getFile() == null) {
+            throw new IllegalArgumentException("File transfer " + transfer.getUuid() + " does not have a source file");
+        }
+
+        sendingTransfers.put(transfer.getUuid(), transfer);
+        connection.sendTCP(transfer);
+    }
+
+    /**
+     * Checks if the file transfer has been received completely by the other side
+     *
+     * @param transfer File transfer
+     *
+     * @return If the transfer is complete
+     */
+    public boolean isTransferComplete(TimeStopFileTransfer transfer) {
+        return !sendingTransfers.containsKey(transfer.getUuid());
+    }
+
+    private void processStatus(Context context, TimeStopFileTransferStatus status) {
+        if (status.isComplete()) {
+            sendingTransfers.remove(status.getTransferUuid());
+            return;
+        }
+
+        TimeStopFileTransfer transfer = sendingTransfers.get(status.getTransferUuid());
+
+        if (transfer == null) {
+            Log.warn("Received file transfer status for unknown transfer " + status.getTransferUuid());
+            return;
+        }
+
+        Connection connection = context.getConnection();
+
+        executor.execute(() -> {
+            try {
+                sendSegments(connection, transfer, status.getMissingRanges());
+            } catch (Exception exception) {
+                Log.error("Failed to send segments of file transfer " + transfer.getUuid() + " to connection '" + connection + "'", exception);
+            }
+        });
+    }
+
+    /**
+     * Sends segments in the given ranges
+     *
+     * @param connection Connection
+     * @param transfer   File transfer
+     * @param ranges     Pairs of [from, to) segment indexes
+     *
+     * @throws IOException If the file could not be read
+     */
+    private void sendSegments(Connection connection, TimeStopFileTransfer transfer, int[] ranges) throws IOException {
+        File file = transfer.getFile();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int range = 0; range + 1 < ranges.length; range += 2) {
+                for (int i = Math.max(ranges[range], 0); i < Math.min(ranges[range + 1], transfer.getSegmentCount()); i++) {
+                    long offset = transfer.getSegmentOffset(i);
+                    ByteBuffer buffer = ByteBuffer.allocate(transfer.getSegmentLength(i));
+
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) {
+                            throw new IOException("File " + file.getAbsolutePath() + " has been truncated during the transfer");
+                        }
+                    }
+
+                    waitForWriteBuffer(connection, buffer.capacity());
+
+                    if (!connection.isConnected()) {
+                        Log.debug("Connection '" + connection + "' has been closed during file transfer " + transfer.getUuid() + ", it may be resumed");
+                        return;
+                    }
+
+                    connection.sendTCP(new TimeStopFileTransferSegment(transfer.getUuid(), buffer.array(), offset, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until there is enough space in the write buffer for the segment and the connection is writable
+     *
+     * @param connection    Connection
+     * @param segmentLength Segment length
+     */
+    private void waitForWriteBuffer(Connection connection, int segmentLength) {
+        while (connection.isConnected() && (connection.getTcpWriteBufferSize() + segmentLength + SEGMENT_OVERHEAD > writeBufferSize || !TimeStopOutboundQueue.isWritable(connection))) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new FileTransferException("Interrupted while waiting for the write buffer", exception);
+            }
+        }
+    }
+
+    private TimeStopFileTransfer startReceiving(Context context, TimeStopFileTransfer transfer) {
+        ReceivingFileTransfer receivingTransfer = receivingTransfers.get(transfer.getUuid());
+
+        if (receivingTransfer == null) {
+            validateTransfer(transfer);
+
+            File file = new File(targetDirectory, new File(transfer.getFileName()).getName());
+            transfer.setFile(file);
+
+            if (file.exists()) {
+                throw new FileTransferException("Rejected file transfer " + transfer.getUuid() + ", file " + file.getAbsolutePath() + " already exists");
+            }
+
+            try {
+                receivingTransfer = openReceivingTransfer(transfer, new File(file.getPath() + PART_FILE_EXTENSION), new File(file.getPath() + PROGRESS_FILE_EXTENSION));
+            } catch (IOException exception) {
+                throw new FileTransferException("Could not prepare file " + file.getAbsolutePath(), exception);
+            }
+
+            receivingTransfers.put(transfer.getUuid(), receivingTransfer);
+        }
+
+        synchronized (receivingTransfer.receivedSegments) {
+            if (receivingTransfer.receivedSegments.cardinality() == transfer.getSegmentCount()) {
+                return finishReceiving(context, receivingTransfer);
+            }
+
+            context.getConnection().sendTCP(TimeStopFileTransferStatus.fromReceivedSegments(transfer.getUuid(), receivingTransfer.receivedSegments, transfer.getSegmentCount()));
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks the file transfer received from the other side before any space is allocated for it
+     *
+     * @param transfer File transfer
+     */
+    private void validateTransfer(TimeStopFileTransfer transfer) {
+        if (transfer.getFileName() == null || transfer.getFileName().isEmpty()) {
+            throw new FileTransferException("Rejected file transfer " + transfer.getUuid() + " without a file name");
+        }
+
+        if (transfer.getFileSize() < 0 || transfer.getFileSize() > maxFileSize) {
+            throw new FileTransferException("Rejected file transfer " + transfer.getUuid() + " of " + transfer.getFileSize() + " bytes, maximum file size is " + maxFileSize + " bytes");
+        }
+
+        if (transfer.getSegmentSize() < MIN_SEGMENT_SIZE || transfer.getSegmentCount() != (transfer.getFileSize() + transfer.getSegmentSize() - 1) / transfer.getSegmentSize()) {
+            throw new FileTransferException("Rejected file transfer " + transfer.getUuid() + " with invalid segment size or segment count");
+        }
+
+        // Checked before the progress is created or loaded, both are sized by the segment count
+        if (transfer.getSegmentCount() > MAX_SEGMENT_COUNT) {
+            throw new FileTransferException("Rejected file transfer " + transfer.getUuid() + " of " + transfer.getSegmentCount() + " segments, maximum segment count is " + MAX_SEGMENT_COUNT);
+        }
+    }
+
+    private TimeStopFileTransfer receiveSegment(Context context, TimeStopFileTransferSegment segment) {
+        ReceivingFileTransfer receivingTransfer = receivingTransfers.get(segment.getTransferUuid());
+
+        if (receivingTransfer == null) {
+            Log.warn("Received file segment for unknown transfer " + segment.getTransferUuid());
+            return null;
+        }
+
+        TimeStopFileTransfer transfer = receivingTransfer.transfer;
+        int segmentIndex = segment.getSegmentIndex();
+
+        // Segment must be exactly where the validated transfer expects it, the index is also an offset into the progress file
+        if (segmentIndex < 0 || segmentIndex >= transfer.getSegmentCount() || segment.getOffset() != transfer.getSegmentOffset(segmentIndex)
+                || segment.getData() == null || segment.getData().length != transfer.getSegmentLength(segmentIndex)) {
+            Log.warn("Received invalid segment " + segmentIndex + " of file transfer " + transfer.getUuid() + " from connection '" + context.getConnection() + "'");
+            return null;
+        }
+
+        if (!segment.isChecksumValid()) {
+            Log.warn("Received corrupted segment " + segment.getSegmentIndex() + " of file transfer " + transfer.getUuid() + ", requesting it again");
+            context.getConnection().sendTCP(new TimeStopFileTransferStatus(transfer.getUuid(), new int[]{segment.getSegmentIndex(), segment.getSegmentIndex() + 1}));
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(segment.getData());
+
+            while (buffer.hasRemaining()) {
+                receivingTransfer.channel.write(buffer, segment.getOffset() + buffer.position());
+            }
+
+            receivingTransfer.progressChannel.write(ByteBuffer.wrap(new byte[]{1}), PROGRESS_HEADER_SIZE + segment.getSegmentIndex());
+        } catch (IOException exception) {
+            receivingTransfers.remove(transfer.getUuid());
+            receivingTransfer.closeQuietly();
+            throw new FileTransferException("Could not write segment into " + transfer.getFile().getAbsolutePath(), exception);
+        }
+
+        synchronized (receivingTransfer.receivedSegments) {
+            receivingTransfer.receivedSegments.set(segment.getSegmentIndex());
+
+            if (receivingTransfer.receivedSegments.cardinality() != transfer.getSegmentCount()) {
+                return null;
+            }
+        }
+
+        return finishReceiving(context, receivingTransfer);
+    }
+
+    private TimeStopFileTransfer finishReceiving(Context context, ReceivingFileTransfer receivingTransfer) {
+        TimeStopFileTransfer transfer = receivingTransfer.transfer;
+
+        receivingTransfers.remove(transfer.getUuid());
+        receivingTransfer.closeQuietly();
+
+        try {
+            // Fails if the target file has been created in the meantime, it is never overwritten
+            Files.move(receivingTransfer.partFile.toPath(), transfer.getFile().toPath());
+        } catch (IOException exception) {
+            throw new FileTransferException("Could not move received file " + receivingTransfer.partFile.getAbsolutePath() + " to " + transfer.getFile().getAbsolutePath(), exception);
+        }
+
+        if (receivingTransfer.progressFile.exists() && !receivingTransfer.progressFile.delete()) {
+            Log.warn("Could not delete progress file " + receivingTransfer.progressFile.getAbsolutePath());
+        }
+
+        context.getConnection().sendTCP(new TimeStopFileTransferStatus(transfer.getUuid(), new int[0]));
+        return transfer;
+    }
+
+    /**
+     * Opens the part file and its progress file. If the progress file belongs to the same transfer, already received segments are loaded from it,
+     * otherwise the part file is preallocated and a new progress file is created.
+     *
+     * @param transfer     File transfer (already validated)
+     * @param partFile     Part file, renamed to the target file once complete
+     * @param progressFile Progress file
+     *
+     * @return Receiving file transfer
+     *
+     * @throws IOException If the files could not be opened
+     */
+    private static ReceivingFileTransfer openReceivingTransfer(TimeStopFileTransfer transfer, File partFile, File progressFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(partFile, "rw");
+        FileChannel progressChannel = null;
+
+        try {
+            progressChannel = FileChannel.open(progressFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            BitSet receivedSegments = randomAccessFile.length() == transfer.getFileSize() ? loadProgress(progressChannel, transfer) : null;
+
+            if (receivedSegments == null) {
+                randomAccessFile.setLength(transfer.getFileSize());
+                createProgress(progressChannel, transfer);
+                receivedSegments = new BitSet(transfer.getSegmentCount());
+            }
+
+            return new ReceivingFileTransfer(transfer, randomAccessFile.getChannel(), progressChannel, partFile, progressFile, receivedSegments);
+        } catch (IOException exception) {
+            randomAccessFile.close();
+
+            if (progressChannel != null) {
+                progressChannel.close();
+            }
+
+            throw exception;
+        }
+    }
+
+    private static BitSet loadProgress(FileChannel progressChannel, TimeStopFileTransfer transfer) throws IOException {
+        if (progressChannel.size() != PROGRESS_HEADER_SIZE + transfer.getSegmentCount()) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(PROGRESS_HEADER_SIZE + transfer.getSegmentCount());
+
+        while (buffer.hasRemaining()) {
+            if (progressChannel.read(buffer, buffer.position()) < 0) {
+                return null;
+            }
+        }
+
+        buffer.flip();
+
+        if (buffer.getLong() != transfer.getUuid().getMostSignificantBits() || buffer.getLong() != transfer.getUuid().getLeastSignificantBits()
+                || buffer.getLong() != transfer.getFileSize() || buffer.getInt() != transfer.getSegmentCount()) {
+            return null;
+        }
+
+        BitSet receivedSegments = new BitSet(transfer.getSegmentCount());
+
+        for (int i = 0; i < transfer.getSegmentCount(); i++) {
+            if (buffer.get() != 0) {
+                receivedSegments.set(i);
+            }
+        }
+
+        return receivedSegments;
+    }
+
+    private static void createProgress(FileChannel progressChannel, TimeStopFileTransfer transfer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PROGRESS_HEADER_SIZE + transfer.getSegmentCount());
+        buffer.putLong(transfer.getUuid().getMostSignificantBits());
+        buffer.putLong(transfer.getUuid().getLeastSignificantBits());
+        buffer.putLong(transfer.getFileSize());
+        buffer.putInt(transfer.getSegmentCount());
+        buffer.position(0);
+
+        progressChannel.truncate(0);
+
+        while (buffer.hasRemaining()) {
+            progressChannel.write(buffer, buffer.position());
+        }
+    }
+
+    /**
+     * Holds the state of a file that is being received
+     */
+    private static class ReceivingFileTransfer {
+
+        private final TimeStopFileTransfer transfer;
+        private final FileChannel channel;
+        private final FileChannel progressChannel;
+        private final File partFile;
+        private final File progressFile;
+        private final BitSet receivedSegments;
+
+        private ReceivingFileTransfer(TimeStopFileTransfer transfer, FileChannel channel, FileChannel progressChannel, File partFile, File progressFile, BitSet receivedSegments) {
+            this.transfer = transfer;
+            this.channel = channel;
+            this.progressChannel = progressChannel;
+            this.partFile = partFile;
+            this.progressFile = progressFile;
+            this.receivedSegments = receivedSegments;
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+
+            try {
+                progressChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
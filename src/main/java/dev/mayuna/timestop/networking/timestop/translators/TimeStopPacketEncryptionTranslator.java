@@ -1,36 +1,143 @@
 package dev.mayuna.timestop.networking.timestop.translators;
 
+import com.esotericsoftware.kryonet.Connection;
+import dev.mayuna.timestop.config.SymmetricCipherType;
 import dev.mayuna.timestop.exceptions.FailedToDecryptPacketException;
 import dev.mayuna.timestop.managers.EncryptionManager;
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopConnection;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.utils.DirectBufferPool;
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
 import java.util.function.Function;
 
 public class TimeStopPacketEncryptionTranslator {
 
+    public static int POOLED_BUFFERS_PER_SIZE = 4;
+    public static long MAX_POOLED_BUFFER_BYTES = 64L * 1024 * 1024; // 64MB
+
     /**
      * Creates a new TimeStopPacketEncryptionTranslator with priority 100
      */
     private TimeStopPacketEncryptionTranslator() {
     }
 
+    /**
+     * Resolves the symmetric key ring for the context's connection. Keys set on the connection ({@link TimeStopConnection#getSymmetricKeyRing()}
+     * or {@link TimeStopClient#getSymmetricKeyRing()}) are preferred over the encryption manager's keys.
+     *
+     * @param encryptionManager Encryption manager
+     * @param context           Context
+     *
+     * @return Symmetric key ring (its current key may be null if no key is available)
+     */
+    public static SymmetricKeyRing resolveSymmetricKeyRing(EncryptionManager encryptionManager, TimeStopTranslator.Context context) {
+        Connection connection = context.getConnection();
+        SymmetricKeyRing symmetricKeyRing = null;
+
+        if (connection instanceof TimeStopConnection) {
+            symmetricKeyRing = ((TimeStopConnection) connection).getSymmetricKeyRing();
+        } else if (connection instanceof TimeStopClient) {
+            symmetricKeyRing = ((TimeStopClient) connection).getSymmetricKeyRing();
+        }
+
+        return symmetricKeyRing != null && symmetricKeyRing.getCurrentKey() != null ? symmetricKeyRing : encryptionManager.getSymmetricKeyRing();
+    }
+
+    /**
+     * Resolves the current symmetric key for the context's connection, see {@link #resolveSymmetricKeyRing(EncryptionManager, TimeStopTranslator.Context)}
+     *
+     * @param encryptionManager Encryption manager
+     * @param context           Context
+     *
+     * @return Symmetric key (may be null if no key is available)
+     */
+    public static Key resolveSymmetricKey(EncryptionManager encryptionManager, TimeStopTranslator.Context context) {
+        return resolveSymmetricKeyRing(encryptionManager, context).getCurrentKey();
+    }
+
+    /**
+     * Resolves the symmetric cipher for the context's connection. Cipher negotiated for the connection is preferred over the configured one.
+     *
+     * @param encryptionManager Encryption manager
+     * @param context           Context
+     *
+     * @return Symmetric cipher
+     */
+    public static SymmetricCipherType resolveSymmetricCipherType(EncryptionManager encryptionManager, TimeStopTranslator.Context context) {
+        Connection connection = context.getConnection();
+        SymmetricCipherType cipherType = null;
+
+        if (connection instanceof TimeStopConnection) {
+            cipherType = ((TimeStopConnection) connection).getSymmetricCipherType();
+        } else if (connection instanceof TimeStopClient) {
+            cipherType = ((TimeStopClient) connection).getSymmetricCipherType();
+        }
+
+        return cipherType != null ? cipherType : encryptionManager.getEncryptionConfig().getSymmetricCipherType();
+    }
+
     /**
      * Decrypts a packet
      *
      * @param encryptionManager Encryption manager
+     * @param bufferPool        Pool for buffers of decrypted memory-mapped packets
      * @param context           Context
      * @param packet            Packet
      *
      * @return Decrypted packet
+     *
+     * @throws FailedToDecryptPacketException If the packet could not be decrypted, the packet's data are kept as they were
      */
-    private static TimeStopPacket decryptPacket(EncryptionManager encryptionManager, TimeStopTranslator.Context context, TimeStopPacket packet) {
+    private static TimeStopPacket decryptPacket(EncryptionManager encryptionManager, DirectBufferPool bufferPool, TimeStopTranslator.Context context, TimeStopPacket packet) {
         try {
-            byte[] decryptedData = encryptionManager.decryptUsingSymmetricKey(packet.getData());
-            packet.setData(decryptedData);
+            // Authenticated ciphers reject tampered packets here, before they are deserialized
+            // Packets encrypted using the previous key (e.g. sent before a rotation) are decrypted using it during the grace period
+            Key symmetricKey = resolveSymmetricKeyRing(encryptionManager, context).getKey(packet.getKeyEpoch());
+
+            if (symmetricKey == null) {
+                throw new IllegalStateException("No symmetric key for epoch " + packet.getKeyEpoch());
+            }
+
+            SymmetricCipherType cipherType = resolveSymmetricCipherType(encryptionManager, context);
+            ByteBuffer input = packet.getDataAsBuffer();
+
+            if (packet.getDataBuffer() == null) {
+                // Decrypted data are never longer than encrypted data, so authenticated ciphers decrypt them in place (plaintext is written only
+                // after the tag is verified). Other ciphers may fail after writing a part of it, so they decrypt into a new array.
+                byte[] data = packet.getData();
+                byte[] decryptedData = cipherType.requiresNonce() ? data : new byte[data.length];
+                int length = encryptionManager.decryptUsingSymmetricKey(symmetricKey, cipherType, input, ByteBuffer.wrap(decryptedData), packet.getNonce());
+                packet.setData(null);
+                packet.setDataBuffer(ByteBuffer.wrap(decryptedData, 0, length));
+            } else {
+                // Memory-mapped data are decrypted into a pooled buffer, so they are not copied onto the heap
+                ByteBuffer output = bufferPool.acquire(EncryptionManager.getOutputSize(symmetricKey, cipherType, input.remaining(), false));
+
+                try {
+                    encryptionManager.decryptUsingSymmetricKey(symmetricKey, cipherType, input, output, packet.getNonce());
+                } catch (GeneralSecurityException | RuntimeException exception) {
+                    bufferPool.release(output);
+                    throw exception;
+                }
+
+                output.flip();
+                packet.deleteDataFile();
+                packet.setDataBuffer(output);
+                packet.setDataBufferPool(bufferPool);
+            }
+
             packet.setEncrypted(false);
+            packet.setNonce(null);
+            packet.setKeyEpoch(0);
         } catch (Exception exception) {
-            throw new FailedToDecryptPacketException(context.getConnection());
+            throw new FailedToDecryptPacketException(context.getConnection(), exception);
         }
 
         return packet;
@@ -47,7 +154,26 @@ public class TimeStopPacketEncryptionTranslator {
      */
     private static TimeStopPacket encryptPacket(EncryptionManager encryptionManager, TimeStopTranslator.Context context, TimeStopPacket packet) {
         try {
-            byte[] encryptedData = encryptionManager.encryptUsingSymmetricKey(packet.getData());
+            SymmetricKeyRing.EpochKey epochKey = resolveSymmetricKeyRing(encryptionManager, context).getCurrent();
+            Key symmetricKey = epochKey.getKey();
+            SymmetricCipherType cipherType = resolveSymmetricCipherType(encryptionManager, context);
+            byte[] nonce = null;
+
+            if (cipherType.requiresNonce()) {
+                nonce = encryptionManager.nextNonce(cipherType);
+            }
+
+            // Encrypted data are written straight into the array that is sent over the network
+            byte[] data = packet.getData();
+            byte[] encryptedData = new byte[EncryptionManager.getOutputSize(symmetricKey, cipherType, data.length, true)];
+            int length = encryptionManager.encryptUsingSymmetricKey(symmetricKey, cipherType, ByteBuffer.wrap(data), ByteBuffer.wrap(encryptedData), nonce);
+
+            if (length != encryptedData.length) {
+                encryptedData = Arrays.copyOf(encryptedData, length);
+            }
+
+            packet.setNonce(nonce);
+            packet.setKeyEpoch(epochKey.getEpoch());
             packet.setData(encryptedData);
             packet.setEncrypted(true);
         } catch (Exception exception) {
@@ -64,6 +190,7 @@ public class TimeStopPacketEncryptionTranslator {
 
         private final EncryptionManager encryptionManager;
         private final Function<Context, Boolean> shouldEncryptConsumer;
+        private TimeStopPacketSegmentTranslator segmentTranslator;
 
         public Encrypt(EncryptionManager encryptionManager, Function<Context, Boolean> shouldEncryptConsumer) {
             super(90);
@@ -71,6 +198,19 @@ public class TimeStopPacketEncryptionTranslator {
             this.shouldEncryptConsumer = shouldEncryptConsumer;
         }
 
+        /**
+         * Leaves packets that will be split by the segment translator to be encrypted segment by segment, see
+         * {@link TimeStopPacketSegmentTranslator#withSegmentEncryption(EncryptionManager, java.util.concurrent.ExecutorService)}
+         *
+         * @param segmentTranslator Segment translator with segment encryption enabled
+         *
+         * @return Itself
+         */
+        public Encrypt withSegmentEncryption(TimeStopPacketSegmentTranslator segmentTranslator) {
+            this.segmentTranslator = segmentTranslator;
+            return this;
+        }
+
         @Override
         public Object translate(Context context, Object object) {
             if (!(object instanceof TimeStopPacket)) {
@@ -83,11 +223,17 @@ public class TimeStopPacketEncryptionTranslator {
                 return object;
             }
 
-            if (!packet.isEncrypted() && context.getWay() == Context.Way.OUTBOUND) {
-                return encryptPacket(encryptionManager, context, packet);
+            if (packet.isEncrypted() || packet.isPayloadEncrypted() || context.getWay() != Context.Way.OUTBOUND) {
+                return object;
             }
 
-            return object;
+            // Only authenticated ciphers, segments must be decrypted into their exact position before the whole packet is received
+            if (segmentTranslator != null && segmentTranslator.isEncryptingSegmentsOf(packet) && resolveSymmetricCipherType(encryptionManager, context).requiresNonce()) {
+                packet.setEncryptSegments(true);
+                return object;
+            }
+
+            return encryptPacket(encryptionManager, context, packet);
         }
     }
 
@@ -98,6 +244,7 @@ public class TimeStopPacketEncryptionTranslator {
 
         private final EncryptionManager encryptionManager;
         private final Function<Context, Boolean> shouldDecryptConsumer;
+        private final DirectBufferPool bufferPool = new DirectBufferPool(POOLED_BUFFERS_PER_SIZE, MAX_POOLED_BUFFER_BYTES);
 
         public Decrypt(EncryptionManager encryptionManager, Function<Context, Boolean> shouldDecryptConsumer) {
             super(110);
@@ -117,11 +264,40 @@ public class TimeStopPacketEncryptionTranslator {
                 return object;
             }
 
-            if (packet.isEncrypted() && context.getWay() == Context.Way.INBOUND) {
-                return decryptPacket(encryptionManager, context, packet);
+            if (context.getWay() != Context.Way.INBOUND) {
+                return object;
+            }
+
+            if (packet.isEncrypted()) {
+                packet = decryptPacket(encryptionManager, bufferPool, context, packet);
+                context.setDecrypted(true);
+                return packet;
+            }
+
+            if (packet.isDecrypted()) {
+                // Segments were decrypted one by one by the segment translator
+                context.setDecrypted(true);
             }
 
             return object;
         }
+
+        /**
+         * Drops the pooled buffers of decrypted memory-mapped packets
+         */
+        @Override
+        public void close() {
+            bufferPool.clear();
+        }
+
+        /**
+         * Outbound objects are passed as they are
+         *
+         * @return True
+         */
+        @Override
+        public boolean isConnectionIndependent() {
+            return true;
+        }
     }
 }
@@ -1,17 +1,99 @@
 package dev.mayuna.timestop.networking.timestop.translators;
 
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.EndPoint;
 import com.esotericsoftware.kryonet.FrameworkMessage;
+import com.esotericsoftware.kryonet.Listener;
+import com.esotericsoftware.minlog.Log;
+import dev.mayuna.timestop.config.SymmetricCipherType;
+import dev.mayuna.timestop.exceptions.FailedToDecryptPacketException;
+import dev.mayuna.timestop.exceptions.InvalidPacketSegmentException;
+import dev.mayuna.timestop.managers.EncryptionManager;
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
+import dev.mayuna.timestop.networking.base.TimeStopMessagePriorities;
+import dev.mayuna.timestop.networking.base.TimeStopMessagePriority;
+import dev.mayuna.timestop.networking.base.TimeStopOutboundQueue;
+import dev.mayuna.timestop.networking.base.TimeStopSequencedChannels;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentCredit;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegmentNack;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class TimeStopPacketSegmentTranslator extends TimeStopTranslator {
 
-    private final List<TimeStopPacketSegment> segments = Collections.synchronizedList(new LinkedList<>());
+    /**
+     * Space reserved for the segment's own fields and the framing
+     */
+    public static final int SEGMENT_OVERHEAD = 256;
+
+    /**
+     * Segment emission is paused when the write buffer is filled above this ratio (adaptive mode only)
+     */
+    public static double WRITE_BUFFER_HIGH_WATERMARK = 0.75;
+
+    /**
+     * Adaptive segments are sized to be written within this time at the measured throughput
+     */
+    public static int ADAPTIVE_SEGMENT_MILLIS = 10;
+
+    /**
+     * Maximum number of segments being encrypted ahead of the segment being sent (segment encryption only)
+     */
+    public static int MAX_PENDING_ENCRYPTED_SEGMENTS = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Default maximum size of a received packet
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * Default maximum number of packets being received from a single connection at once
+     */
+    public static final int DEFAULT_MAX_PENDING_PACKETS = 64;
+
+    private final Map<Connection, ReceivingPackets> receivingPackets = new ConcurrentHashMap<>(); // Removed when the connection disconnects
+    private final Map<Connection, ThroughputEstimate> throughputEstimates = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Connection, CreditWindow> creditWindows = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Connection, SegmentSender> segmentSenders = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Connection, int[]> unacknowledgedSegments = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<Connection, Map<UUID, SentUdpPacket>> sentUdpPackets = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<UUID, Long> finishedUdpPackets = new ConcurrentHashMap<>(); // Received or expired UDP packets, late segments are ignored
+    private final AtomicLong retransmittedSegmentCount = new AtomicLong();
+    private final AtomicLong expiredUdpPacketCount = new AtomicLong();
 
+    private final int minSegmentSize;
     private final int maxSegmentSize;
+    private final int writeBufferSize;
+    private final boolean adaptive;
+    private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+    private int maxPendingPackets = DEFAULT_MAX_PENDING_PACKETS;
+    private long maxPendingBytes; // 0 to use the maximum packet size
+    private int acknowledgementWindow;
+    private int spillThreshold;
+    private File spillDirectory;
+    private EncryptionManager encryptionManager;
+    private ExecutorService encryptionExecutor;
+    private int udpSegmentSize;
+    private long udpReassemblyTimeoutNanos;
+    private long udpRetransmissionDelayNanos;
+    private ScheduledExecutorService udpScheduler;
+    private ScheduledFuture<?> udpSweepTask;
+    private ExecutorService senderExecutor; // Created on first paced packet, shut down when the endpoint is stopped
 
     /**
      * Creates a new LargeTimeStopPacketTranslator with priority 50
@@ -20,7 +102,213 @@ public class TimeStopPacketSegmentTranslator extends TimeStopTranslator {
      */
     public TimeStopPacketSegmentTranslator(int maxSegmentSize) {
         super(50);
+        this.minSegmentSize = maxSegmentSize;
+        this.maxSegmentSize = maxSegmentSize;
+        this.writeBufferSize = 0;
+        this.adaptive = false;
+    }
+
+    /**
+     * Creates a new adaptive LargeTimeStopPacketTranslator with priority 50. Segment size is picked from the connection's current write buffer
+     * occupancy and recent throughput. Segments of packets sent using TCP are sent by a sender thread of the translator after the translation
+     * returns (and {@code sendTCP} returns 0), which pauses while the write buffer is nearly full. The update thread keeps draining the buffer
+     * and receiving messages meanwhile. Packets sent to the same connection this way are sent in order, other messages sent meanwhile may arrive
+     * before them.
+     *
+     * @param minSegmentSize  Minimum size of a single segment
+     * @param maxSegmentSize  Maximum size of a single segment
+     * @param writeBufferSize Write buffer size of the endpoint
+     */
+    public TimeStopPacketSegmentTranslator(int minSegmentSize, int maxSegmentSize, int writeBufferSize) {
+        super(50);
+
+        if (minSegmentSize <= SEGMENT_OVERHEAD || minSegmentSize > maxSegmentSize) {
+            throw new IllegalArgumentException("Minimum segment size must be bigger than " + SEGMENT_OVERHEAD + " and not bigger than maximum segment size");
+        }
+
+        this.minSegmentSize = minSegmentSize;
         this.maxSegmentSize = maxSegmentSize;
+        this.writeBufferSize = writeBufferSize;
+        this.adaptive = true;
+    }
+
+    /**
+     * Sets the maximum size of a received packet. Segments of bigger packets are rejected before any memory or disk space is allocated for the
+     * packet. Segments announcing more data than their segment count and the segment size allow are rejected as well, so the maximum segment
+     * size (or the UDP segment size) must not be smaller than the sender's.
+     *
+     * @param maxPacketSize Maximum size of a received packet in bytes
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withMaxPacketSize(int maxPacketSize) {
+        if (maxPacketSize <= 0) {
+            throw new IllegalArgumentException("Maximum packet size must be positive");
+        }
+
+        this.maxPacketSize = maxPacketSize;
+        return this;
+    }
+
+    /**
+     * Limits the packets being received from a single connection. Segments starting a packet over the packet limit and segments over the byte
+     * limit are rejected. Data of the segments are stored as they arrive (nothing is allocated up front for the announced packet size), so a
+     * connection cannot make the receiver hold more than it has sent. Packets being received are dropped when their connection disconnects. By
+     * default, {@link #DEFAULT_MAX_PENDING_PACKETS} packets and the maximum packet size.
+     *
+     * @param maxPendingPackets Maximum number of incomplete packets of a connection
+     * @param maxPendingBytes   Maximum number of bytes of incomplete packets of a connection (in memory or spilled), every segment is counted
+     *                          with {@link #SEGMENT_OVERHEAD} bytes on top of its data
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withMaxPendingPackets(int maxPendingPackets, long maxPendingBytes) {
+        if (maxPendingPackets <= 0 || maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("Maximum number of pending packets and bytes must be positive");
+        }
+
+        this.maxPendingPackets = maxPendingPackets;
+        this.maxPendingBytes = maxPendingBytes;
+        return this;
+    }
+
+    /**
+     * Enables credit-based acknowledgements. The receiver grants credits for received segments and the sender emits only as many segments as it
+     * has credits for, so a slow receiver pushes back instead of the sender's write buffer growing. Must be enabled on both sides with the same
+     * window.<br>Segments of packets sent using TCP are then sent by a sender thread of the translator after the translation returns (and
+     * {@code sendTCP} returns 0), so waiting for credits blocks neither the update thread nor other senders. Packets sent to the same connection
+     * this way are sent in order, other messages sent meanwhile may arrive before them.
+     *
+     * @param windowSegments Number of segments that may be in flight per connection
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withAcknowledgementWindow(int windowSegments) {
+        if (windowSegments <= 0) {
+            throw new IllegalArgumentException("Acknowledgement window must be positive");
+        }
+
+        this.acknowledgementWindow = windowSegments;
+        return this;
+    }
+
+    /**
+     * Enables spilling of large packets to the disk. Segments of packets bigger than the threshold are written into a temporary file as they
+     * arrive instead of being kept on the heap, the file is memory-mapped once the packet is complete. The reassembled {@link TimeStopPacket} is
+     * then backed by {@link TimeStopPacket#getDataBuffer()} and
+     * {@link TimeStopPacket#getDataFile()}; {@link TimeStopPacketTranslator} deserializes straight from the mapped file and deletes it.
+     *
+     * @param thresholdBytes Packets bigger than this will be spilled to the disk
+     * @param directory      Directory for the temporary files (null for the default temporary directory)
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withSpillThreshold(int thresholdBytes, File directory) {
+        if (thresholdBytes <= 0) {
+            throw new IllegalArgumentException("Spill threshold must be positive");
+        }
+
+        this.spillThreshold = thresholdBytes;
+        this.spillDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Enables segment encryption. Packets left unencrypted by {@link TimeStopPacketEncryptionTranslator.Encrypt#withSegmentEncryption(
+     * TimeStopPacketSegmentTranslator)} are split first and every segment is then encrypted on its own with its own nonce on the executor, so
+     * large packets are encrypted by all cores. Inbound segments are decrypted on the executor and stored into the packet being received. The update
+     * thread never waits for the decryptions: once the last one completes, the reassembled packet is passed to the endpoint's
+     * {@link Listener#received(Connection, Object)} from the executor. Must be enabled on both sides. Only authenticated ciphers are supported,
+     * the segment's position is authenticated as well.
+     *
+     * @param encryptionManager Encryption manager (keys and ciphers are resolved for each connection the same way as in
+     *                          {@link TimeStopPacketEncryptionTranslator})
+     * @param executor          Executor for the encryption and decryption of the segments
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withSegmentEncryption(EncryptionManager encryptionManager, ExecutorService executor) {
+        this.encryptionManager = encryptionManager;
+        this.encryptionExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Enables segmentation of packets sent using UDP. Packets sent using UDP are split into segments small enough for a datagram and the segments
+     * are sent using UDP as well, instead of TCP. Segments may be lost, duplicated or reordered; duplicates are ignored and packets that are not
+     * complete within the reassembly timeout are dropped. Use it for loss-tolerant messages (e.g. state snapshots) that should not be blocked
+     * behind other TCP traffic. Must be enabled on both sides with the same segment size and timeout.
+     *
+     * @param segmentSize             Maximum size of a single UDP segment (must fit into a datagram)
+     * @param reassemblyTimeoutMillis Time in milliseconds after which an incomplete packet is dropped
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withUdpSegmentation(int segmentSize, int reassemblyTimeoutMillis) {
+        if (segmentSize <= SEGMENT_OVERHEAD) {
+            throw new IllegalArgumentException("UDP segment size must be bigger than " + SEGMENT_OVERHEAD);
+        }
+
+        if (reassemblyTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Reassembly timeout must be positive");
+        }
+
+        this.udpSegmentSize = segmentSize;
+        this.udpReassemblyTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(reassemblyTimeoutMillis);
+        scheduleUdpSweep();
+        return this;
+    }
+
+    /**
+     * Enables selective retransmission of UDP segments (see {@link #withUdpSegmentation(int, int)}). Once no segment of an incomplete packet has
+     * been received for the delay, the receiver asks the sender for the missing segments only. The sender keeps sent segments for the reassembly
+     * timeout. Must be enabled on both sides.
+     *
+     * @param retransmissionDelayMillis Time in milliseconds without a received segment after which the missing segments are requested
+     *
+     * @return Itself
+     */
+    public TimeStopPacketSegmentTranslator withUdpRetransmission(int retransmissionDelayMillis) {
+        if (udpSegmentSize <= 0) {
+            throw new IllegalStateException("UDP segmentation must be enabled first");
+        }
+
+        if (retransmissionDelayMillis <= 0) {
+            throw new IllegalArgumentException("Retransmission delay must be positive");
+        }
+
+        this.udpRetransmissionDelayNanos = TimeUnit.MILLISECONDS.toNanos(retransmissionDelayMillis);
+        scheduleUdpSweep();
+        return this;
+    }
+
+    /**
+     * Gets the number of UDP segments sent again on the receiver's request
+     *
+     * @return Number of retransmitted segments
+     */
+    public long getRetransmittedSegmentCount() {
+        return retransmittedSegmentCount.get();
+    }
+
+    /**
+     * Gets the number of received UDP packets dropped because they were not complete within the reassembly timeout
+     *
+     * @return Number of expired packets
+     */
+    public long getExpiredUdpPacketCount() {
+        return expiredUdpPacketCount.get();
+    }
+
+    /**
+     * Checks if the packet would be split and its segments encrypted by this translator
+     *
+     * @param timeStopPacket Packet
+     *
+     * @return If segments of the packet would be encrypted
+     */
+    public boolean isEncryptingSegmentsOf(TimeStopPacket timeStopPacket) {
+        return encryptionManager != null && timeStopPacket.getData().length > maxSegmentSize;
     }
 
     @Override
@@ -39,8 +327,24 @@ public class TimeStopPacketSegmentTranslator extends TimeStopTranslator {
             }
             case INBOUND: {
                 if (object instanceof TimeStopPacketSegment) {
+                    TimeStopPacketSegment timeStopPacketSegment = (TimeStopPacketSegment) object;
+
+                    if (!timeStopPacketSegment.isUdp()) {
+                        acknowledgeSegment(context.getConnection());
+                    }
+
                     context.setReset(true);
-                    return receiveSegment((TimeStopPacketSegment) object);
+                    return receiveSegment(context, timeStopPacketSegment);
+                }
+
+                if (object instanceof TimeStopPacketSegmentCredit) {
+                    getCreditWindow(context.getConnection()).grant(((TimeStopPacketSegmentCredit) object).getSegments());
+                    return null;
+                }
+
+                if (object instanceof TimeStopPacketSegmentNack) {
+                    retransmitSegments(context.getConnection(), (TimeStopPacketSegmentNack) object);
+                    return null;
                 }
 
                 break;
@@ -51,12 +355,43 @@ public class TimeStopPacketSegmentTranslator extends TimeStopTranslator {
     }
 
     private TimeStopPacket createSegments(Context context, TimeStopPacket timeStopPacket) {
-        if (timeStopPacket.getData().length <= maxSegmentSize) {
+        boolean udp = context.isUdp() && udpSegmentSize > 0;
+        int segmentSize = udp ? udpSegmentSize : maxSegmentSize;
+
+        if (timeStopPacket.getData().length <= segmentSize) {
             // No need to split
             return timeStopPacket;
         }
 
-        int maxSegmentSizeWithSpace = maxSegmentSize - 256;
+        SegmentEmitter segmentEmitter = new SegmentEmitter(context, timeStopPacket, udp);
+
+        if ((adaptive || acknowledgementWindow > 0) && !udp) {
+            // Waits for credits or for the write buffer, both of which need the update thread to get through the translators, so it must not
+            // wait within the translation
+            TimeStopMessagePriority priority = TimeStopMessagePriorities.getCurrentPriority();
+
+            getSegmentSender(context.getConnection()).submit(context.getConnection(), () -> TimeStopMessagePriorities.runWithPriority(priority, () -> adaptive
+                ? createAdaptiveSegments(segmentEmitter, timeStopPacket)
+                : emitSegments(segmentEmitter, timeStopPacket, segmentSize)));
+
+            return null;
+        }
+
+        emitSegments(segmentEmitter, timeStopPacket, segmentSize);
+        return null;
+    }
+
+    /**
+     * Splits the packet into segments of the same size and sends them
+     *
+     * @param segmentEmitter Segment emitter
+     * @param timeStopPacket Packet
+     * @param segmentSize    Segment size
+     *
+     * @return False if the connection has been closed
+     */
+    private boolean emitSegments(SegmentEmitter segmentEmitter, TimeStopPacket timeStopPacket, int segmentSize) {
+        int maxSegmentSizeWithSpace = segmentSize - SEGMENT_OVERHEAD;
 
         int segmentCount = (int) Math.ceil((double) timeStopPacket.getData().length / maxSegmentSizeWithSpace);
 
@@ -67,57 +402,1216 @@ public class TimeStopPacketSegmentTranslator extends TimeStopTranslator {
             byte[] segmentData = new byte[length];
             System.arraycopy(timeStopPacket.getData(), offset, segmentData, 0, length);
 
-            context.getConnection().sendTCP(new TimeStopPacketSegment(timeStopPacket.getUuid(), segmentData, i, segmentCount));
+            TimeStopPacketSegment segment = new TimeStopPacketSegment(timeStopPacket, segmentData, i, segmentCount, offset);
+            segment.setUdp(segmentEmitter.udp);
+
+            if (!segmentEmitter.emit(segment)) {
+                return false;
+            }
         }
 
-        return null;
+        return segmentEmitter.flush();
+    }
+
+    /**
+     * Splits the packet into segments sized from the write buffer occupancy and the throughput and sends them (sender thread only, see
+     * {@link SegmentSender})
+     *
+     * @param segmentEmitter Segment emitter
+     * @param timeStopPacket Packet
+     *
+     * @return False if the connection has been closed
+     */
+    private boolean createAdaptiveSegments(SegmentEmitter segmentEmitter, TimeStopPacket timeStopPacket) {
+        Connection connection = segmentEmitter.connection;
+        byte[] data = timeStopPacket.getData();
+        ThroughputEstimate throughputEstimate = throughputEstimates.computeIfAbsent(connection, ignored -> new ThroughputEstimate());
+
+        int offset = 0;
+        int segmentIndex = 0;
+
+        while (offset < data.length) {
+            int pending = connection.getTcpWriteBufferSize();
+
+            // Queued messages are counted as pending too, so segments are not piled up in the outbound queue
+            while (connection.isConnected() && (pending > writeBufferSize * WRITE_BUFFER_HIGH_WATERMARK || !TimeStopOutboundQueue.isWritable(connection))) {
+                throughputEstimate.sample(pending);
+                sleep();
+                pending = connection.getTcpWriteBufferSize();
+            }
+
+            if (!connection.isConnected()) {
+                return false;
+            }
+
+            throughputEstimate.sample(pending);
+
+            int length = Math.min(pickSegmentSize(pending, throughputEstimate) - SEGMENT_OVERHEAD, data.length - offset);
+
+            byte[] segmentData = new byte[length];
+            System.arraycopy(data, offset, segmentData, 0, length);
+
+            if (!segmentEmitter.emit(new TimeStopPacketSegment(timeStopPacket, segmentData, segmentIndex, 0, offset))) {
+                return false;
+            }
+
+            throughputEstimate.sent(length + SEGMENT_OVERHEAD);
+
+            offset += length;
+            segmentIndex++;
+        }
+
+        return segmentEmitter.flush();
     }
 
-    private TimeStopPacket receiveSegment(TimeStopPacketSegment timeStopPacketSegment) {
-        segments.add(timeStopPacketSegment);
-        List<TimeStopPacketSegment> segments = getSegmentsByParentUuidIfComplete(timeStopPacketSegment.getParentUuid(), timeStopPacketSegment.getSegmentCount());
+    /**
+     * Sends the segment, waiting for a credit first if acknowledgements are enabled (sender thread only, see {@link SegmentSender})
+     *
+     * @param connection Connection
+     * @param segment    Segment
+     *
+     * @return False if the connection has been closed
+     */
+    private boolean sendSegment(Connection connection, TimeStopPacketSegment segment) {
+        if (acknowledgementWindow > 0 && !getCreditWindow(connection).acquire(connection)) {
+            return false;
+        }
+
+        connection.sendTCP(segment);
+        return connection.isConnected();
+    }
 
-        // Non complete packet
-        if (segments == null) {
-            return null;
+    /**
+     * Sends the segment using UDP, keeping it for retransmission if retransmission is enabled
+     *
+     * @param connection Connection
+     * @param segment    Segment
+     *
+     * @return False if the connection has been closed
+     */
+    private boolean sendUdpSegment(Connection connection, TimeStopPacketSegment segment) {
+        if (udpRetransmissionDelayNanos > 0) {
+            Map<UUID, SentUdpPacket> packets = sentUdpPackets.computeIfAbsent(connection, ignored -> new ConcurrentHashMap<>());
+            // Sequence of the sequenced message being sent, so retransmitted segments carry it as well
+            TimeStopSequencedMessage stamp = TimeStopSequencedChannels.getCurrentStamp();
+            packets.computeIfAbsent(segment.getParentUuid(), ignored -> new SentUdpPacket(segment.getSegmentCount(), stamp)).segments[segment.getSegmentIndex()] = segment;
         }
 
-        // Complete packet
-        segments.sort(Comparator.comparingInt(TimeStopPacketSegment::getSegmentIndex));
+        connection.sendUDP(segment);
+        return connection.isConnected();
+    }
 
-        int totalLength = 0;
+    /**
+     * Sends the requested segments again
+     *
+     * @param connection Connection
+     * @param nack       Request for the missing segments
+     */
+    private void retransmitSegments(Connection connection, TimeStopPacketSegmentNack nack) {
+        Map<UUID, SentUdpPacket> packets = sentUdpPackets.get(connection);
+        SentUdpPacket sentUdpPacket = packets != null ? packets.get(nack.getParentUuid()) : null;
 
-        for (TimeStopPacketSegment segment : segments) {
-            totalLength += segment.getData().length;
+        if (sentUdpPacket == null || nack.getSegmentIndexes() == null) {
+            Log.debug("Segments of packet " + nack.getParentUuid() + " requested by connection '" + connection + "' are no longer kept");
+            return;
         }
 
-        byte[] data = new byte[totalLength];
+        for (int segmentIndex : nack.getSegmentIndexes()) {
+            if (segmentIndex < 0 || segmentIndex >= sentUdpPacket.segments.length || sentUdpPacket.segments[segmentIndex] == null) {
+                continue;
+            }
 
-        int offset = 0;
+            TimeStopPacketSegment segment = sentUdpPacket.segments[segmentIndex];
+            TimeStopSequencedChannels.withStamp(sentUdpPacket.stamp, () -> connection.sendUDP(segment));
+            retransmittedSegmentCount.incrementAndGet();
+        }
+    }
+
+    private void scheduleUdpSweep() {
+        if (udpScheduler == null) {
+            udpScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TimeStopPacketSegmentTranslator-UDP");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
 
-        for (TimeStopPacketSegment segment : segments) {
-            System.arraycopy(segment.getData(), 0, data, offset, segment.getData().length);
-            offset += segment.getData().length;
+        if (udpSweepTask != null) {
+            udpSweepTask.cancel(false);
         }
 
-        return new TimeStopPacket(data);
+        long interval = udpRetransmissionDelayNanos > 0 ? Math.min(udpRetransmissionDelayNanos, udpReassemblyTimeoutNanos) : udpReassemblyTimeoutNanos;
+        interval = Math.max(interval / 2, TimeUnit.MILLISECONDS.toNanos(1));
+        udpSweepTask = udpScheduler.scheduleWithFixedDelay(this::sweepUdpPackets, interval, interval, TimeUnit.NANOSECONDS);
     }
 
-    private List<TimeStopPacketSegment> getSegmentsByParentUuidIfComplete(UUID parentUuid, int segmentCount) {
-        List<TimeStopPacketSegment> segments = new ArrayList<>();
+    /**
+     * Drops expired incomplete UDP packets, requests missing segments and forgets old sent segments
+     */
+    private void sweepUdpPackets() {
+        try {
+            long now = System.nanoTime();
+
+            receivingPackets.values().forEach(connectionPackets -> connectionPackets.packets.forEach((parentUuid, receivingPacket) -> {
+                if (!receivingPacket.udp) {
+                    return;
+                }
+
+                int[] missingSegments = null;
 
-        synchronized (segments) {
-            for (TimeStopPacketSegment segment : this.segments) {
-                if (segment.getParentUuid().equals(parentUuid)) {
-                    segments.add(segment);
+                synchronized (receivingPacket) {
+                    if (receivingPacket.finished) {
+                        return;
+                    }
+
+                    if (now - receivingPacket.createdNanos >= udpReassemblyTimeoutNanos || !receivingPacket.connection.isConnected()) {
+                        receivingPacket.finished = true;
+                        receivingPacket.discard();
+                        finishedUdpPackets.put(parentUuid, now);
+                        receivingPacket.remove();
+                        expiredUdpPacketCount.incrementAndGet();
+                        return;
+                    }
+
+                    if (udpRetransmissionDelayNanos > 0 && now - receivingPacket.lastActivityNanos >= udpRetransmissionDelayNanos) {
+                        missingSegments = receivingPacket.getMissingSegments();
+                        receivingPacket.lastActivityNanos = now;
+                    }
+                }
+
+                if (missingSegments != null) {
+                    receivingPacket.connection.sendTCP(new TimeStopPacketSegmentNack(parentUuid, missingSegments));
+                }
+            }));
+
+            // Kept for twice the timeout, so duplicates delayed by the network do not start a new packet
+            finishedUdpPackets.values().removeIf(finishedAt -> now - finishedAt >= udpReassemblyTimeoutNanos * 2);
+
+            synchronized (sentUdpPackets) {
+                for (Map<UUID, SentUdpPacket> packets : sentUdpPackets.values()) {
+                    packets.values().removeIf(sentUdpPacket -> now - sentUdpPacket.sentNanos >= udpReassemblyTimeoutNanos);
                 }
             }
+        } catch (Exception exception) {
+            Log.error("Exception occurred while sweeping UDP packets", exception);
         }
+    }
 
-        if (segments.size() == segmentCount) {
-            return segments;
+    /**
+     * Counts received segment and grants credits to the sender once half of the window has been received
+     *
+     * @param connection Connection
+     */
+    private void acknowledgeSegment(Connection connection) {
+        if (acknowledgementWindow <= 0) {
+            return;
         }
 
-        return null;
+        int credits;
+
+        synchronized (unacknowledgedSegments) {
+            int[] unacknowledged = unacknowledgedSegments.computeIfAbsent(connection, ignored -> new int[1]);
+
+            if (++unacknowledged[0] < Math.max(1, acknowledgementWindow / 2)) {
+                return;
+            }
+
+            credits = unacknowledged[0];
+            unacknowledged[0] = 0;
+        }
+
+        connection.sendTCP(new TimeStopPacketSegmentCredit(credits));
+    }
+
+    private CreditWindow getCreditWindow(Connection connection) {
+        return creditWindows.computeIfAbsent(connection, ignored -> new CreditWindow(acknowledgementWindow));
+    }
+
+    private SegmentSender getSegmentSender(Connection connection) {
+        return segmentSenders.computeIfAbsent(connection, ignored -> new SegmentSender());
+    }
+
+    private synchronized Executor getSenderExecutor() {
+        if (senderExecutor == null) {
+            senderExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "TimeStopPacketSegmentTranslator-Sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return senderExecutor;
+    }
+
+    /**
+     * Stops sending the paced packets (their connections are closed as well)
+     */
+    @Override
+    public synchronized void close() {
+        if (senderExecutor != null) {
+            senderExecutor.shutdownNow();
+            senderExecutor = null;
+        }
+
+        segmentSenders.clear();
+    }
+
+    /**
+     * Drops packets being received from the connection (deleting their temporary files) and forgets its state
+     *
+     * @param connection Connection
+     */
+    @Override
+    public void disconnected(Connection connection) {
+        ReceivingPackets connectionPackets = receivingPackets.remove(connection);
+
+        if (connectionPackets != null) {
+            connectionPackets.packets.values().forEach(receivingPacket -> {
+                synchronized (receivingPacket) {
+                    receivingPacket.finished = true;
+                    receivingPacket.discard();
+                }
+            });
+        }
+
+        creditWindows.remove(connection);
+        unacknowledgedSegments.remove(connection);
+        throughputEstimates.remove(connection);
+        sentUdpPackets.remove(connection);
+        segmentSenders.remove(connection);
+    }
+
+    private long getMaxPendingBytes() {
+        return maxPendingBytes > 0 ? maxPendingBytes : maxPacketSize;
+    }
+
+    /**
+     * Picks the segment size from free space in the write buffer and the measured throughput
+     *
+     * @param pending            Bytes pending in the write buffer
+     * @param throughputEstimate Throughput estimate of the connection
+     *
+     * @return Segment size (including {@link #SEGMENT_OVERHEAD})
+     */
+    private int pickSegmentSize(int pending, ThroughputEstimate throughputEstimate) {
+        long size = (writeBufferSize - pending) / 2;
+        double bytesPerMilli = throughputEstimate.getBytesPerMilli();
+
+        if (bytesPerMilli > 0) {
+            size = Math.min(size, (long) (bytesPerMilli * ADAPTIVE_SEGMENT_MILLIS));
+        }
+
+        return (int) Math.max(minSegmentSize, Math.min(maxSegmentSize, size));
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the write buffer", exception);
+        }
+    }
+
+    private TimeStopPacket receiveSegment(Context context, TimeStopPacketSegment timeStopPacketSegment) {
+        if (timeStopPacketSegment.isUdp() && finishedUdpPackets.containsKey(timeStopPacketSegment.getParentUuid())) {
+            // Late or duplicated segment of a packet that has been received or dropped already
+            return null;
+        }
+
+        validateSegment(timeStopPacketSegment);
+
+        UUID parentUuid = timeStopPacketSegment.getParentUuid();
+        ReceivingPackets connectionPackets = receivingPackets.computeIfAbsent(context.getConnection(), ignored -> new ReceivingPackets());
+        ReceivingPacket receivingPacket = connectionPackets.packets.get(parentUuid);
+
+        if (receivingPacket == null) {
+            if (connectionPackets.packets.size() >= maxPendingPackets) {
+                throw new InvalidPacketSegmentException("Connection is already receiving " + maxPendingPackets + " packets (packet " + parentUuid + ")");
+            }
+
+            receivingPacket = connectionPackets.packets.computeIfAbsent(parentUuid, ignored -> createReceivingPacket(context, connectionPackets, timeStopPacketSegment));
+        }
+
+        synchronized (receivingPacket) {
+            if (receivingPacket.failed) {
+                receivingPacket.remove();
+                throw new FailedToDecryptPacketException(context.getConnection());
+            }
+
+            // Plaintext segments are not accepted into an encrypted packet and vice versa
+            if (!receivingPacket.matches(timeStopPacketSegment)) {
+                throw rejectPacket(receivingPacket, "Segment does not match the first segment of its packet");
+            }
+
+            if (!receivingPacket.markReceived(timeStopPacketSegment)) {
+                // Duplicated segment
+                return null;
+            }
+
+            if (receivingPacket.isConcatenated() && (long) receivingPacket.receivedLength + timeStopPacketSegment.getData().length > maxPacketSize) {
+                throw rejectPacket(receivingPacket, "Packet is bigger than the maximum packet size of " + maxPacketSize + " bytes");
+            }
+
+            // Segments are charged with the overhead as well, so tiny segments cannot pile up without limit
+            if (!connectionPackets.reserve(receivingPacket, timeStopPacketSegment.getData().length + SEGMENT_OVERHEAD, getMaxPendingBytes())) {
+                throw rejectPacket(receivingPacket, "Packets being received from the connection exceed " + getMaxPendingBytes() + " bytes");
+            }
+
+            if (timeStopPacketSegment.isEncryptedIndividually()) {
+                decryptAndWrite(context, receivingPacket, timeStopPacketSegment);
+
+                if (receivingPacket.failed) {
+                    receivingPacket.remove();
+                    throw new FailedToDecryptPacketException(context.getConnection());
+                }
+            } else {
+                if (!receivingPacket.isConcatenated() && !receivingPacket.cover(timeStopPacketSegment.getOffset(), timeStopPacketSegment.getData().length)) {
+                    throw rejectPacket(receivingPacket, "Segment at offset " + timeStopPacketSegment.getOffset() + " overlaps received data");
+                }
+
+                receivingPacket.write(timeStopPacketSegment);
+            }
+
+            // Non complete packet
+            if (!receivingPacket.isComplete()) {
+                return null;
+            }
+
+            receivingPacket.finished = true;
+
+            if (receivingPacket.udp) {
+                finishedUdpPackets.put(parentUuid, System.nanoTime());
+            }
+
+            receivingPacket.remove();
+
+            if (receivingPacket.pendingDecryptionCount > 0) {
+                // Passed on by the last decryption
+                return null;
+            }
+        }
+
+        // Complete packet
+        return receivingPacket.toPacket();
+    }
+
+    /**
+     * Checks the segment's fields sent by the peer before anything is allocated for its packet
+     *
+     * @param segment Segment
+     *
+     * @throws InvalidPacketSegmentException If the segment is malformed or its packet is too big
+     */
+    private void validateSegment(TimeStopPacketSegment segment) {
+        byte[] segmentData = segment.getData();
+        int segmentIndex = segment.getSegmentIndex();
+        int segmentCount = segment.getSegmentCount();
+        int totalLength = segment.getTotalLength();
+
+        if (segment.getParentUuid() == null || segmentData == null) {
+            throw new InvalidPacketSegmentException("Segment has no parent packet or no data");
+        }
+
+        if (segmentCount < 0 || segmentIndex < 0 || (segmentCount > 0 && segmentIndex >= segmentCount)) {
+            throw new InvalidPacketSegmentException("Segment index " + segmentIndex + " is out of range of " + segmentCount + " segments");
+        }
+
+        // Every segment carries at least one byte, so received indexes are bounded by the packet size
+        if (segmentData.length == 0 || Math.max(segmentCount, segmentIndex + 1) > (totalLength > 0 ? totalLength : maxPacketSize)) {
+            throw new InvalidPacketSegmentException("Segment index " + segmentIndex + " or count " + segmentCount + " is out of range of the packet size");
+        }
+
+        if (totalLength > maxPacketSize) {
+            throw new InvalidPacketSegmentException("Packet of " + totalLength + " bytes is bigger than the maximum packet size of " + maxPacketSize + " bytes");
+        }
+
+        if (segment.isUdp()) {
+            validateUdpSegment(segment);
+        }
+
+        if (totalLength <= 0) {
+            if (segmentCount == 0) {
+                throw new InvalidPacketSegmentException("Segment has neither total length nor segment count");
+            }
+
+            return;
+        }
+
+        int segmentSize = segment.isUdp() ? udpSegmentSize : maxSegmentSize;
+
+        if (segmentCount > 0 && totalLength > (long) segmentCount * segmentSize) {
+            throw new InvalidPacketSegmentException("Packet of " + totalLength + " bytes cannot be sent in " + segmentCount + " segments of " + segmentSize + " bytes");
+        }
+
+        // Individually encrypted data carries the tag as well, its bounds are checked when it is decrypted
+        if (segment.getOffset() < 0 || (!segment.isEncryptedIndividually() && (long) segment.getOffset() + segmentData.length > totalLength)) {
+            throw new InvalidPacketSegmentException("Segment at offset " + segment.getOffset() + " does not fit into packet of " + totalLength + " bytes");
+        }
+    }
+
+    /**
+     * Checks that the UDP segment's count and offset match the UDP segment size, which is the same on both sides. The segment count then follows
+     * from the (bounded) total length and so does the size of the received segments' bitset.
+     *
+     * @param segment Segment
+     *
+     * @throws InvalidPacketSegmentException If the segment does not match the UDP segment size
+     */
+    private void validateUdpSegment(TimeStopPacketSegment segment) {
+        if (udpSegmentSize <= 0) {
+            throw new InvalidPacketSegmentException("UDP segmentation is not enabled");
+        }
+
+        int segmentDataSize = udpSegmentSize - SEGMENT_OVERHEAD;
+        long totalLength = segment.getTotalLength();
+
+        if (totalLength <= 0 || segment.getSegmentCount() != (totalLength + segmentDataSize - 1) / segmentDataSize) {
+            throw new InvalidPacketSegmentException("UDP packet of " + totalLength + " bytes cannot be sent in " + segment.getSegmentCount() + " segments of " + udpSegmentSize + " bytes");
+        }
+
+        if (segment.getOffset() != (long) segment.getSegmentIndex() * segmentDataSize) {
+            throw new InvalidPacketSegmentException("UDP segment " + segment.getSegmentIndex() + " has invalid offset " + segment.getOffset());
+        }
+    }
+
+    /**
+     * Discards the packet being received
+     *
+     * @param receivingPacket Receiving packet
+     * @param message         Reason
+     *
+     * @return Exception to throw
+     */
+    private InvalidPacketSegmentException rejectPacket(ReceivingPacket receivingPacket, String message) {
+        receivingPacket.finished = true;
+        receivingPacket.discard();
+        receivingPacket.remove();
+        return new InvalidPacketSegmentException(message + " (packet " + receivingPacket.uuid + ")");
+    }
+
+    /**
+     * Decrypts the individually encrypted segment on the executor, its data are stored into the receiving packet once decrypted
+     *
+     * @param context         Context
+     * @param receivingPacket Receiving packet
+     * @param segment         Segment
+     */
+    private void decryptAndWrite(Context context, ReceivingPacket receivingPacket, TimeStopPacketSegment segment) {
+        if (encryptionManager == null) {
+            throw new FailedToDecryptPacketException(context.getConnection());
+        }
+
+        Key symmetricKey = TimeStopPacketEncryptionTranslator.resolveSymmetricKeyRing(encryptionManager, context).getKey(segment.getKeyEpoch());
+        SymmetricCipherType cipherType = TimeStopPacketEncryptionTranslator.resolveSymmetricCipherType(encryptionManager, context);
+        int offset = segment.getOffset();
+        int length = segment.getData().length - cipherType.getTagLength();
+
+        if (symmetricKey == null || !cipherType.requiresNonce() || receivingPacket.isConcatenated() || length < 0 || (long) offset + length > receivingPacket.totalLength) {
+            receivingPacket.discard();
+            receivingPacket.remove();
+            throw new FailedToDecryptPacketException(context.getConnection());
+        }
+
+        if (!receivingPacket.cover(offset, length)) {
+            throw rejectPacket(receivingPacket, "Segment at offset " + offset + " overlaps received data");
+        }
+
+        ByteBuffer input = ByteBuffer.wrap(segment.getData());
+        byte[] additionalData = segment.createAdditionalData();
+
+        Connection connection = context.getConnection();
+
+        CompletableFuture<byte[]> decryption = CompletableFuture.supplyAsync(() -> {
+            byte[] decryptedData = new byte[length];
+
+            try {
+                EncryptionManager.decryptDataUsingKey(input, ByteBuffer.wrap(decryptedData), symmetricKey, cipherType, segment.getNonce(), additionalData);
+                return decryptedData;
+            } catch (GeneralSecurityException exception) {
+                throw new CompletionException(exception);
+            }
+        }, encryptionExecutor);
+
+        receivingPacket.receivedLength += length;
+        receivingPacket.pendingDecryptionCount++;
+        receivingPacket.pendingDecryptions.add(decryption);
+        decryption.whenComplete((decryptedData, exception) -> onSegmentDecrypted(connection, receivingPacket, offset, decryptedData, exception));
+    }
+
+    /**
+     * Stores the decrypted data and passes the packet on once all of its segments have been received and decrypted
+     *
+     * @param connection      Connection
+     * @param receivingPacket Receiving packet
+     * @param offset          Offset of the segment's data
+     * @param decryptedData   Decrypted data (null if the decryption failed)
+     * @param exception       Exception thrown by the decryption (null if decrypted)
+     */
+    private void onSegmentDecrypted(Connection connection, ReceivingPacket receivingPacket, int offset, byte[] decryptedData, Throwable exception) {
+        UUID parentUuid = receivingPacket.uuid;
+        TimeStopPacket packet;
+
+        synchronized (receivingPacket) {
+            if (receivingPacket.discarded) {
+                return;
+            }
+
+            if (exception == null) {
+                try {
+                    receivingPacket.store(offset, decryptedData);
+                } catch (UncheckedIOException ioException) {
+                    exception = ioException;
+                }
+            }
+
+            if (exception != null) {
+                // Packets still being received are kept, so the next segment fails the translation
+                receivingPacket.failed = true;
+                receivingPacket.discard();
+
+                if (receivingPacket.finished) {
+                    Log.error("Failed to decrypt segment of packet " + parentUuid + " from connection '" + connection + "'", exception);
+                }
+
+                return;
+            }
+
+            if (--receivingPacket.pendingDecryptionCount > 0 || !receivingPacket.finished) {
+                return;
+            }
+
+            try {
+                packet = receivingPacket.toPacket();
+            } catch (UncheckedIOException ioException) {
+                Log.error("Could not reassemble packet " + parentUuid + " from connection '" + connection + "'", ioException);
+                return;
+            }
+        }
+
+        EndPoint endPoint = connection.getEndPoint();
+
+        if (!(endPoint instanceof Listener)) {
+            Log.warn("Packet " + parentUuid + " cannot be passed on, endpoint of connection '" + connection + "' is not a listener");
+            packet.releaseData();
+            return;
+        }
+
+        try {
+            ((Listener) endPoint).received(connection, packet);
+        } catch (Exception processingException) {
+            Log.error("Exception occurred while processing packet " + parentUuid + " from connection '" + connection + "'", processingException);
+        }
+    }
+
+    private ReceivingPacket createReceivingPacket(Context context, ReceivingPackets owner, TimeStopPacketSegment firstSegment) {
+        boolean encrypted = firstSegment.isEncrypted() && !firstSegment.isEncryptedIndividually();
+        boolean spilled = spillThreshold > 0 && firstSegment.getTotalLength() > spillThreshold;
+        ReceivingPacket receivingPacket = new ReceivingPacket(owner, firstSegment, encrypted, encrypted ? firstSegment.getNonce() : null, encrypted ? firstSegment.getKeyEpoch() : 0, spilled, spillDirectory);
+
+        if (firstSegment.isUdp()) {
+            receivingPacket.trackSegments(context.getConnection());
+        }
+
+        return receivingPacket;
+    }
+
+    /**
+     * Packets being received from a connection
+     */
+    private static class ReceivingPackets {
+
+        private final Map<UUID, ReceivingPacket> packets = new ConcurrentHashMap<>();
+        private final AtomicLong pendingBytes = new AtomicLong(); // Received bytes of incomplete packets (in memory or spilled)
+
+        /**
+         * Reserves the bytes for the packet
+         *
+         * @param receivingPacket Receiving packet
+         * @param bytes           Number of bytes
+         * @param limit           Maximum number of pending bytes
+         *
+         * @return False if the limit would be exceeded
+         */
+        private boolean reserve(ReceivingPacket receivingPacket, long bytes, long limit) {
+            if (pendingBytes.addAndGet(bytes) > limit) {
+                pendingBytes.addAndGet(-bytes);
+                return false;
+            }
+
+            receivingPacket.reservedBytes += bytes;
+            return true;
+        }
+
+        private void release(ReceivingPacket receivingPacket) {
+            pendingBytes.addAndGet(-receivingPacket.reservedBytes);
+            receivingPacket.reservedBytes = 0;
+        }
+    }
+
+    /**
+     * Holds a packet that is being received. Data of the segments are kept as they arrive and copied into the packet once it is complete (or
+     * written at their offset into a temporary file, which is then memory-mapped, when the packet is spilled), so nothing is allocated up front
+     * for the announced total length. Segments are concatenated when the total length is unknown. Received segments are tracked, so duplicates
+     * are ignored and missing segments of UDP packets can be requested.
+     */
+    private static class ReceivingPacket {
+
+        private final ReceivingPackets owner;
+        private final UUID uuid;
+        private final TreeMap<Integer, byte[]> receivedData = new TreeMap<>(); // Offset (or index of concatenated segments) -> data, not spilled
+        private final List<Future<?>> pendingDecryptions = new ArrayList<>();
+        private int pendingDecryptionCount;
+        private final boolean encrypted;
+        private final byte[] nonce;
+        private final int keyEpoch;
+        private final int totalLength; // 0 when the segments are concatenated
+        private final int segmentCount;
+        private final boolean udp;
+        private final boolean encryptedIndividually;
+        private final boolean spilled;
+        private final File spillDirectory;
+        private File file;
+        private FileChannel channel;
+        private int receivedLength;
+        private long reservedBytes; // Counted in the owner's pending bytes
+        private boolean finished; // Complete or expired
+        private boolean discarded;
+        private boolean failed; // Some segment could not be decrypted
+        private final Set<Integer> receivedSegments = new HashSet<>(); // Grows with the received segments, not with the announced count
+        private final TreeMap<Integer, Integer> receivedRanges = new TreeMap<>(); // Start -> end of received data, adjacent ranges are merged
+        private Connection connection; // UDP packets only
+        private long createdNanos;
+        private long lastActivityNanos;
+
+        private ReceivingPacket(ReceivingPackets owner, TimeStopPacketSegment firstSegment, boolean encrypted, byte[] nonce, int keyEpoch, boolean spilled, File spillDirectory) {
+            this.owner = owner;
+            this.uuid = firstSegment.getParentUuid();
+            this.encrypted = encrypted;
+            this.nonce = nonce;
+            this.keyEpoch = keyEpoch;
+            this.totalLength = Math.max(firstSegment.getTotalLength(), 0);
+            this.segmentCount = firstSegment.getSegmentCount();
+            this.udp = firstSegment.isUdp();
+            this.encryptedIndividually = firstSegment.isEncryptedIndividually();
+            this.spilled = spilled;
+            this.spillDirectory = spillDirectory;
+        }
+
+        private void trackSegments(Connection connection) {
+            this.connection = connection;
+            this.createdNanos = System.nanoTime();
+            this.lastActivityNanos = createdNanos;
+        }
+
+        /**
+         * Marks the segment as received
+         *
+         * @param segment Segment (validated)
+         *
+         * @return False if the segment is a duplicate or the packet has expired
+         */
+        private boolean markReceived(TimeStopPacketSegment segment) {
+            if (finished || !receivedSegments.add(segment.getSegmentIndex())) {
+                return false;
+            }
+
+            lastActivityNanos = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Checks if the segment belongs to the same packet as the first received segment
+         *
+         * @param segment Segment
+         *
+         * @return True if the segment's packet fields match
+         */
+        private boolean matches(TimeStopPacketSegment segment) {
+            if (Math.max(segment.getTotalLength(), 0) != totalLength || segment.getSegmentCount() != segmentCount || segment.isUdp() != udp) {
+                return false;
+            }
+
+            if (segment.isEncryptedIndividually() != encryptedIndividually) {
+                return false;
+            }
+
+            // Segments of a packet encrypted as a whole carry the packet's nonce
+            boolean packetEncrypted = segment.isEncrypted() && !segment.isEncryptedIndividually();
+            return packetEncrypted == encrypted && (!encrypted || (Arrays.equals(nonce, segment.getNonce()) && keyEpoch == segment.getKeyEpoch()));
+        }
+
+        /**
+         * Marks the data range as received
+         *
+         * @param offset Offset
+         * @param length Length
+         *
+         * @return False if the range overlaps data received already
+         */
+        private boolean cover(int offset, int length) {
+            int end = offset + length;
+            Map.Entry<Integer, Integer> previous = receivedRanges.floorEntry(offset);
+            Map.Entry<Integer, Integer> next = receivedRanges.ceilingEntry(offset);
+
+            if ((previous != null && previous.getValue() > offset) || (next != null && next.getKey() < end)) {
+                return false;
+            }
+
+            if (previous != null && previous.getValue() == offset) {
+                offset = previous.getKey();
+            }
+
+            if (next != null && next.getKey() == end) {
+                end = next.getValue();
+                receivedRanges.remove(next.getKey());
+            }
+
+            receivedRanges.put(offset, end);
+            return true;
+        }
+
+        private boolean isConcatenated() {
+            return totalLength <= 0;
+        }
+
+        private int[] getMissingSegments() {
+            int[] missingSegments = new int[segmentCount - receivedSegments.size()];
+            int index = 0;
+
+            for (int segmentIndex = 0; segmentIndex < segmentCount && index < missingSegments.length; segmentIndex++) {
+                if (!receivedSegments.contains(segmentIndex)) {
+                    missingSegments[index++] = segmentIndex;
+                }
+            }
+
+            return missingSegments;
+        }
+
+        private void write(TimeStopPacketSegment segment) {
+            store(isConcatenated() ? segment.getSegmentIndex() : segment.getOffset(), segment.getData());
+            receivedLength += segment.getData().length;
+        }
+
+        /**
+         * Stores the segment's data
+         *
+         * @param position Offset (or index of concatenated segment)
+         * @param data     Data
+         *
+         * @throws UncheckedIOException If the data could not be written into the packet's file
+         */
+        private void store(int position, byte[] data) {
+            if (!spilled) {
+                receivedData.put(position, data);
+                return;
+            }
+
+            try {
+                if (channel == null) {
+                    file = File.createTempFile("time-stop-packet-", ".tmp", spillDirectory);
+                    file.deleteOnExit();
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, (long) position + buffer.position());
+                }
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Could not write segment of packet " + uuid + " into its data file", exception);
+            }
+        }
+
+        /**
+         * Removes the packet from the packets being received and releases its reserved bytes
+         */
+        private void remove() {
+            owner.packets.remove(uuid, this);
+            owner.release(this);
+        }
+
+        /**
+         * Cancels pending decryptions, drops the received data and deletes the temporary file (if any)
+         */
+        private void discard() {
+            discarded = true;
+            pendingDecryptions.forEach(pendingDecryption -> pendingDecryption.cancel(false));
+            receivedData.clear();
+            closeChannel();
+
+            if (file != null) {
+                if (!file.delete()) {
+                    Log.debug("Could not delete packet data file " + file.getAbsolutePath() + ", it will be deleted on exit");
+                }
+
+                file = null;
+            }
+
+            owner.release(this);
+        }
+
+        private void closeChannel() {
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                channel.close();
+            } catch (IOException exception) {
+                Log.debug("Could not close data file of packet " + uuid + ": " + exception);
+            }
+
+            channel = null;
+        }
+
+        private boolean isComplete() {
+            if (segmentCount > 0 && receivedSegments.size() < segmentCount) {
+                return false;
+            }
+
+            // Adaptive segments are not counted, the packet is complete once all of its bytes have been received (ranges never overlap)
+            return totalLength <= 0 || receivedLength == totalLength;
+        }
+
+        /**
+         * Creates the reassembled packet
+         *
+         * @return Packet
+         *
+         * @throws UncheckedIOException If the packet's file could not be mapped
+         */
+        private TimeStopPacket toPacket() {
+            TimeStopPacket packet = new TimeStopPacket();
+            packet.setUuid(uuid);
+            packet.setEncrypted(encrypted);
+            packet.setNonce(nonce);
+            packet.setKeyEpoch(keyEpoch);
+            packet.setReassembled(true);
+            packet.setDecrypted(encryptedIndividually);
+
+            if (spilled) {
+                try {
+                    // Mapping stays valid once the channel is closed
+                    packet.setDataBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, totalLength));
+                } catch (IOException exception) {
+                    discard();
+                    throw new UncheckedIOException("Could not map data file of packet " + uuid, exception);
+                }
+
+                closeChannel();
+                packet.setDataFile(file);
+                file = null;
+                return packet;
+            }
+
+            byte[] data = new byte[isConcatenated() ? receivedLength : totalLength];
+            int offset = 0;
+
+            for (Map.Entry<Integer, byte[]> entry : receivedData.entrySet()) {
+                byte[] segmentData = entry.getValue();
+                System.arraycopy(segmentData, 0, data, isConcatenated() ? offset : entry.getKey(), segmentData.length);
+                offset += segmentData.length;
+            }
+
+            receivedData.clear();
+            packet.setData(data);
+            return packet;
+        }
+    }
+
+    /**
+     * Sends segments of one packet. When the packet is encrypted segment by segment, segments are encrypted on the executor ahead of the one
+     * being sent and sent in order.
+     */
+    private class SegmentEmitter {
+
+        private final Connection connection;
+        private final boolean encrypt;
+        private final boolean udp;
+        private final Deque<Future<TimeStopPacketSegment>> pendingSegments = new ArrayDeque<>();
+        private Key symmetricKey;
+        private int keyEpoch;
+        private SymmetricCipherType cipherType;
+
+        private SegmentEmitter(Context context, TimeStopPacket timeStopPacket, boolean udp) {
+            this.connection = context.getConnection();
+            this.udp = udp;
+            this.encrypt = timeStopPacket.isEncryptSegments() && encryptionManager != null;
+
+            if (encrypt) {
+                SymmetricKeyRing.EpochKey epochKey = TimeStopPacketEncryptionTranslator.resolveSymmetricKeyRing(encryptionManager, context).getCurrent();
+                symmetricKey = epochKey.getKey();
+                keyEpoch = epochKey.getEpoch();
+                cipherType = TimeStopPacketEncryptionTranslator.resolveSymmetricCipherType(encryptionManager, context);
+            }
+        }
+
+        /**
+         * Sends the segment or queues it for encryption
+         *
+         * @param segment Segment
+         *
+         * @return False if the connection has been closed
+         */
+        private boolean emit(TimeStopPacketSegment segment) {
+            if (!encrypt) {
+                return send(segment);
+            }
+
+            pendingSegments.add(encryptionExecutor.submit(() -> encryptSegment(segment)));
+            return pendingSegments.size() < MAX_PENDING_ENCRYPTED_SEGMENTS || sendNext();
+        }
+
+        /**
+         * Sends all queued segments
+         *
+         * @return False if the connection has been closed
+         */
+        private boolean flush() {
+            while (!pendingSegments.isEmpty()) {
+                if (!sendNext()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean sendNext() {
+            TimeStopPacketSegment segment;
+
+            try {
+                segment = pendingSegments.poll().get();
+            } catch (ExecutionException exception) {
+                cancel();
+                throw new FailedToDecryptPacketException(connection);
+            } catch (InterruptedException exception) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for segment encryption", exception);
+            }
+
+            if (!send(segment)) {
+                cancel();
+                return false;
+            }
+
+            return true;
+        }
+
+        private boolean send(TimeStopPacketSegment segment) {
+            return udp ? sendUdpSegment(connection, segment) : sendSegment(connection, segment);
+        }
+
+        private TimeStopPacketSegment encryptSegment(TimeStopPacketSegment segment) throws GeneralSecurityException {
+            if (symmetricKey == null) {
+                throw new IllegalStateException("Symmetric key has not been generated/loaded yet");
+            }
+
+            byte[] nonce = encryptionManager.nextNonce(cipherType);
+            byte[] data = segment.getData();
+            byte[] encryptedData = new byte[EncryptionManager.getOutputSize(symmetricKey, cipherType, data.length, true)];
+            EncryptionManager.encryptDataUsingKey(ByteBuffer.wrap(data), ByteBuffer.wrap(encryptedData), symmetricKey, cipherType, nonce, segment.createAdditionalData());
+            segment.setIndividuallyEncryptedData(encryptedData, nonce, keyEpoch);
+            return segment;
+        }
+
+        private void cancel() {
+            pendingSegments.forEach(pendingSegment -> pendingSegment.cancel(false));
+            pendingSegments.clear();
+        }
+    }
+
+    /**
+     * Sends paced packets of a connection one after another on the sender executor, outside the translation. Packets are dropped when the
+     * connection closes. References the connection only while some packet is queued, so it can be garbage collected.
+     */
+    private class SegmentSender implements Runnable {
+
+        private final Queue<PendingPacket> pendingPackets = new ArrayDeque<>();
+        private boolean scheduled;
+
+        /**
+         * Queues the packet, it is sent once the packets queued before are sent
+         *
+         * @param connection Connection
+         * @param sender     Sends the packet's segments, returns false if the connection has been closed
+         */
+        private void submit(Connection connection, Supplier<Boolean> sender) {
+            synchronized (this) {
+                pendingPackets.add(new PendingPacket(connection, sender));
+
+                if (scheduled) {
+                    return;
+                }
+
+                scheduled = true;
+            }
+
+            try {
+                getSenderExecutor().execute(this);
+            } catch (RejectedExecutionException exception) {
+                synchronized (this) {
+                    pendingPackets.clear();
+                    scheduled = false;
+                }
+
+                Log.warn("Could not send packet to connection '" + connection + "', the translator has been closed");
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PendingPacket pendingPacket;
+
+                synchronized (this) {
+                    pendingPacket = pendingPackets.poll();
+
+                    if (pendingPacket == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+
+                if (!pendingPacket.send()) {
+                    synchronized (this) {
+                        pendingPackets.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packet waiting for its segments to be sent by {@link SegmentSender}
+     */
+    private static class PendingPacket {
+
+        private final Connection connection;
+        private final Supplier<Boolean> sender;
+
+        private PendingPacket(Connection connection, Supplier<Boolean> sender) {
+            this.connection = connection;
+            this.sender = sender;
+        }
+
+        /**
+         * Sends the packet's segments
+         *
+         * @return False if the connection has been closed
+         */
+        private boolean send() {
+            try {
+                return sender.get();
+            } catch (Exception exception) {
+                // Receiver would never complete the packet
+                Log.error("Exception occurred while sending segments to connection '" + connection + "'. The connection will be terminated.", exception);
+                connection.close();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Segments of a packet sent using UDP, kept for retransmission
+     */
+    private static class SentUdpPacket {
+
+        private final TimeStopPacketSegment[] segments;
+        private final TimeStopSequencedMessage stamp; // Null if the packet was not sent on a sequenced channel
+        private final long sentNanos = System.nanoTime();
+
+        private SentUdpPacket(int segmentCount, TimeStopSequencedMessage stamp) {
+            this.segments = new TimeStopPacketSegment[segmentCount];
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Segments the sender may emit before it receives more credits
+     */
+    private static class CreditWindow {
+
+        private final int window;
+        private int credits;
+
+        private CreditWindow(int window) {
+            this.window = window;
+            this.credits = window;
+        }
+
+        /**
+         * Takes a credit, waiting for it if there is none
+         *
+         * @param connection Connection
+         *
+         * @return False if the connection has been closed while waiting
+         */
+        private synchronized boolean acquire(Connection connection) {
+            while (credits <= 0) {
+                if (!connection.isConnected()) {
+                    return false;
+                }
+
+                try {
+                    wait(10);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for segment credits", exception);
+                }
+            }
+
+            credits--;
+            return true;
+        }
+
+        private synchronized void grant(int segments) {
+            credits = Math.min(window, credits + segments);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Estimates how fast the write buffer of a connection is being drained
+     */
+    private static class ThroughputEstimate {
+
+        private static final double SMOOTHING = 0.2;
+
+        private long lastSampleNanos;
+        private int lastPending = -1;
+        private int sentSinceLastSample;
+        private double bytesPerMilli;
+
+        private synchronized void sample(int pending) {
+            long now = System.nanoTime();
+
+            if (lastPending != -1) {
+                double elapsedMillis = (now - lastSampleNanos) / 1_000_000d;
+                int drained = lastPending + sentSinceLastSample - pending;
+
+                if (elapsedMillis >= 1 && drained > 0) {
+                    double currentBytesPerMilli = drained / elapsedMillis;
+                    bytesPerMilli = bytesPerMilli == 0 ? currentBytesPerMilli : bytesPerMilli + SMOOTHING * (currentBytesPerMilli - bytesPerMilli);
+                } else if (elapsedMillis < 1) {
+                    return; // Too short interval, keep accumulating
+                }
+            }
+
+            lastSampleNanos = now;
+            lastPending = pending;
+            sentSinceLastSample = 0;
+        }
+
+        private synchronized void sent(int bytes) {
+            sentSinceLastSample += bytes;
+        }
+
+        private synchronized double getBytesPerMilli() {
+            return bytesPerMilli;
+        }
     }
 }
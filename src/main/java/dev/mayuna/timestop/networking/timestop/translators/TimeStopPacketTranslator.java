@@ -2,16 +2,18 @@ package dev.mayuna.timestop.networking.timestop.translators;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.ByteBufferInput;
-import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryonet.FrameworkMessage;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
 import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
 
 import java.nio.ByteBuffer;
 
 public class TimeStopPacketTranslator extends TimeStopTranslator {
 
     public static int BUFFER_SIZE = 64_000_000; // 64MB
+    public static int INITIAL_BUFFER_SIZE = 4096; // 4KB
 
     /**
      * Creates a new TimeStopPacketTranslator with priority 100
@@ -31,24 +33,40 @@ public class TimeStopPacketTranslator extends TimeStopTranslator {
             TimeStopPacket timeStopPacket = (TimeStopPacket) object;
 
             Kryo kryo = context.getConnection().getEndPoint().getKryo();
-            ByteBuffer buffer = ByteBuffer.wrap(timeStopPacket.getData());
-            return kryo.readClassAndObject(new ByteBufferInput(buffer));
+            ByteBuffer buffer = timeStopPacket.getDataAsBuffer();
+
+            try {
+                return kryo.readClassAndObject(new ByteBufferInput(buffer));
+            } finally {
+                // Memory-mapped files and pooled buffers are not needed anymore
+                timeStopPacket.releaseData();
+            }
         }
 
         // Object => TimeStopPacket
         if (!(object instanceof TimeStopPacket) && context.getWay() == Context.Way.OUTBOUND) {
             Kryo kryo = context.getConnection().getEndPoint().getKryo();
 
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-            kryo.writeClassAndObject(new ByteBufferOutput(buffer), object);
+            // Grows up to BUFFER_SIZE, so small objects do not allocate the whole buffer
+            Output output = new Output(INITIAL_BUFFER_SIZE, BUFFER_SIZE);
+            kryo.writeClassAndObject(output, object);
 
-            ByteBuffer compactedBuffer = ByteBuffer.allocate(buffer.position());
-            buffer.flip();
-            compactedBuffer.put(buffer);
-            compactedBuffer.flip();
-            return new TimeStopPacket(compactedBuffer.array());
+            // Segments of encrypted packets do not have to be encrypted again
+            TimeStopPacket timeStopPacket = new TimeStopPacket(output.toBytes());
+            timeStopPacket.setPayloadEncrypted(object instanceof TimeStopPacketSegment && ((TimeStopPacketSegment) object).isEncrypted());
+            return timeStopPacket;
         }
 
         return object;
     }
+
+    /**
+     * Serialization depends only on the endpoint's Kryo, so broadcasted objects are serialized once
+     *
+     * @return True
+     */
+    @Override
+    public boolean isConnectionIndependent() {
+        return true;
+    }
 }
@@ -0,0 +1,138 @@
+package dev.mayuna.timestop.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers. Buffers are pooled in power-of-two size classes, so a released buffer can be reused for any smaller
+ * request of the same class. The number of pooled buffers in each size class and their total capacity are limited. Thread-safe.
+ */
+public class DirectBufferPool {
+
+    private static final int SIZE_CLASSES = 31;
+
+    private final int maxBuffersPerSizeClass;
+    private final long maxPooledBytes;
+    private final List<Queue<ByteBuffer>> pooledBuffers = new ArrayList<>(SIZE_CLASSES);
+    private final AtomicIntegerArray pooledBufferCounts = new AtomicIntegerArray(SIZE_CLASSES);
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * Creates a new pool
+     *
+     * @param maxBuffersPerSizeClass Maximum number of pooled buffers in each size class, buffers released above the limit are left to the
+     *                               garbage collector
+     * @param maxPooledBytes         Maximum total capacity of the pooled buffers, buffers released above the limit are left to the garbage
+     *                               collector
+     */
+    public DirectBufferPool(int maxBuffersPerSizeClass, long maxPooledBytes) {
+        this.maxBuffersPerSizeClass = maxBuffersPerSizeClass;
+        this.maxPooledBytes = maxPooledBytes;
+
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            pooledBuffers.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Acquires a direct buffer with at least the given capacity. The buffer's position is 0 and its limit is the requested capacity.
+     *
+     * @param capacity Capacity
+     *
+     * @return Direct buffer, must be released using {@link #release(ByteBuffer)} when not needed anymore
+     */
+    public ByteBuffer acquire(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity cannot be negative");
+        }
+
+        int sizeClass = getSizeClass(capacity);
+        ByteBuffer buffer = pooledBuffers.get(sizeClass).poll();
+
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << sizeClass);
+        } else {
+            pooledBufferCounts.decrementAndGet(sizeClass);
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Releases the buffer back to the pool. Buffer must not be used afterward.
+     *
+     * @param buffer Buffer acquired from this pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1) {
+            return;
+        }
+
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.capacity());
+
+        if (pooledBufferCounts.incrementAndGet(sizeClass) > maxBuffersPerSizeClass) {
+            pooledBufferCounts.decrementAndGet(sizeClass);
+            return;
+        }
+
+        if (pooledBytes.addAndGet(buffer.capacity()) > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            pooledBufferCounts.decrementAndGet(sizeClass);
+            return;
+        }
+
+        pooledBuffers.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * Removes all pooled buffers, leaving them to the garbage collector. Buffers acquired before may still be released to the pool.
+     */
+    public void clear() {
+        for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+            ByteBuffer buffer;
+
+            while ((buffer = pooledBuffers.get(sizeClass).poll()) != null) {
+                pooledBufferCounts.decrementAndGet(sizeClass);
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * Gets the total capacity of the pooled buffers
+     *
+     * @return Number of bytes
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Gets the size class (exponent of the smallest power of two that fits the capacity)
+     *
+     * @param capacity Capacity
+     *
+     * @return Size class
+     */
+    private static int getSizeClass(int capacity) {
+        if (capacity <= 1) {
+            return 0;
+        }
+
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+
+        if (sizeClass >= SIZE_CLASSES) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is too large to be pooled");
+        }
+
+        return sizeClass;
+    }
+}
@@ -0,0 +1,94 @@
+package dev.mayuna.timestop.utils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * HMAC-based key derivation function (RFC 5869) using HMAC-SHA256
+ */
+public class HKDF {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private HKDF() {
+    }
+
+    /**
+     * Derives a key of the given length from the input key material
+     *
+     * @param salt             Salt, may be null
+     * @param inputKeyMaterial Input key material (e.g. shared secret)
+     * @param info             Context information, may be null
+     * @param length           Length of the derived key in bytes
+     *
+     * @return Derived key
+     *
+     * @throws GeneralSecurityException If HMAC-SHA256 is not available
+     */
+    public static byte[] derive(byte[] salt, byte[] inputKeyMaterial, byte[] info, int length) throws GeneralSecurityException {
+        return expand(extract(salt, inputKeyMaterial), info, length);
+    }
+
+    /**
+     * Extracts a pseudorandom key from the input key material
+     *
+     * @param salt             Salt, may be null
+     * @param inputKeyMaterial Input key material
+     *
+     * @return Pseudorandom key
+     *
+     * @throws GeneralSecurityException If HMAC-SHA256 is not available
+     */
+    public static byte[] extract(byte[] salt, byte[] inputKeyMaterial) throws GeneralSecurityException {
+        if (salt == null || salt.length == 0) {
+            salt = new byte[HASH_LENGTH];
+        }
+
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(new SecretKeySpec(salt, ALGORITHM));
+        return mac.doFinal(inputKeyMaterial);
+    }
+
+    /**
+     * Expands the pseudorandom key into a key of the given length
+     *
+     * @param pseudorandomKey Pseudorandom key
+     * @param info            Context information, may be null
+     * @param length          Length of the derived key in bytes (at most 255 * 32)
+     *
+     * @return Derived key
+     *
+     * @throws GeneralSecurityException If HMAC-SHA256 is not available
+     */
+    public static byte[] expand(byte[] pseudorandomKey, byte[] info, int length) throws GeneralSecurityException {
+        if (length < 0 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Length must be between 0 and " + 255 * HASH_LENGTH);
+        }
+
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(new SecretKeySpec(pseudorandomKey, ALGORITHM));
+
+        byte[] output = new byte[length];
+        byte[] block = new byte[0];
+        int offset = 0;
+
+        for (int counter = 1; offset < length; counter++) {
+            mac.update(block);
+
+            if (info != null) {
+                mac.update(info);
+            }
+
+            mac.update((byte) counter);
+            block = mac.doFinal();
+
+            int copyLength = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, output, offset, copyLength);
+            offset += copyLength;
+        }
+
+        return output;
+    }
+}
@@ -0,0 +1,116 @@
+package dev.mayuna.timestop.utils;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of counting the tokens, the bucket keeps the time at which it will be full again (generic cell rate
+ * algorithm), so acquiring is a single compare-and-set. Thread-safe.
+ */
+@Getter
+public class TokenBucket {
+
+    private final double tokensPerSecond;
+    private final long burst;
+    private final double nanosPerToken;
+    private final long burstNanos;
+    private final AtomicLong fullAt; // Time at which all acquired tokens are refilled
+
+    /**
+     * Creates a new full token bucket
+     *
+     * @param tokensPerSecond Number of tokens refilled each second
+     * @param burst           Capacity of the bucket
+     */
+    public TokenBucket(double tokensPerSecond, long burst) {
+        if (tokensPerSecond <= 0) {
+            throw new IllegalArgumentException("Tokens per second must be positive");
+        }
+
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+
+        this.tokensPerSecond = tokensPerSecond;
+        this.burst = burst;
+        this.nanosPerToken = 1_000_000_000d / tokensPerSecond;
+        this.burstNanos = (long) (burst * nanosPerToken);
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Acquires the tokens if the bucket has enough of them
+     *
+     * @param tokens Number of tokens
+     *
+     * @return True if the tokens were acquired
+     */
+    public boolean tryAcquire(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+
+        while (true) {
+            long now = System.nanoTime();
+            long currentFullAt = fullAt.get();
+            long newFullAt = Math.max(currentFullAt - now, 0) + now + cost;
+
+            if (newFullAt - now > burstNanos) {
+                return false;
+            }
+
+            if (fullAt.compareAndSet(currentFullAt, newFullAt)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Acquires the tokens even if the bucket does not have enough of them, the missing tokens are borrowed from the future refills
+     *
+     * @param tokens Number of tokens
+     *
+     * @return Nanoseconds until the borrowed tokens are refilled (0 if the bucket had enough tokens)
+     */
+    public long reserve(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+
+        while (true) {
+            long now = System.nanoTime();
+            long currentFullAt = fullAt.get();
+            long newFullAt = Math.max(currentFullAt - now, 0) + now + cost;
+
+            if (fullAt.compareAndSet(currentFullAt, newFullAt)) {
+                return Math.max(newFullAt - now - burstNanos, 0);
+            }
+        }
+    }
+
+    /**
+     * Returns the tokens acquired for something that has not happened after all (e.g. a dropped message), so they do not delay the following
+     * acquisitions
+     *
+     * @param tokens Number of tokens
+     */
+    public void release(long tokens) {
+        long cost = (long) (tokens * nanosPerToken);
+
+        while (true) {
+            long now = System.nanoTime();
+            long currentFullAt = fullAt.get();
+
+            // Already full buckets stay full
+            if (fullAt.compareAndSet(currentFullAt, Math.max(currentFullAt - cost, now))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the time until the borrowed tokens are refilled, see {@link #reserve(long)}
+     *
+     * @return Nanoseconds until the borrowed tokens are refilled (0 if no tokens are borrowed)
+     */
+    public long getDelay() {
+        return Math.max(fullAt.get() - System.nanoTime() - burstNanos, 0);
+    }
+}
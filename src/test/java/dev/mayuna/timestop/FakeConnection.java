@@ -0,0 +1,44 @@
+package dev.mayuna.timestop;
+
+import com.esotericsoftware.kryonet.Connection;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Connection without a socket for tests. Sent objects are recorded instead of being written.
+ */
+public class FakeConnection extends Connection {
+
+    public final List<Object> sentTCP = new CopyOnWriteArrayList<>();
+    public final List<Object> sentUDP = new CopyOnWriteArrayList<>();
+    public volatile int pending;
+    public volatile boolean closed;
+
+    @Override
+    public int sendTCP(Object object) {
+        sentTCP.add(object);
+        return 1;
+    }
+
+    @Override
+    public int sendUDP(Object object) {
+        sentUDP.add(object);
+        return 1;
+    }
+
+    @Override
+    public int getTcpWriteBufferSize() {
+        return pending;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
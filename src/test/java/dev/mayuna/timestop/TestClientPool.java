@@ -0,0 +1,144 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopClientPool;
+import dev.mayuna.timestop.networking.base.TimeStopServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.timestop.Packets;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestClientPool {
+
+    private static final String HOST = "127.0.0.1";
+
+    private static TimeStopServer server;
+
+    @BeforeAll
+    public static void setup() {
+        server = new TimeStopServer(new EndpointConfig());
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.CLIENT_POOL_PORT));
+        server.start();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    @BeforeEach
+    public void reset() {
+        server.getListenerManager().getListeners().clear();
+    }
+
+    @Test
+    public void sendAndWaitForResponses() {
+        Set<Integer> connectionIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger responses = new AtomicInteger();
+
+        server.getListenerManager().registerListener(new TimeStopListener<Packets.ProtocolVersionExchange>(Packets.ProtocolVersionExchange.class, 0) {
+            @Override
+            public void process(@NonNull Context context, Packets.@NonNull ProtocolVersionExchange message) {
+                connectionIds.add(context.getConnection().getID());
+                context.getConnection().sendTCP(new Packets.ProtocolVersionExchange(message.getProtocolVersion()).withResponseTo(message));
+            }
+        });
+
+        TimeStopClientPool pool = new TimeStopClientPool(3, () -> new TimeStopClient(new EndpointConfig())).withStrategy(TimeStopClientPool.Strategy.ROUND_ROBIN);
+
+        try {
+            pool.start();
+            assertDoesNotThrow(() -> pool.connect(5000, HOST, TestNetworkConstants.CLIENT_POOL_PORT));
+
+            for (int i = 0; i < 9; i++) {
+                int protocolVersion = i;
+
+                pool.sendTCPWithResponse(new Packets.ProtocolVersionExchange(protocolVersion), Packets.ProtocolVersionExchange.class, response -> {
+                    // Response is correlated with its request by the message id
+                    assertEquals(protocolVersion, response.getProtocolVersion());
+
+                    synchronized (responses) {
+                        responses.incrementAndGet();
+                        responses.notifyAll();
+                    }
+                });
+            }
+
+            synchronized (responses) {
+                long deadline = System.currentTimeMillis() + 5000;
+
+                while (responses.get() < 9 && System.currentTimeMillis() < deadline) {
+                    assertDoesNotThrow(() -> responses.wait(100));
+                }
+            }
+
+            assertEquals(9, responses.get());
+            assertEquals(3, connectionIds.size());
+            assertEquals(0, pool.getInFlightCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void inFlightCountIsReleasedOnDisconnect() {
+        // Server never responds
+        TimeStopClientPool pool = new TimeStopClientPool(2, () -> new TimeStopClient(new EndpointConfig()));
+
+        try {
+            pool.start();
+            assertDoesNotThrow(() -> pool.connect(5000, HOST, TestNetworkConstants.CLIENT_POOL_PORT));
+
+            for (int i = 0; i < 4; i++) {
+                pool.sendTCPWithResponse(new Packets.ProtocolVersionExchange(i), Packets.ProtocolVersionExchange.class, response -> fail("Unexpected response"));
+            }
+
+            assertEquals(4, pool.getInFlightCount());
+        } finally {
+            pool.close();
+        }
+
+        assertEquals(0, pool.getInFlightCount());
+    }
+
+    @Test
+    public void inFlightCountIsReleasedOnTimeout() {
+        AtomicInteger timeouts = new AtomicInteger();
+        TimeStopClientPool pool = new TimeStopClientPool(2, () -> new TimeStopClient(new EndpointConfig()));
+
+        try {
+            pool.start();
+            assertDoesNotThrow(() -> pool.connect(5000, HOST, TestNetworkConstants.CLIENT_POOL_PORT));
+
+            pool.sendTCPWithResponse(new Packets.ProtocolVersionExchange(1), Packets.ProtocolVersionExchange.class, 100, response -> fail("Unexpected response"), () -> {
+                synchronized (timeouts) {
+                    timeouts.incrementAndGet();
+                    timeouts.notifyAll();
+                }
+            });
+
+            synchronized (timeouts) {
+                long deadline = System.currentTimeMillis() + 5000;
+
+                while (timeouts.get() < 1 && System.currentTimeMillis() < deadline) {
+                    assertDoesNotThrow(() -> timeouts.wait(100));
+                }
+            }
+
+            assertEquals(1, timeouts.get());
+            assertEquals(0, pool.getInFlightCount());
+        } finally {
+            pool.close();
+        }
+    }
+}
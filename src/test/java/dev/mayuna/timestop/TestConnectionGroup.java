@@ -0,0 +1,104 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.TimeStopConnection;
+import dev.mayuna.timestop.networking.base.TimeStopConnectionGroup;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslatorManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConnectionGroup {
+
+    /**
+     * Creates a connection whose translator counts the messages written to it (and drops them, so nothing is sent)
+     *
+     * @param written Counter
+     *
+     * @return Connection
+     */
+    private static TimeStopConnection createConnection(AtomicInteger written) {
+        TimeStopTranslatorManager translatorManager = new TimeStopTranslatorManager(false);
+
+        translatorManager.registerTranslator(new TimeStopTranslator(0) {
+            @Override
+            public Object translate(Context context, Object object) {
+                written.incrementAndGet();
+                return null;
+            }
+        });
+
+        return new TimeStopConnection(null, translatorManager);
+    }
+
+    @Test
+    public void testPendingLimitWithConcurrentSenders() throws InterruptedException {
+        AtomicInteger written = new AtomicInteger();
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        TimeStopConnectionGroup group = new TimeStopConnectionGroup("group", tasks::add).withMaxPendingMessages(10);
+        group.add(createConnection(written));
+
+        ExecutorService senders = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int i = 0; i < 8; i++) {
+            senders.execute(() -> {
+                assertDoesNotThrow(() -> start.await());
+
+                for (int j = 0; j < 1000; j++) {
+                    group.sendTCP(j);
+                }
+            });
+        }
+
+        start.countDown();
+        senders.shutdown();
+        assertTrue(senders.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Nothing was written yet, so only the limit could have been queued
+        Runnable task;
+
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+
+        assertEquals(10, written.get());
+    }
+
+    @Test
+    public void testRejectedWritesAreScheduledAgain() {
+        AtomicInteger written = new AtomicInteger();
+        AtomicBoolean rejecting = new AtomicBoolean(true);
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        TimeStopConnectionGroup group = new TimeStopConnectionGroup("group", runnable -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException();
+            }
+
+            tasks.add(runnable);
+        });
+        group.add(createConnection(written));
+
+        group.sendTCP("first");
+        rejecting.set(false);
+        group.sendTCP("second");
+
+        Runnable task;
+
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+
+        assertEquals(2, written.get());
+    }
+}
@@ -0,0 +1,137 @@
+package dev.mayuna.timestop;
+
+import com.esotericsoftware.kryonet.Connection;
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopFileTransferTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileTransferResume {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int SEGMENT_SIZE = 16 * 1024;
+    private static final int SEGMENT_COUNT = 64;
+    private static final int SEGMENTS_BEFORE_DISCONNECT = 16;
+
+    private TimeStopServer server;
+    private TimeStopClient client;
+
+    @BeforeEach
+    public void setup() {
+        server = new TimeStopServer(new EndpointConfig());
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.FILE_TRANSFER_PORT));
+        server.start();
+
+        client = new TimeStopClient(new EndpointConfig());
+        client.start();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.FILE_TRANSFER_PORT));
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+    }
+
+    @AfterEach
+    public void teardown() {
+        assertDoesNotThrow(() -> client.close());
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    @Test
+    public void testTransferIsResumedAfterReconnect(@TempDir File directory) throws IOException {
+        byte[] data = new byte[SEGMENT_SIZE * SEGMENT_COUNT - 100];
+        new Random(0).nextBytes(data);
+        File sourceFile = new File(directory, "source.bin");
+        Files.write(sourceFile.toPath(), data);
+        File targetDirectory = new File(directory, "target");
+        assertTrue(targetDirectory.mkdir());
+
+        TimeStopFileTransferTranslator clientTranslator = new TimeStopFileTransferTranslator(directory, SEGMENT_SIZE);
+        client.getTranslatorManager().registerTranslator(clientTranslator);
+        server.getTranslatorManager().registerTranslator(new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE));
+
+        AtomicInteger segmentsBeforeDisconnect = new AtomicInteger();
+        AtomicInteger resumedSegments = new AtomicInteger();
+        AtomicReference<Connection> firstConnection = new AtomicReference<>();
+
+        // Passes the first segments to the file transfer translator and then closes the connection, dropping the rest
+        server.getTranslatorManager().registerTranslator(new TimeStopTranslator(60) {
+            @Override
+            public Object translate(Context context, Object object) {
+                if (context.getWay() != Context.Way.INBOUND || !(object instanceof TimeStopFileTransferSegment)) {
+                    return object;
+                }
+
+                firstConnection.compareAndSet(null, context.getConnection());
+
+                if (firstConnection.get() != context.getConnection()) {
+                    resumedSegments.incrementAndGet();
+                    return object;
+                }
+
+                if (segmentsBeforeDisconnect.get() >= SEGMENTS_BEFORE_DISCONNECT) {
+                    context.getConnection().close();
+                    return null;
+                }
+
+                segmentsBeforeDisconnect.incrementAndGet();
+                return object;
+            }
+        });
+
+        AtomicReference<File> receivedFile = new AtomicReference<>();
+
+        server.getListenerManager().registerListener(new TimeStopListener<TimeStopFileTransfer>(TimeStopFileTransfer.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull TimeStopFileTransfer message) {
+                receivedFile.set(message.getFile());
+            }
+        });
+
+        TimeStopFileTransfer transfer = clientTranslator.sendFile(client, sourceFile);
+
+        await(() -> !client.isConnected(), 5000);
+        assertFalse(clientTranslator.isTransferComplete(transfer));
+
+        // Lets the sender notice the closed connection before the client reconnects
+        assertDoesNotThrow(() -> Thread.sleep(200));
+        assertDoesNotThrow(() -> client.reconnect(5000));
+
+        clientTranslator.resumeFile(client, transfer);
+
+        await(() -> receivedFile.get() != null && clientTranslator.isTransferComplete(transfer), 10_000);
+        assertArrayEquals(data, Files.readAllBytes(receivedFile.get().toPath()));
+
+        // Segments written before the disconnect were not requested again
+        assertEquals(SEGMENTS_BEFORE_DISCONNECT, segmentsBeforeDisconnect.get());
+        assertTrue(resumedSegments.get() <= SEGMENT_COUNT - SEGMENTS_BEFORE_DISCONNECT, "Resumed " + resumedSegments.get() + " segments");
+    }
+
+    private static void await(BooleanSupplier condition, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            assertDoesNotThrow(() -> Thread.sleep(10));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.exceptions.FileTransferException;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransferSegment;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopFileTransferTranslator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestFileTransferTranslator {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private FakeConnection connection;
+    private TimeStopTranslator.Context context;
+    private File targetDirectory;
+    private File sourceFile;
+    private byte[] sourceData;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        connection = new FakeConnection();
+        context = new TimeStopTranslator.Context(connection, TimeStopTranslator.Context.Way.INBOUND);
+        targetDirectory = Files.createTempDirectory("time-stop-target").toFile();
+        targetDirectory.deleteOnExit();
+
+        sourceData = new byte[SEGMENT_SIZE * 2 + 100];
+        new Random(0).nextBytes(sourceData);
+        sourceFile = File.createTempFile("time-stop-source", ".bin");
+        sourceFile.deleteOnExit();
+        Files.write(sourceFile.toPath(), sourceData);
+    }
+
+    @Test
+    public void testFileIsMovedToTargetWhenComplete() throws IOException {
+        TimeStopFileTransferTranslator translator = new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE);
+        TimeStopFileTransfer transfer = new TimeStopFileTransfer(sourceFile, SEGMENT_SIZE);
+        File targetFile = new File(targetDirectory, sourceFile.getName());
+        File partFile = new File(targetFile.getPath() + TimeStopFileTransferTranslator.PART_FILE_EXTENSION);
+
+        assertNull(translator.translate(context, transfer));
+        assertTrue(partFile.exists());
+        assertFalse(targetFile.exists());
+
+        Object received = null;
+
+        for (int i = 0; i < transfer.getSegmentCount(); i++) {
+            received = translator.translate(context, createSegment(transfer, i));
+        }
+
+        assertSame(transfer, received);
+        assertArrayEquals(sourceData, Files.readAllBytes(targetFile.toPath()));
+        assertFalse(partFile.exists());
+        assertFalse(new File(targetFile.getPath() + TimeStopFileTransferTranslator.PROGRESS_FILE_EXTENSION).exists());
+        targetFile.deleteOnExit();
+    }
+
+    @Test
+    public void testExistingFileIsNotOverwritten() throws IOException {
+        TimeStopFileTransferTranslator translator = new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE);
+        File targetFile = new File(targetDirectory, sourceFile.getName());
+        targetFile.deleteOnExit();
+        Files.write(targetFile.toPath(), new byte[]{1, 2, 3});
+
+        assertThrows(FileTransferException.class, () -> translator.translate(context, new TimeStopFileTransfer(sourceFile, SEGMENT_SIZE)));
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(targetFile.toPath()));
+    }
+
+    @Test
+    public void testTooBigFileIsRejected() {
+        TimeStopFileTransferTranslator translator = new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE).withMaxFileSize(SEGMENT_SIZE);
+        File partFile = new File(targetDirectory, sourceFile.getName() + TimeStopFileTransferTranslator.PART_FILE_EXTENSION);
+
+        assertThrows(FileTransferException.class, () -> translator.translate(context, new TimeStopFileTransfer(sourceFile, SEGMENT_SIZE)));
+        assertFalse(partFile.exists());
+    }
+
+    @Test
+    public void testInvalidSegmentsAreIgnored() throws IOException {
+        TimeStopFileTransferTranslator translator = new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE);
+        TimeStopFileTransfer transfer = new TimeStopFileTransfer(sourceFile, SEGMENT_SIZE);
+        File progressFile = new File(targetDirectory, sourceFile.getName() + TimeStopFileTransferTranslator.PROGRESS_FILE_EXTENSION);
+
+        translator.translate(context, transfer);
+        long progressFileSize = progressFile.length();
+
+        // Index out of the segment count and data at a wrong offset
+        assertNull(translator.translate(context, new TimeStopFileTransferSegment(transfer.getUuid(), new byte[SEGMENT_SIZE], 0, 1_000_000)));
+        assertNull(translator.translate(context, new TimeStopFileTransferSegment(transfer.getUuid(), new byte[SEGMENT_SIZE], 5, 0)));
+        assertEquals(progressFileSize, progressFile.length());
+
+        Object received = null;
+
+        for (int i = 0; i < transfer.getSegmentCount(); i++) {
+            received = translator.translate(context, createSegment(transfer, i));
+        }
+
+        assertSame(transfer, received);
+        transfer.getFile().deleteOnExit();
+    }
+
+    @Test
+    public void testTinySegmentsAreRejected() {
+        TimeStopFileTransferTranslator translator = new TimeStopFileTransferTranslator(targetDirectory, SEGMENT_SIZE);
+        File progressFile = new File(targetDirectory, sourceFile.getName() + TimeStopFileTransferTranslator.PROGRESS_FILE_EXTENSION);
+
+        // Announced by the peer, would make the receiver allocate a byte and a bit per byte of the file
+        assertThrows(FileTransferException.class, () -> translator.translate(context, new TimeStopFileTransfer(sourceFile, 1)));
+        assertFalse(progressFile.exists());
+    }
+
+    private TimeStopFileTransferSegment createSegment(TimeStopFileTransfer transfer, int segmentIndex) {
+        int offset = (int) transfer.getSegmentOffset(segmentIndex);
+        byte[] data = new byte[transfer.getSegmentLength(segmentIndex)];
+        System.arraycopy(sourceData, offset, data, 0, data.length);
+        return new TimeStopFileTransferSegment(transfer.getUuid(), data, offset, segmentIndex);
+    }
+}
@@ -0,0 +1,236 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.config.EncryptionConfig;
+import dev.mayuna.timestop.config.KeyExchangeType;
+import dev.mayuna.timestop.managers.EncryptionManager;
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopConnection;
+import dev.mayuna.timestop.networking.base.TimeStopServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.timestop.Packets;
+import dev.mayuna.timestop.networking.timestop.TimeStopHandshake;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketEncryptionTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHandshake {
+
+    private static final String HOST = "127.0.0.1";
+
+    private TimeStopServer server;
+    private TimeStopClient client;
+
+    @AfterEach
+    public void teardown() {
+        assertDoesNotThrow(() -> client.close());
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    private void connect(int serverProtocolVersion, int clientProtocolVersion) {
+        EncryptionConfig encryptionConfig = new EncryptionConfig();
+        encryptionConfig.setKeyExchangeType(KeyExchangeType.ECDH_P256);
+
+        server = new TimeStopServer(new EndpointConfig()).withHandshake(new TimeStopHandshake(new EncryptionManager(encryptionConfig), serverProtocolVersion).withSessionTickets(60_000));
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.DEFAULT_PORT));
+        server.start();
+
+        client = new TimeStopClient(new EndpointConfig()).withHandshake(new TimeStopHandshake(new EncryptionManager(encryptionConfig), clientProtocolVersion));
+        client.start();
+    }
+
+    @Test
+    public void testHandshakeQueuesMessages() throws Exception {
+        List<UUID> uuidsToSend = new CopyOnWriteArrayList<>();
+        List<UUID> receivedUuids = new CopyOnWriteArrayList<>();
+
+        connect(1, 1);
+
+        server.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                receivedUuids.add(message);
+
+                synchronized (receivedUuids) {
+                    receivedUuids.notifyAll();
+                }
+            }
+        });
+
+        // Sent before connecting, queued until the handshake completes
+        for (int i = 0; i < 10; i++) {
+            UUID uuid = UUID.randomUUID();
+            uuidsToSend.add(uuid);
+            client.sendTCP(uuid);
+        }
+
+        TimeStopHandshake.State handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+        handshakeState.getCompletion().get(5, TimeUnit.SECONDS);
+
+        assertNotNull(client.getSymmetricKey());
+        assertNotNull(client.getSymmetricCipherType());
+
+        synchronized (receivedUuids) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (receivedUuids.size() < uuidsToSend.size() && System.currentTimeMillis() < deadline) {
+                receivedUuids.wait(100);
+            }
+        }
+
+        assertEquals(uuidsToSend, receivedUuids);
+    }
+
+    @Test
+    public void testHandshakeRejectsProtocolVersion() {
+        connect(2, 1);
+
+        // Client closes the connection after the rejection, which replaces the state
+        TimeStopHandshake.State handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+
+        assertThrows(ExecutionException.class, () -> handshakeState.getCompletion().get(5, TimeUnit.SECONDS));
+        assertNull(client.getSymmetricKey());
+    }
+
+    @Test
+    public void testRejectedConnectionIsClosedByServer() throws InterruptedException {
+        connect(2, 1);
+
+        // Client without a handshake, it does not close the connection itself
+        client.close();
+        client = new TimeStopClient(new EndpointConfig());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.start();
+
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+        client.sendTCP(new Packets.HandshakeRequest(1, KeyExchangeType.ECDH_P256.name(), new byte[0], new String[0]));
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (client.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertFalse(client.isConnected());
+    }
+
+    @Test
+    public void testPlaintextAfterHandshakeClosesConnection() throws Exception {
+        List<UUID> receivedUuids = new CopyOnWriteArrayList<>();
+
+        connect(1, 1);
+
+        server.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                receivedUuids.add(message);
+            }
+        });
+
+        TimeStopHandshake.State handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+        handshakeState.getCompletion().get(5, TimeUnit.SECONDS);
+
+        // Client stops encrypting, as if the packet has been injected by someone without the session key
+        synchronized (client.getTranslatorManager().getTranslators()) {
+            client.getTranslatorManager().getTranslators().removeIf(translator -> translator instanceof TimeStopPacketEncryptionTranslator.Encrypt);
+        }
+
+        client.sendTCP(UUID.randomUUID());
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (client.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertFalse(client.isConnected());
+        assertTrue(receivedUuids.isEmpty());
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        connect(1, 1);
+
+        TimeStopHandshake.State handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+        handshakeState.getCompletion().get(5, TimeUnit.SECONDS);
+
+        assertFalse(handshakeState.isResumed());
+        assertNotNull(client.getHandshake().getSessionTicket());
+        Key firstSessionKey = client.getSymmetricKey();
+
+        client.close();
+
+        handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.reconnect(5000));
+        handshakeState.getCompletion().get(5, TimeUnit.SECONDS);
+
+        assertTrue(handshakeState.isResumed());
+        assertFalse(Arrays.equals(firstSessionKey.getEncoded(), client.getSymmetricKey().getEncoded()));
+    }
+
+    @Test
+    public void testKeyRotation() throws Exception {
+        List<UUID> uuidsToSend = new CopyOnWriteArrayList<>();
+        List<UUID> receivedUuids = new CopyOnWriteArrayList<>();
+
+        connect(1, 1);
+
+        server.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                receivedUuids.add(message);
+
+                synchronized (receivedUuids) {
+                    receivedUuids.notifyAll();
+                }
+            }
+        });
+
+        TimeStopHandshake.State handshakeState = client.getHandshakeState();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.DEFAULT_PORT));
+        handshakeState.getCompletion().get(5, TimeUnit.SECONDS);
+
+        TimeStopConnection connection = (TimeStopConnection) server.getConnections()[0];
+        Key firstSessionKey = client.getSymmetricKey();
+
+        // Traffic continues while the key is being rotated
+        for (int i = 0; i < 100; i++) {
+            if (i == 50) {
+                assertEquals(1, server.getHandshake().rotateSymmetricKey(connection));
+            }
+
+            UUID uuid = UUID.randomUUID();
+            uuidsToSend.add(uuid);
+            client.sendTCP(uuid);
+        }
+
+        synchronized (receivedUuids) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (receivedUuids.size() < uuidsToSend.size() && System.currentTimeMillis() < deadline) {
+                receivedUuids.wait(100);
+            }
+        }
+
+        assertEquals(uuidsToSend, receivedUuids);
+        assertEquals(1, client.getSymmetricKeyRing().getCurrentEpoch());
+        assertFalse(Arrays.equals(firstSessionKey.getEncoded(), client.getSymmetricKey().getEncoded()));
+        assertArrayEquals(connection.getSymmetricKey().getEncoded(), client.getSymmetricKey().getEncoded());
+    }
+}
@@ -7,4 +7,29 @@ public class TestNetworkConstants {
      */
     public static final int DEFAULT_PORT = 40088;
 
+    /**
+     * Port of the first shard of sharded server
+     */
+    public static final int SHARDED_BASE_PORT = 40090;
+
+    /**
+     * TCP and UDP port for the UDP segmentation tests
+     */
+    public static final int UDP_PORT = 40094;
+
+    /**
+     * Port for the client pool tests
+     */
+    public static final int CLIENT_POOL_PORT = 40096;
+
+    /**
+     * Port for the segment flow control tests
+     */
+    public static final int SEGMENT_FLOW_PORT = 40098;
+
+    /**
+     * Port for the file transfer resume tests
+     */
+    public static final int FILE_TRANSFER_PORT = 40100;
+
 }
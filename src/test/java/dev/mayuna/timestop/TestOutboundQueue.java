@@ -0,0 +1,150 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.TimeStopMessagePriorities;
+import dev.mayuna.timestop.networking.base.TimeStopMessagePriority;
+import dev.mayuna.timestop.networking.base.TimeStopOutboundQueue;
+import dev.mayuna.timestop.networking.timestop.Packets;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestOutboundQueue {
+
+    @Test
+    public void testWatermarks() {
+        FakeConnection connection = new FakeConnection();
+        List<Object> written = new ArrayList<>();
+        List<Boolean> writabilityChanges = new ArrayList<>();
+
+        TimeStopOutboundQueue outboundQueue = new TimeStopOutboundQueue(connection, object -> {
+            written.add(object);
+            connection.pending += 100;
+            return 100;
+        }, 300, 100);
+        outboundQueue.addWritabilityListener((ignored, writable) -> writabilityChanges.add(writable));
+
+        // Below the high watermark, messages are written directly
+        for (int i = 0; i < 3; i++) {
+            assertEquals(100, outboundQueue.write(i).getNow(-1));
+        }
+
+        assertEquals(3, written.size());
+        assertFalse(outboundQueue.isWritable());
+
+        // Above the high watermark, messages are queued
+        CompletableFuture<Integer> queued = outboundQueue.write(3);
+        outboundQueue.write(4);
+        assertFalse(queued.isDone());
+        assertEquals(2, outboundQueue.size());
+        assertEquals(3, written.size());
+
+        // Buffer drained partially, only one message fits
+        connection.pending = 200;
+        outboundQueue.drain();
+        assertEquals(100, queued.getNow(-1));
+        assertEquals(1, outboundQueue.size());
+        assertFalse(outboundQueue.isWritable());
+
+        // Buffer drained below the low watermark
+        connection.pending = 0;
+        outboundQueue.drain();
+        assertEquals(0, outboundQueue.size());
+        assertEquals(5, written.size());
+        assertEquals(4, written.get(4));
+        assertTrue(outboundQueue.isWritable()); // Queue is empty and 100 bytes are pending
+
+        assertEquals(2, writabilityChanges.size());
+        assertFalse(writabilityChanges.get(0));
+        assertTrue(writabilityChanges.get(1));
+    }
+
+    @Test
+    public void testClear() {
+        FakeConnection connection = new FakeConnection();
+        connection.pending = 1000;
+
+        TimeStopOutboundQueue outboundQueue = new TimeStopOutboundQueue(connection, object -> {
+            fail("Message should not be written");
+            return 0;
+        }, 300, 100);
+
+        CompletableFuture<Integer> queued = outboundQueue.write("message");
+        assertFalse(queued.isDone());
+
+        outboundQueue.clear();
+        assertEquals(0, queued.getNow(-1));
+        assertTrue(outboundQueue.isWritable());
+    }
+
+    @Test
+    public void testStrictPriority() {
+        FakeConnection connection = new FakeConnection();
+        connection.pending = 1000;
+        List<Object> written = new ArrayList<>();
+
+        TimeStopOutboundQueue outboundQueue = new TimeStopOutboundQueue(connection, object -> {
+            written.add(object);
+            return 1;
+        }, 300, 100);
+
+        outboundQueue.write("bulk-1", TimeStopMessagePriority.BULK);
+        outboundQueue.write("bulk-2", TimeStopMessagePriority.BULK);
+        outboundQueue.write("normal", TimeStopMessagePriority.NORMAL);
+        outboundQueue.write("urgent", TimeStopMessagePriority.URGENT);
+        assertEquals(2, outboundQueue.size(TimeStopMessagePriority.BULK));
+
+        connection.pending = 0;
+        outboundQueue.drain();
+        assertEquals(Arrays.asList("urgent", "normal", "bulk-1", "bulk-2"), written);
+
+        // Urgent message skips queued bulk messages even when it is written directly
+        connection.pending = 1000;
+        outboundQueue.write("bulk-3", TimeStopMessagePriority.BULK);
+        connection.pending = 0;
+        outboundQueue.write("urgent-2", TimeStopMessagePriority.URGENT);
+        assertEquals("urgent-2", written.get(written.size() - 1));
+        assertEquals(1, outboundQueue.size());
+    }
+
+    @Test
+    public void testWeightedPriority() {
+        FakeConnection connection = new FakeConnection();
+        connection.pending = 1000;
+        List<Object> written = new ArrayList<>();
+
+        TimeStopMessagePriorities messagePriorities = new TimeStopMessagePriorities().withWeights(2, 2, 2, 1);
+        TimeStopOutboundQueue outboundQueue = new TimeStopOutboundQueue(connection, object -> {
+            written.add(object);
+            return 1;
+        }, 300, 100, messagePriorities);
+
+        for (int i = 0; i < 4; i++) {
+            outboundQueue.write("urgent", TimeStopMessagePriority.URGENT);
+            outboundQueue.write("bulk", TimeStopMessagePriority.BULK);
+        }
+
+        connection.pending = 0;
+        outboundQueue.drain();
+
+        // Bulk messages are not starved
+        assertEquals(Arrays.asList("urgent", "urgent", "bulk", "urgent", "urgent", "bulk", "bulk", "bulk"), written);
+    }
+
+    @Test
+    public void testDeclaredPriorities() {
+        TimeStopMessagePriorities messagePriorities = new TimeStopMessagePriorities().withPriority(CharSequence.class, TimeStopMessagePriority.HIGH);
+
+        assertEquals(TimeStopMessagePriority.HIGH, messagePriorities.resolve("message", null));
+        assertEquals(TimeStopMessagePriority.BULK, messagePriorities.resolve("message", TimeStopMessagePriority.BULK));
+        assertEquals(TimeStopMessagePriority.NORMAL, messagePriorities.resolve(1, null));
+        assertEquals(TimeStopMessagePriority.URGENT, messagePriorities.resolve(new Packets.HandshakeRequest(), null));
+
+        // Messages sent during translation inherit the priority
+        assertEquals(TimeStopMessagePriority.BULK, TimeStopMessagePriorities.runWithPriority(TimeStopMessagePriority.BULK, () -> messagePriorities.resolve("segment", null)));
+    }
+}
@@ -0,0 +1,226 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.exceptions.InvalidPacketSegmentException;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketSegmentTranslator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPacketSegmentTranslator {
+
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int SEGMENT_DATA_SIZE = SEGMENT_SIZE - TimeStopPacketSegmentTranslator.SEGMENT_OVERHEAD;
+
+    private TimeStopTranslator.Context context;
+
+    @BeforeEach
+    public void setup() {
+        context = new TimeStopTranslator.Context(new FakeConnection(), TimeStopTranslator.Context.Way.INBOUND);
+    }
+
+    @Test
+    public void testSegmentsAreReassembled() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 3 + 100);
+        TimeStopPacketSegment[] segments = createSegments(packet, SEGMENT_DATA_SIZE);
+
+        assertNull(translator.translate(context, segments[0]));
+        assertNull(translator.translate(context, segments[2]));
+        assertNull(translator.translate(context, segments[1]));
+
+        Object received = translator.translate(context, segments[3]);
+
+        assertInstanceOf(TimeStopPacket.class, received);
+        assertEquals(packet.getUuid(), ((TimeStopPacket) received).getUuid());
+        assertArrayEquals(packet.getData(), ((TimeStopPacket) received).getData());
+    }
+
+    @Test
+    public void testDuplicatedSegmentsAreIgnored() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 3);
+        TimeStopPacketSegment[] segments = createSegments(packet, SEGMENT_DATA_SIZE);
+
+        assertNull(translator.translate(context, segments[0]));
+        assertNull(translator.translate(context, segments[0]));
+        assertNull(translator.translate(context, segments[1]));
+        assertNull(translator.translate(context, segments[1]));
+
+        Object received = translator.translate(context, segments[2]);
+
+        assertInstanceOf(TimeStopPacket.class, received);
+        assertArrayEquals(packet.getData(), ((TimeStopPacket) received).getData());
+    }
+
+    @Test
+    public void testOverlappingSegmentsAreRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 2);
+        byte[] firstHalf = Arrays.copyOf(packet.getData(), SEGMENT_DATA_SIZE);
+
+        // Adaptive segments are not counted, the same data sent again under another index would complete the packet with a hole
+        assertNull(translator.translate(context, new TimeStopPacketSegment(packet, firstHalf, 0, 0, 0)));
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, new TimeStopPacketSegment(packet, firstHalf, 1, 0, 0)));
+    }
+
+    @Test
+    public void testTooBigPacketIsRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withMaxPacketSize(SEGMENT_DATA_SIZE * 2);
+        TimeStopPacketSegment[] segments = createSegments(createPacket(SEGMENT_DATA_SIZE * 3), SEGMENT_DATA_SIZE);
+
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, segments[0]));
+    }
+
+    @Test
+    public void testTotalLengthNotMatchingSegmentCountIsRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket packet = createPacket(SEGMENT_SIZE * 8);
+        TimeStopPacketSegment segment = new TimeStopPacketSegment(packet, Arrays.copyOf(packet.getData(), SEGMENT_DATA_SIZE), 0, 2, 0);
+
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, segment));
+    }
+
+    @Test
+    public void testUdpSegmentCountNotMatchingSegmentSizeIsRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withUdpSegmentation(SEGMENT_SIZE, 500);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 2);
+        TimeStopPacketSegment segment = new TimeStopPacketSegment(packet, Arrays.copyOf(packet.getData(), SEGMENT_DATA_SIZE), 0, Integer.MAX_VALUE, 0);
+        segment.setUdp(true);
+
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, segment));
+    }
+
+    @Test
+    public void testSegmentNotMatchingItsPacketIsRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 3);
+        TimeStopPacket shorterPacket = createPacket(SEGMENT_DATA_SIZE * 2);
+        shorterPacket.setUuid(packet.getUuid());
+
+        assertNull(translator.translate(context, createSegments(packet, SEGMENT_DATA_SIZE)[0]));
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, createSegments(shorterPacket, SEGMENT_DATA_SIZE)[1]));
+    }
+
+    @Test
+    public void testPlaintextSegmentOfEncryptedPacketIsRejected() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE);
+        TimeStopPacket encryptedPacket = createPacket(SEGMENT_DATA_SIZE * 3);
+        encryptedPacket.setEncrypted(true);
+        encryptedPacket.setNonce(new byte[12]);
+        TimeStopPacket plaintextPacket = new TimeStopPacket(encryptedPacket.getData());
+        plaintextPacket.setUuid(encryptedPacket.getUuid());
+
+        assertNull(translator.translate(context, createSegments(encryptedPacket, SEGMENT_DATA_SIZE)[0]));
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, createSegments(plaintextPacket, SEGMENT_DATA_SIZE)[1]));
+    }
+
+    @Test
+    public void testSpilledPacketIsReassembledIntoFile(@TempDir File spillDirectory) {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withSpillThreshold(SEGMENT_DATA_SIZE, spillDirectory);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 3 + 100);
+        TimeStopPacketSegment[] segments = createSegments(packet, SEGMENT_DATA_SIZE);
+
+        assertNull(translator.translate(context, segments[3]));
+        assertNull(translator.translate(context, segments[1]));
+        assertNull(translator.translate(context, segments[0]));
+        assertEquals(1, spillDirectory.listFiles().length);
+
+        TimeStopPacket received = (TimeStopPacket) translator.translate(context, segments[2]);
+        ByteBuffer dataBuffer = received.getDataBuffer();
+        byte[] data = new byte[dataBuffer.remaining()];
+        dataBuffer.duplicate().get(data);
+
+        assertNotNull(received.getDataFile());
+        assertArrayEquals(packet.getData(), data);
+
+        received.releaseData();
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testSpilledPacketIsDeletedOnDisconnect(@TempDir File spillDirectory) {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withSpillThreshold(SEGMENT_DATA_SIZE, spillDirectory);
+        TimeStopPacketSegment[] segments = createSegments(createPacket(SEGMENT_DATA_SIZE * 3), SEGMENT_DATA_SIZE);
+
+        assertNull(translator.translate(context, segments[0]));
+        assertEquals(1, spillDirectory.listFiles().length);
+
+        translator.disconnected(context.getConnection());
+        assertEquals(0, spillDirectory.listFiles().length);
+
+        // Packets of the disconnected connection are forgotten, the remaining segments start a new packet
+        assertNull(translator.translate(context, segments[1]));
+        assertNull(translator.translate(context, segments[2]));
+    }
+
+    @Test
+    public void testSpilledFileGrowsWithReceivedSegments(@TempDir File spillDirectory) {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withSpillThreshold(SEGMENT_DATA_SIZE, spillDirectory);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 1024);
+        TimeStopPacketSegment[] segments = createSegments(packet, SEGMENT_DATA_SIZE);
+
+        // Nothing is allocated for the announced total length, only the received segment is stored
+        assertNull(translator.translate(context, segments[0]));
+        assertEquals(SEGMENT_DATA_SIZE, spillDirectory.listFiles()[0].length());
+
+        translator.disconnected(context.getConnection());
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+
+    @Test
+    public void testPendingPacketsAreLimited() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withMaxPendingPackets(2, SEGMENT_SIZE * 4);
+
+        assertNull(translator.translate(context, createSegments(createPacket(SEGMENT_DATA_SIZE * 2), SEGMENT_DATA_SIZE)[0]));
+        assertNull(translator.translate(context, createSegments(createPacket(SEGMENT_DATA_SIZE * 2 + 1), SEGMENT_DATA_SIZE)[0]));
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, createSegments(createPacket(SEGMENT_DATA_SIZE * 2 + 2), SEGMENT_DATA_SIZE)[0]));
+
+        // Other connections are not affected
+        TimeStopTranslator.Context otherContext = new TimeStopTranslator.Context(new FakeConnection(), TimeStopTranslator.Context.Way.INBOUND);
+        assertNull(translator.translate(otherContext, createSegments(createPacket(SEGMENT_DATA_SIZE * 2), SEGMENT_DATA_SIZE)[0]));
+    }
+
+    @Test
+    public void testPendingBytesAreLimited() {
+        TimeStopPacketSegmentTranslator translator = new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withMaxPendingPackets(8, SEGMENT_SIZE * 2);
+        TimeStopPacket packet = createPacket(SEGMENT_DATA_SIZE * 2);
+        TimeStopPacketSegment[] segments = createSegments(packet, SEGMENT_DATA_SIZE);
+
+        assertNull(translator.translate(context, createSegments(createPacket(SEGMENT_DATA_SIZE * 3), SEGMENT_DATA_SIZE)[0]));
+        assertNull(translator.translate(context, segments[0]));
+        assertThrows(InvalidPacketSegmentException.class, () -> translator.translate(context, segments[1]));
+
+        // Bytes of the rejected packet are released
+        TimeStopPacket otherPacket = createPacket(SEGMENT_DATA_SIZE);
+        assertInstanceOf(TimeStopPacket.class, translator.translate(context, createSegments(otherPacket, SEGMENT_DATA_SIZE)[0]));
+    }
+
+    private static TimeStopPacket createPacket(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return new TimeStopPacket(data);
+    }
+
+    private static TimeStopPacketSegment[] createSegments(TimeStopPacket packet, int segmentDataSize) {
+        byte[] data = packet.getData();
+        int segmentCount = (data.length + segmentDataSize - 1) / segmentDataSize;
+        TimeStopPacketSegment[] segments = new TimeStopPacketSegment[segmentCount];
+
+        for (int i = 0; i < segmentCount; i++) {
+            int offset = i * segmentDataSize;
+            segments[i] = new TimeStopPacketSegment(packet, Arrays.copyOfRange(data, offset, Math.min(offset + segmentDataSize, data.length)), i, segmentCount, offset);
+        }
+
+        return segments;
+    }
+}
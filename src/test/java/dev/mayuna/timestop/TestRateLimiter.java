@@ -0,0 +1,153 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.TimeStopRateLimiter;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRateLimiter {
+
+    @Test
+    public void testDrop() {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withConnectionLimit(new TimeStopRateLimiter.Limit().withMessages(1, 5))
+                                                                   .withPolicy(TimeStopRateLimiter.Policy.DROP);
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+        List<Object> dispatched = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            Integer message = i;
+            state.process(connection, message, () -> dispatched.add(message));
+        }
+
+        assertEquals(5, dispatched.size());
+        assertEquals(5, rateLimiter.getDroppedMessageCount().get());
+        assertFalse(connection.closed);
+    }
+
+    @Test
+    public void testMessageClassLimit() {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withMessageClassLimit(UUID.class, new TimeStopRateLimiter.Limit().withMessages(1, 1));
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+        List<Object> dispatched = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            UUID uuid = UUID.randomUUID();
+            state.process(connection, uuid, () -> dispatched.add(uuid));
+            state.process(connection, i, () -> dispatched.add("other"));
+        }
+
+        // Only the first UUID fits into the limit, other messages are not limited
+        assertEquals(4, dispatched.size());
+    }
+
+    @Test
+    public void testBytes() {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withConnectionLimit(new TimeStopRateLimiter.Limit().withBytes(1000, 1000));
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+        List<Object> dispatched = new CopyOnWriteArrayList<>();
+
+        state.received(800);
+        state.process(connection, "first", () -> dispatched.add("first"));
+        state.received(800);
+        state.process(connection, "second", () -> dispatched.add("second"));
+
+        assertEquals(1, dispatched.size());
+    }
+
+    @Test
+    public void testSequencedMessageSize() {
+        byte[] message = new byte[800];
+
+        assertEquals(message.length, TimeStopRateLimiter.getSize(new TimeStopSequencedMessage(0, 1, false, message)));
+    }
+
+    @Test
+    public void testDelay() {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withConnectionLimit(new TimeStopRateLimiter.Limit().withMessages(100, 2))
+                                                                   .withPolicy(TimeStopRateLimiter.Policy.DELAY);
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+        List<Integer> dispatched = new CopyOnWriteArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            Integer message = i;
+            state.process(connection, message, () -> {
+                dispatched.add(message);
+
+                synchronized (dispatched) {
+                    dispatched.notifyAll();
+                }
+            });
+        }
+
+        assertTrue(dispatched.size() < 10);
+
+        synchronized (dispatched) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (dispatched.size() < 10 && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> dispatched.wait(100));
+            }
+        }
+
+        // All messages are dispatched in order
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, dispatched.get(i));
+        }
+    }
+
+    @Test
+    public void testBurstDoesNotDelayFollowingMessages() throws InterruptedException {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withConnectionLimit(new TimeStopRateLimiter.Limit().withMessages(100, 5))
+                                                                   .withPolicy(TimeStopRateLimiter.Policy.DELAY)
+                                                                   .withMaxDelay(50);
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+        List<Integer> dispatched = new CopyOnWriteArrayList<>();
+
+        // Burst, most of it is dropped
+        for (int i = 0; i < 50; i++) {
+            Integer message = i;
+            state.process(connection, message, () -> dispatched.add(message));
+        }
+
+        long droppedByBurst = rateLimiter.getDroppedMessageCount().get();
+        assertTrue(droppedByBurst > 0);
+
+        Thread.sleep(200);
+
+        // Normal rate (half of the limit)
+        for (int i = 0; i < 10; i++) {
+            Integer message = 100 + i;
+            state.process(connection, message, () -> dispatched.add(message));
+            Thread.sleep(20);
+        }
+
+        Thread.sleep(100);
+
+        assertEquals(droppedByBurst, rateLimiter.getDroppedMessageCount().get());
+        assertEquals(50 - droppedByBurst + 10, dispatched.size());
+    }
+
+    @Test
+    public void testDisconnect() {
+        TimeStopRateLimiter rateLimiter = new TimeStopRateLimiter().withConnectionLimit(new TimeStopRateLimiter.Limit().withMessages(1, 1))
+                                                                   .withPolicy(TimeStopRateLimiter.Policy.DISCONNECT);
+        TimeStopRateLimiter.State state = rateLimiter.createState();
+        FakeConnection connection = new FakeConnection();
+
+        state.process(connection, "first", () -> {});
+        assertFalse(connection.closed);
+
+        state.process(connection, "second", () -> fail("Message should not be dispatched"));
+        assertTrue(connection.closed);
+    }
+}
@@ -0,0 +1,161 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketSegmentTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSegmentFlowControl {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int ACKNOWLEDGEMENT_WINDOW = 4;
+    private static final int CLIENT_WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final int CLIENT_OBJECT_BUFFER_SIZE = 64 * 1024;
+
+    private TimeStopServer server;
+    private TimeStopClient client;
+
+    @BeforeEach
+    public void setup() {
+        server = new TimeStopServer(new EndpointConfig());
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.SEGMENT_FLOW_PORT));
+        server.start();
+
+        // Small write buffer, so the adaptive segments have to wait for it
+        client = new TimeStopClient(new EndpointConfig(), CLIENT_WRITE_BUFFER_SIZE, CLIENT_OBJECT_BUFFER_SIZE);
+        client.start();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.SEGMENT_FLOW_PORT));
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+    }
+
+    @AfterEach
+    public void teardown() {
+        assertDoesNotThrow(() -> client.close());
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    @Test
+    public void testPacketsBiggerThanAcknowledgementWindow() {
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withAcknowledgementWindow(ACKNOWLEDGEMENT_WINDOW));
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(SEGMENT_SIZE).withAcknowledgementWindow(ACKNOWLEDGEMENT_WINDOW));
+
+        List<byte[]> received = registerReceiver();
+        List<String> receivedByClient = registerClientReceiver();
+
+        byte[] first = createData(0, SEGMENT_SIZE * ACKNOWLEDGEMENT_WINDOW * 16);
+        byte[] second = createData(1, SEGMENT_SIZE * ACKNOWLEDGEMENT_WINDOW * 8);
+
+        // Sent while the client's update thread is busy receiving other messages and credits
+        client.sendTCP(first);
+
+        for (int i = 0; i < 100; i++) {
+            server.sendToAllTCP("Message " + i);
+        }
+
+        client.sendTCP(second);
+
+        awaitMessages(received, 2, 10_000);
+
+        // Listeners run on a thread pool, so the order is not checked
+        assertEquals(2, received.size());
+        assertTrue(received.stream().anyMatch(data -> Arrays.equals(first, data)));
+        assertTrue(received.stream().anyMatch(data -> Arrays.equals(second, data)));
+
+        // Small messages are not held back by the segments
+        assertClientReceived(receivedByClient, 100);
+    }
+
+    @Test
+    public void testAdaptiveSegmentsWaitForWriteBuffer() {
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(SEGMENT_SIZE * 16));
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(SEGMENT_SIZE * 2, SEGMENT_SIZE * 16, CLIENT_WRITE_BUFFER_SIZE));
+
+        List<byte[]> received = registerReceiver();
+        List<String> receivedByClient = registerClientReceiver();
+
+        // Many times the write buffer, sent while the client's update thread is receiving other messages
+        byte[] data = createData(2, CLIENT_WRITE_BUFFER_SIZE * 16);
+        client.sendTCP(data);
+
+        for (int i = 0; i < 100; i++) {
+            server.sendToAllTCP("Message " + i);
+        }
+
+        awaitMessages(received, 1, 10_000);
+
+        assertEquals(1, received.size());
+        assertArrayEquals(data, received.get(0));
+        assertClientReceived(receivedByClient, 100);
+    }
+
+    private List<byte[]> registerReceiver() {
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+
+        server.getListenerManager().registerListener(new TimeStopListener<byte[]>(byte[].class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull byte[] message) {
+                synchronized (received) {
+                    received.add(message);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        return received;
+    }
+
+    private List<String> registerClientReceiver() {
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        client.getListenerManager().registerListener(new TimeStopListener<String>(String.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull String message) {
+                received.add(message);
+            }
+        });
+
+        return received;
+    }
+
+    private void assertClientReceived(List<String> received, int count) {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            assertDoesNotThrow(() -> Thread.sleep(10));
+        }
+
+        assertEquals(count, received.size());
+    }
+
+    private void awaitMessages(List<byte[]> received, int count, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (received) {
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> received.wait(100));
+            }
+        }
+    }
+
+    private static byte[] createData(long seed, int length) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,171 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.TimeStopSequencedChannels;
+import dev.mayuna.timestop.networking.timestop.TimeStopSequencedMessage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSequencedChannels {
+
+    @Test
+    public void testStaleMessagesAreDropped() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+        TimeStopSequencedMessage first = sender.stamp(0, "first", message -> message);
+        TimeStopSequencedMessage second = sender.stamp(0, "second", message -> message);
+        TimeStopSequencedMessage otherChannel = sender.stamp(1, "other", message -> message);
+
+        assertEquals(first.getSequence() + 1, second.getSequence());
+
+        // Reordered
+        assertTrue(receiver.accept(second));
+        assertEquals("second", receiver.commit(second, second.getMessage()));
+        assertFalse(receiver.accept(first));
+
+        // Duplicated
+        assertFalse(receiver.accept(second));
+
+        // Channels are independent
+        assertTrue(receiver.accept(otherChannel));
+
+        assertEquals(2, receiver.getDroppedMessageCount());
+    }
+
+    @Test
+    public void testUncommittedMessageDoesNotMakeOlderStale() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+        TimeStopSequencedMessage first = sender.stamp(0, "first", message -> message);
+        TimeStopSequencedMessage forged = new TimeStopSequencedMessage(0, Integer.MAX_VALUE / 2, false, "forged");
+
+        // Forged message is accepted for the translation, which fails, so it is never committed
+        assertTrue(receiver.accept(forged));
+        assertTrue(receiver.accept(first));
+        assertEquals("first", receiver.commit(first, first.getMessage()));
+
+        // Older commit does not replace the newer one
+        TimeStopSequencedMessage older = new TimeStopSequencedMessage(0, first.getSequence() - 1, false, "older");
+        assertNull(receiver.commit(older, older));
+        assertFalse(receiver.accept(first));
+    }
+
+    @Test
+    public void testForgedStampIsNotCommitted() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+        TimeStopSequencedMessage first = sender.stamp(0, "first", message -> message);
+        TimeStopSequencedMessage second = sender.stamp(0, "second", message -> message);
+
+        // Valid (authenticated) message moved under a newer received stamp, which is not covered by the encryption
+        TimeStopSequencedMessage forged = new TimeStopSequencedMessage(0, Integer.MAX_VALUE / 2, false, first.getMessage());
+        assertTrue(receiver.accept(forged));
+        assertNull(receiver.commit(forged, forged.getMessage()));
+
+        // Message received without the stamp inside is not committed either
+        assertNull(receiver.commit(forged, "unstamped"));
+
+        assertTrue(receiver.accept(second));
+        assertEquals("second", receiver.commit(second, second.getMessage()));
+        assertFalse(receiver.accept(first));
+    }
+
+    @Test
+    public void testReassembledMessageIsCommittedByItsStamp() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+        TimeStopSequencedMessage first = sender.stamp(0, "first", message -> message);
+        TimeStopSequencedMessage second = sender.stamp(0, "second", message -> message);
+
+        // Reassembled from segments decrypted one by one, passed on without the received stamp
+        assertEquals("second", receiver.commit(null, second.getMessage()));
+        assertNull(receiver.commit(null, first.getMessage()));
+        assertEquals("unsequenced", receiver.commit(null, "unsequenced"));
+    }
+
+    @Test
+    public void testSegmentsCarrySequence() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+        Object[] segments = new Object[2];
+        Object[] stampedMessage = new Object[1];
+
+        // Segments sent while the message is being translated are stamped with the same sequence
+        TimeStopSequencedMessage message = sender.stamp(0, "message", translatedMessage -> {
+            stampedMessage[0] = translatedMessage;
+            segments[0] = TimeStopSequencedChannels.stampSegment("segment 0");
+            segments[1] = TimeStopSequencedChannels.stampSegment("segment 1");
+            return null; // Translated to segments only
+        });
+
+        assertNull(message);
+        assertEquals("unstamped", TimeStopSequencedChannels.stampSegment("unstamped"));
+
+        TimeStopSequencedMessage newer = sender.stamp(0, "newer", translatedMessage -> translatedMessage);
+
+        assertTrue(receiver.accept((TimeStopSequencedMessage) segments[0]));
+        assertTrue(receiver.accept((TimeStopSequencedMessage) segments[1]));
+
+        // Reassembled message carries the stamp of its segments
+        assertEquals("message", receiver.commit((TimeStopSequencedMessage) segments[1], stampedMessage[0]));
+        assertTrue(receiver.accept((TimeStopSequencedMessage) segments[0]));
+        assertTrue(receiver.accept(newer));
+    }
+
+    @Test
+    public void testRetransmittedSegmentsCarrySequence() {
+        TimeStopSequencedChannels sender = new TimeStopSequencedChannels();
+        TimeStopSequencedMessage[] stamp = new TimeStopSequencedMessage[1];
+
+        TimeStopSequencedMessage message = sender.stamp(0, "message", translatedMessage -> {
+            stamp[0] = TimeStopSequencedChannels.getCurrentStamp();
+            return translatedMessage;
+        });
+
+        // Sent again later, outside of the translation
+        TimeStopSequencedMessage retransmitted = (TimeStopSequencedMessage) TimeStopSequencedChannels.withStamp(stamp[0], () -> TimeStopSequencedChannels.stampSegment("segment"));
+
+        assertEquals(message.getSequence(), retransmitted.getSequence());
+        assertTrue(retransmitted.isSegment());
+        assertNull(TimeStopSequencedChannels.getCurrentStamp());
+    }
+
+    @Test
+    public void testReceivedChannelsAreCapped() {
+        int maxReceivedChannels = TimeStopSequencedChannels.MAX_RECEIVED_CHANNELS;
+        TimeStopSequencedChannels.MAX_RECEIVED_CHANNELS = 4;
+
+        try {
+            TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+            for (int channel = 0; channel < 5; channel++) {
+                TimeStopSequencedMessage newest = new TimeStopSequencedMessage(channel, 10, false, "newest");
+                receiver.commit(newest, newest);
+            }
+
+            // Least recently used channel has been forgotten
+            assertTrue(receiver.accept(new TimeStopSequencedMessage(0, 1, false, "stale")));
+            assertFalse(receiver.accept(new TimeStopSequencedMessage(4, 1, false, "stale")));
+        } finally {
+            TimeStopSequencedChannels.MAX_RECEIVED_CHANNELS = maxReceivedChannels;
+        }
+    }
+
+    @Test
+    public void testSequenceOverflow() {
+        TimeStopSequencedChannels receiver = new TimeStopSequencedChannels();
+
+        TimeStopSequencedMessage before = new TimeStopSequencedMessage(0, Integer.MAX_VALUE, false, "before");
+        TimeStopSequencedMessage after = new TimeStopSequencedMessage(0, Integer.MIN_VALUE, false, "after");
+
+        assertTrue(receiver.accept(before));
+        assertEquals("before", receiver.commit(before, before));
+        assertTrue(receiver.accept(after));
+        assertEquals("after", receiver.commit(after, after));
+        assertFalse(receiver.accept(new TimeStopSequencedMessage(0, Integer.MAX_VALUE - 1, false, "stale")));
+    }
+}
@@ -1,13 +1,21 @@
 package dev.mayuna.timestop;
 
+import com.esotericsoftware.kryonet.Connection;
 import dev.mayuna.timestop.config.EncryptionConfig;
+import dev.mayuna.timestop.config.SymmetricCipherType;
 import dev.mayuna.timestop.managers.EncryptionManager;
 import dev.mayuna.timestop.networking.NetworkConstants;
 import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopConnection;
+import dev.mayuna.timestop.networking.base.TimeStopConnectionGroup;
 import dev.mayuna.timestop.networking.base.TimeStopClient;
 import dev.mayuna.timestop.networking.base.TimeStopServer;
 import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
 import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopFileTransfer;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacket;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopBatchTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopFileTransferTranslator;
 import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketEncryptionTranslator;
 import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketSegmentTranslator;
 import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
@@ -18,8 +26,18 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -337,6 +355,137 @@ public class TestServerClientCommunication {
         }
     }
 
+    @Test
+    public void testBroadcastTranslations() {
+        UUID uuidToSend = UUID.randomUUID();
+        AtomicReference<Boolean> received = new AtomicReference<>(false);
+        AtomicInteger connectionIndependentTranslations = new AtomicInteger();
+        AtomicInteger connectionTranslations = new AtomicInteger();
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+
+        server.getTranslatorManager().registerTranslator(new TimeStopTranslator(200) {
+            @Override
+            public Object translate(Context context, Object object) {
+                connectionIndependentTranslations.incrementAndGet();
+                return object;
+            }
+
+            @Override
+            public boolean isConnectionIndependent() {
+                return true;
+            }
+        });
+
+        server.getTranslatorManager().registerTranslator(new TimeStopTranslator(0) {
+            @Override
+            public Object translate(Context context, Object object) {
+                assertInstanceOf(TimeStopPacket.class, object);
+                connectionTranslations.incrementAndGet();
+                return object;
+            }
+        });
+
+        client.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                assertEquals(uuidToSend, message);
+
+                synchronized (received) {
+                    received.set(true);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        server.sendToAllTCP(uuidToSend);
+
+        synchronized (received) {
+            assertDoesNotThrow(() -> received.wait(1000));
+            assertEquals(true, received.get());
+        }
+
+        assertEquals(1, connectionIndependentTranslations.get());
+        assertEquals(server.getConnections().length, connectionTranslations.get());
+    }
+
+    @Test
+    public void testConnectionGroup() {
+        UUID uuidToSend = UUID.randomUUID();
+        AtomicReference<Boolean> received = new AtomicReference<>(false);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+
+        client.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                assertEquals(uuidToSend, message);
+
+                synchronized (received) {
+                    received.set(true);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        TimeStopConnectionGroup group = server.getOrCreateGroup("room");
+        TimeStopConnection connection = (TimeStopConnection) server.getConnections()[0];
+
+        assertTrue(group.add(connection));
+        assertFalse(group.add(connection));
+        assertSame(group, server.getOrCreateGroup("room"));
+
+        group.sendTCP(uuidToSend);
+
+        synchronized (received) {
+            assertDoesNotThrow(() -> received.wait(1000));
+            assertEquals(true, received.get());
+        }
+
+        assertTrue(group.remove(connection));
+        assertEquals(0, group.size());
+        assertSame(group, server.removeGroup("room"));
+    }
+
+    @Test
+    public void testBatchTranslation() {
+        List<UUID> uuidsToSend = new CopyOnWriteArrayList<>();
+        List<UUID> receivedUuids = new CopyOnWriteArrayList<>();
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopBatchTranslator(10, 1024));
+
+        server.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                receivedUuids.add(message);
+
+                synchronized (receivedUuids) {
+                    receivedUuids.notifyAll();
+                }
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = UUID.randomUUID();
+            uuidsToSend.add(uuid);
+            client.sendTCP(uuid);
+        }
+
+        synchronized (receivedUuids) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (receivedUuids.size() < uuidsToSend.size() && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> receivedUuids.wait(100));
+            }
+        }
+
+        assertEquals(uuidsToSend, receivedUuids);
+    }
+
     @Test
     public void testTimeStopPacketSegmentTranslations() {
         byte[] bytesToSend = new byte[NetworkConstants.OBJECT_BUFFER_SIZE * 2];
@@ -417,4 +566,151 @@ public class TestServerClientCommunication {
             assertEquals(true, received.get());
         }
     }
+
+    @Test
+    public void testTimeStopPacketEncryptionTranslationWithConnectionKey() throws NoSuchAlgorithmException {
+        byte[] bytesToSend = new byte[1000];
+        AtomicReference<Boolean> received = new AtomicReference<>(false);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+
+        // Managers do not have any key, connection keys are used instead
+        EncryptionManager encryptionManager = new EncryptionManager(new EncryptionConfig());
+        Key connectionKey = encryptionManager.createSymmetricKey();
+
+        for (Connection connection : server.getConnections()) {
+            ((TimeStopConnection) connection).setSymmetricKey(connectionKey);
+        }
+
+        client.setSymmetricKey(connectionKey);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketEncryptionTranslator.Decrypt(encryptionManager, context -> true));
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketEncryptionTranslator.Encrypt(encryptionManager, context -> true));
+
+        server.getListenerManager().registerListener(new TimeStopListener<byte[]>(byte[].class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull byte[] message) {
+                assertArrayEquals(bytesToSend, message);
+
+                synchronized (received) {
+                    received.set(true);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        client.sendTCP(bytesToSend);
+
+        synchronized (received) {
+            assertDoesNotThrow(() -> {
+                synchronized (received) {
+                    received.wait(1000);
+                }
+            });
+
+            assertEquals(true, received.get());
+        }
+
+        client.setSymmetricKey(null);
+    }
+
+    @Test
+    public void testTimeStopPacketSegmentEncryptionTranslation() throws NoSuchAlgorithmException {
+        byte[] bytesToSend = new byte[NetworkConstants.OBJECT_BUFFER_SIZE * 4];
+        new Random().nextBytes(bytesToSend);
+        AtomicReference<Boolean> received = new AtomicReference<>(false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        EncryptionConfig encryptionConfig = new EncryptionConfig();
+        encryptionConfig.setSymmetricCipherType(SymmetricCipherType.AES_GCM);
+        EncryptionManager encryptionManager = new EncryptionManager(encryptionConfig);
+        encryptionManager.generateSymmetricKey();
+
+        TimeStopPacketSegmentTranslator serverSegmentTranslator = new TimeStopPacketSegmentTranslator(NetworkConstants.OBJECT_BUFFER_SIZE).withSegmentEncryption(encryptionManager, executor);
+        TimeStopPacketSegmentTranslator clientSegmentTranslator = new TimeStopPacketSegmentTranslator(NetworkConstants.OBJECT_BUFFER_SIZE).withSegmentEncryption(encryptionManager, executor);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+
+        server.getTranslatorManager().registerTranslator(serverSegmentTranslator);
+        client.getTranslatorManager().registerTranslator(clientSegmentTranslator);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketEncryptionTranslator.Decrypt(encryptionManager, context -> true));
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketEncryptionTranslator.Encrypt(encryptionManager, context -> true).withSegmentEncryption(clientSegmentTranslator));
+
+        server.getListenerManager().registerListener(new TimeStopListener<byte[]>(byte[].class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull byte[] message) {
+                assertArrayEquals(bytesToSend, message);
+
+                synchronized (received) {
+                    received.set(true);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        client.sendTCP(bytesToSend);
+
+        synchronized (received) {
+            assertDoesNotThrow(() -> {
+                synchronized (received) {
+                    received.wait(5000);
+                }
+            });
+
+            assertEquals(true, received.get());
+        }
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFileTransferTranslation() throws IOException {
+        byte[] bytesToSend = new byte[NetworkConstants.OBJECT_BUFFER_SIZE * 3 + 123];
+        new Random().nextBytes(bytesToSend);
+        AtomicReference<Boolean> received = new AtomicReference<>(false);
+
+        File sourceFile = File.createTempFile("time-stop-source", ".bin");
+        File targetDirectory = Files.createTempDirectory("time-stop-target").toFile();
+        sourceFile.deleteOnExit();
+        targetDirectory.deleteOnExit();
+        Files.write(sourceFile.toPath(), bytesToSend);
+
+        TimeStopFileTransferTranslator clientFileTransferTranslator = new TimeStopFileTransferTranslator(targetDirectory, NetworkConstants.OBJECT_BUFFER_SIZE / 2);
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+
+        server.getTranslatorManager().registerTranslator(new TimeStopFileTransferTranslator(targetDirectory, NetworkConstants.OBJECT_BUFFER_SIZE / 2));
+        client.getTranslatorManager().registerTranslator(clientFileTransferTranslator);
+
+        server.getListenerManager().registerListener(new TimeStopListener<TimeStopFileTransfer>(TimeStopFileTransfer.class, 0) {
+            @SneakyThrows
+            @Override
+            public void process(@NonNull Context context, @NonNull TimeStopFileTransfer message) {
+                assertEquals(sourceFile.getName(), message.getFileName());
+                assertArrayEquals(bytesToSend, Files.readAllBytes(message.getFile().toPath()));
+                message.getFile().deleteOnExit();
+
+                synchronized (received) {
+                    received.set(true);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        assertDoesNotThrow(() -> clientFileTransferTranslator.sendFile(client, sourceFile));
+
+        synchronized (received) {
+            assertDoesNotThrow(() -> {
+                synchronized (received) {
+                    received.wait(5000);
+                }
+            });
+
+            assertEquals(true, received.get());
+        }
+    }
 }
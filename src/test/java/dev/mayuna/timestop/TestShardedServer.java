@@ -0,0 +1,113 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.NetworkConstants;
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopClientPool;
+import dev.mayuna.timestop.networking.base.TimeStopShardedServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestShardedServer {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int SHARD_COUNT = 2;
+
+    private static TimeStopShardedServer server;
+    private static TimeStopClientPool pool;
+
+    @BeforeAll
+    public static void setup() {
+        server = new TimeStopShardedServer(new EndpointConfig(), SHARD_COUNT, NetworkConstants.WRITE_BUFFER_SIZE, NetworkConstants.OBJECT_BUFFER_SIZE);
+        server.registerTranslator(TimeStopPacketTranslator::new);
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.SHARDED_BASE_PORT));
+        server.start();
+
+        pool = new TimeStopClientPool(4, () -> {
+            TimeStopClient client = new TimeStopClient(new EndpointConfig());
+            client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+            return client;
+        });
+        pool.start();
+        assertDoesNotThrow(() -> pool.connectToShards(5000, HOST, TestNetworkConstants.SHARDED_BASE_PORT, SHARD_COUNT));
+    }
+
+    @AfterAll
+    public static void teardown() {
+        assertDoesNotThrow(() -> pool.close());
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    @Test
+    public void testShardedServer() {
+        Set<UUID> receivedUuids = ConcurrentHashMap.newKeySet();
+        AtomicInteger broadcastsReceived = new AtomicInteger();
+        UUID broadcastUuid = UUID.randomUUID();
+
+        assertEquals(SHARD_COUNT, server.getShards().size());
+        assertEquals(4, server.getConnections().length);
+        server.forEachShard(shard -> assertEquals(2, shard.getConnections().length));
+
+        // Listener manager is shared by all shards
+        server.getListenerManager().registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                assertNotNull(server.getShard(context.getConnection()));
+                receivedUuids.add(message);
+
+                synchronized (receivedUuids) {
+                    receivedUuids.notifyAll();
+                }
+            }
+        });
+
+        pool.registerListener(new TimeStopListener<UUID>(UUID.class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull UUID message) {
+                assertEquals(broadcastUuid, message);
+
+                synchronized (broadcastsReceived) {
+                    broadcastsReceived.incrementAndGet();
+                    broadcastsReceived.notifyAll();
+                }
+            }
+        });
+
+        for (int i = 0; i < 20; i++) {
+            pool.sendTCP(UUID.randomUUID());
+        }
+
+        synchronized (receivedUuids) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (receivedUuids.size() < 20 && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> receivedUuids.wait(100));
+            }
+        }
+
+        assertEquals(20, receivedUuids.size());
+
+        server.sendToAllTCP(broadcastUuid);
+
+        synchronized (broadcastsReceived) {
+            long deadline = System.currentTimeMillis() + 5000;
+
+            while (broadcastsReceived.get() < 4 && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> broadcastsReceived.wait(100));
+            }
+        }
+
+        assertEquals(4, broadcastsReceived.get());
+    }
+}
@@ -0,0 +1,144 @@
+package dev.mayuna.timestop;
+
+import dev.mayuna.timestop.networking.base.EndpointConfig;
+import dev.mayuna.timestop.networking.base.TimeStopClient;
+import dev.mayuna.timestop.networking.base.TimeStopServer;
+import dev.mayuna.timestop.networking.base.listener.TimeStopListener;
+import dev.mayuna.timestop.networking.base.translator.TimeStopTranslator;
+import dev.mayuna.timestop.networking.timestop.TimeStopPacketSegment;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketSegmentTranslator;
+import dev.mayuna.timestop.networking.timestop.translators.TimeStopPacketTranslator;
+import lombok.NonNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestUdpSegmentation {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int UDP_SEGMENT_SIZE = 1200;
+    private static final int REASSEMBLY_TIMEOUT = 500;
+
+    private TimeStopServer server;
+    private TimeStopClient client;
+
+    @BeforeEach
+    public void setup() {
+        server = new TimeStopServer(new EndpointConfig());
+        assertDoesNotThrow(() -> server.bind(TestNetworkConstants.UDP_PORT, TestNetworkConstants.UDP_PORT));
+        server.start();
+
+        client = new TimeStopClient(new EndpointConfig());
+        client.start();
+        assertDoesNotThrow(() -> client.connect(5000, HOST, TestNetworkConstants.UDP_PORT, TestNetworkConstants.UDP_PORT));
+
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketTranslator());
+    }
+
+    @AfterEach
+    public void teardown() {
+        assertDoesNotThrow(() -> client.close());
+        assertDoesNotThrow(() -> server.close());
+    }
+
+    @Test
+    public void testLostSegmentsAreRetransmitted() {
+        TimeStopPacketSegmentTranslator clientSegmentTranslator = new TimeStopPacketSegmentTranslator(UDP_SEGMENT_SIZE * 16).withUdpSegmentation(UDP_SEGMENT_SIZE, REASSEMBLY_TIMEOUT).withUdpRetransmission(20);
+        server.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(UDP_SEGMENT_SIZE * 16).withUdpSegmentation(UDP_SEGMENT_SIZE, REASSEMBLY_TIMEOUT).withUdpRetransmission(20));
+        client.getTranslatorManager().registerTranslator(clientSegmentTranslator);
+        client.getTranslatorManager().registerTranslator(new SegmentLossTranslator());
+
+        byte[] bytesToSend = createData();
+        AtomicReference<byte[]> received = registerReceiver();
+
+        client.sendUDP(bytesToSend);
+
+        assertArrayEquals(bytesToSend, awaitMessage(received, 2000));
+        assertEquals(2, clientSegmentTranslator.getRetransmittedSegmentCount());
+    }
+
+    @Test
+    public void testIncompletePacketExpires() {
+        TimeStopPacketSegmentTranslator serverSegmentTranslator = new TimeStopPacketSegmentTranslator(UDP_SEGMENT_SIZE * 16).withUdpSegmentation(UDP_SEGMENT_SIZE, REASSEMBLY_TIMEOUT);
+        server.getTranslatorManager().registerTranslator(serverSegmentTranslator);
+        client.getTranslatorManager().registerTranslator(new TimeStopPacketSegmentTranslator(UDP_SEGMENT_SIZE * 16).withUdpSegmentation(UDP_SEGMENT_SIZE, REASSEMBLY_TIMEOUT));
+        client.getTranslatorManager().registerTranslator(new SegmentLossTranslator());
+
+        AtomicReference<byte[]> received = registerReceiver();
+
+        client.sendUDP(createData());
+
+        assertNull(awaitMessage(received, REASSEMBLY_TIMEOUT * 3));
+        assertEquals(1, serverSegmentTranslator.getExpiredUdpPacketCount());
+    }
+
+    private byte[] createData() {
+        byte[] data = new byte[UDP_SEGMENT_SIZE * 8];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private AtomicReference<byte[]> registerReceiver() {
+        AtomicReference<byte[]> received = new AtomicReference<>();
+
+        server.getListenerManager().registerListener(new TimeStopListener<byte[]>(byte[].class, 0) {
+            @Override
+            public void process(@NonNull Context context, @NonNull byte[] message) {
+                synchronized (received) {
+                    received.set(message);
+                    received.notifyAll();
+                }
+            }
+        });
+
+        return received;
+    }
+
+    private byte[] awaitMessage(AtomicReference<byte[]> received, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        synchronized (received) {
+            while (received.get() == null && System.currentTimeMillis() < deadline) {
+                assertDoesNotThrow(() -> received.wait(100));
+            }
+
+            return received.get();
+        }
+    }
+
+    /**
+     * Simulates the loss of the second and the last segment (only the first time they are sent)
+     */
+    private static class SegmentLossTranslator extends TimeStopTranslator {
+
+        private final Set<Integer> lostSegments = ConcurrentHashMap.newKeySet();
+
+        private SegmentLossTranslator() {
+            super(105); // Before the segment is wrapped by TimeStopPacketTranslator
+        }
+
+        @Override
+        public Object translate(Context context, Object object) {
+            if (context.getWay() != Context.Way.OUTBOUND || !(object instanceof TimeStopPacketSegment)) {
+                return object;
+            }
+
+            TimeStopPacketSegment segment = (TimeStopPacketSegment) object;
+            int segmentIndex = segment.getSegmentIndex();
+
+            if ((segmentIndex == 1 || segmentIndex == segment.getSegmentCount() - 1) && lostSegments.add(segmentIndex)) {
+                return null;
+            }
+
+            return object;
+        }
+    }
+}
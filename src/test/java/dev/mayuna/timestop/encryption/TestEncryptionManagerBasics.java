@@ -1,11 +1,23 @@
 package dev.mayuna.timestop.encryption;
 
 import dev.mayuna.timestop.config.EncryptionConfig;
+import dev.mayuna.timestop.config.KeyExchangeType;
+import dev.mayuna.timestop.config.SymmetricCipherType;
 import dev.mayuna.timestop.managers.EncryptionManager;
+import dev.mayuna.timestop.networking.timestop.Packets;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.IllegalBlockSizeException;
 import java.security.PublicKey;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -83,6 +95,179 @@ public class TestEncryptionManagerBasics {
         }
     }
 
+    @Test
+    public void testEncryptDecryptSymmetricRepeatedlyWithMultipleKeys() {
+        EncryptionManager encryptionManager = new EncryptionManager(encryptionConfig);
+        EncryptionManager otherEncryptionManager = new EncryptionManager(encryptionConfig);
+
+        assertDoesNotThrow(encryptionManager::generateSymmetricKey);
+        assertDoesNotThrow(otherEncryptionManager::generateSymmetricKey);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                String testString = "Hello, World! " + i;
+
+                byte[] encrypted = encryptionManager.encryptUsingSymmetricKey(testString.getBytes());
+                byte[] otherEncrypted = otherEncryptionManager.encryptUsingSymmetricKey(testString.getBytes());
+
+                assertFalse(Arrays.equals(encrypted, otherEncrypted));
+                assertEquals(testString, new String(encryptionManager.decryptUsingSymmetricKey(encrypted)));
+                assertEquals(testString, new String(otherEncryptionManager.decryptUsingSymmetricKey(otherEncrypted)));
+            }
+        } catch (Exception e) {
+            Assertions.fail(e);
+        }
+
+        // Failed decryption does not break subsequent operations
+        assertThrows(IllegalBlockSizeException.class, () -> encryptionManager.decryptUsingSymmetricKey(new byte[15]));
+        assertDoesNotThrow(() -> encryptionManager.decryptUsingSymmetricKey(encryptionManager.encryptUsingSymmetricKey(new byte[16])));
+    }
+
+    @Test
+    public void testEncryptDecryptSymmetricAuthenticated() {
+        EncryptionConfig gcmEncryptionConfig = new EncryptionConfig();
+        gcmEncryptionConfig.setSymmetricCipherType(SymmetricCipherType.AES_GCM);
+        EncryptionManager encryptionManager = new EncryptionManager(gcmEncryptionConfig);
+
+        assertDoesNotThrow(encryptionManager::generateSymmetricKey);
+
+        String testString = "Hello, World!";
+
+        try {
+            byte[] nonce = encryptionManager.nextNonce();
+            byte[] encrypted = encryptionManager.encryptUsingSymmetricKey(testString.getBytes(), nonce);
+            assertEquals(testString, new String(encryptionManager.decryptUsingSymmetricKey(encrypted, nonce)));
+
+            // Same data is never encrypted into the same cipher text
+            assertFalse(Arrays.equals(nonce, encryptionManager.nextNonce()));
+            assertFalse(Arrays.equals(encrypted, encryptionManager.encryptUsingSymmetricKey(testString.getBytes(), encryptionManager.nextNonce())));
+
+            // Nonce is prepended when not passed explicitly
+            byte[] encryptedWithNonce = encryptionManager.encryptUsingSymmetricKey(testString.getBytes());
+            assertEquals(testString, new String(encryptionManager.decryptUsingSymmetricKey(encryptedWithNonce)));
+
+            // Tampered data and wrong nonce are rejected
+            encrypted[0] ^= 1;
+            assertThrows(AEADBadTagException.class, () -> encryptionManager.decryptUsingSymmetricKey(encrypted, nonce));
+            encrypted[0] ^= 1;
+            assertThrows(AEADBadTagException.class, () -> encryptionManager.decryptUsingSymmetricKey(encrypted, encryptionManager.nextNonce()));
+            assertDoesNotThrow(() -> encryptionManager.decryptUsingSymmetricKey(encrypted, nonce));
+        } catch (Exception e) {
+            Assertions.fail(e);
+        }
+    }
+
+    @Test
+    public void testEncryptDecryptSymmetricChaCha20Poly1305() {
+        Assumptions.assumeTrue(SymmetricCipherType.CHACHA20_POLY1305.isAvailable());
+
+        EncryptionManager encryptionManager = new EncryptionManager(encryptionConfig);
+        String testString = "Hello, World!";
+
+        try {
+            Key key = encryptionManager.createSymmetricKey(SymmetricCipherType.CHACHA20_POLY1305);
+            byte[] nonce = encryptionManager.nextNonce(SymmetricCipherType.CHACHA20_POLY1305);
+            byte[] encrypted = encryptionManager.encryptUsingSymmetricKey(key, SymmetricCipherType.CHACHA20_POLY1305, testString.getBytes(), nonce);
+
+            assertEquals(testString, new String(encryptionManager.decryptUsingSymmetricKey(key, SymmetricCipherType.CHACHA20_POLY1305, encrypted, nonce)));
+
+            encrypted[0] ^= 1;
+            assertThrows(AEADBadTagException.class, () -> encryptionManager.decryptUsingSymmetricKey(key, SymmetricCipherType.CHACHA20_POLY1305, encrypted, nonce));
+        } catch (Exception e) {
+            Assertions.fail(e);
+        }
+    }
+
+    @Test
+    public void testDeriveSymmetricKeyUsingKeyAgreement() {
+        for (KeyExchangeType keyExchangeType : KeyExchangeType.values()) {
+            if (!keyExchangeType.isKeyAgreement() || !keyExchangeType.isAvailable()) {
+                continue;
+            }
+
+            EncryptionConfig keyAgreementConfig = new EncryptionConfig();
+            keyAgreementConfig.setKeyExchangeType(keyExchangeType);
+            EncryptionManager encryptionManager = new EncryptionManager(keyAgreementConfig);
+            byte[] salt = new byte[32];
+            new Random(0).nextBytes(salt);
+
+            try {
+                KeyPair clientKeyPair = encryptionManager.createAsymmetricKeyPair();
+                KeyPair serverKeyPair = encryptionManager.createAsymmetricKeyPair();
+
+                Key clientKey = encryptionManager.deriveSymmetricKey(clientKeyPair.getPrivate(), serverKeyPair.getPublic().getEncoded(), salt, SymmetricCipherType.AES_GCM);
+                Key serverKey = encryptionManager.deriveSymmetricKey(serverKeyPair.getPrivate(), clientKeyPair.getPublic().getEncoded(), salt, SymmetricCipherType.AES_GCM);
+                Key otherCipherKey = encryptionManager.deriveSymmetricKey(serverKeyPair.getPrivate(), clientKeyPair.getPublic().getEncoded(), salt, SymmetricCipherType.AES);
+
+                assertEquals(keyAgreementConfig.getSymmetricKeySize() / 8, clientKey.getEncoded().length);
+                assertArrayEquals(clientKey.getEncoded(), serverKey.getEncoded());
+                assertFalse(Arrays.equals(clientKey.getEncoded(), otherCipherKey.getEncoded()));
+
+                byte[] nonce = encryptionManager.nextNonce(SymmetricCipherType.AES_GCM);
+                byte[] encrypted = encryptionManager.encryptUsingSymmetricKey(clientKey, SymmetricCipherType.AES_GCM, "Hello, World!".getBytes(), nonce);
+                assertEquals("Hello, World!", new String(encryptionManager.decryptUsingSymmetricKey(serverKey, SymmetricCipherType.AES_GCM, encrypted, nonce)));
+            } catch (Exception e) {
+                Assertions.fail(keyExchangeType.name(), e);
+            }
+        }
+    }
+
+    @Test
+    public void testEncryptDecryptSymmetricByteBuffers() {
+        EncryptionManager encryptionManager = new EncryptionManager(encryptionConfig);
+        byte[] testData = new byte[10_000];
+        new Random(0).nextBytes(testData);
+
+        for (SymmetricCipherType cipherType : SymmetricCipherType.values()) {
+            if (!cipherType.isAvailable()) {
+                continue;
+            }
+
+            try {
+                Key key = encryptionManager.createSymmetricKey(cipherType);
+                byte[] nonce = encryptionManager.nextNonce(cipherType);
+
+                // Heap input into direct output
+                ByteBuffer encrypted = ByteBuffer.allocateDirect(EncryptionManager.getOutputSize(key, cipherType, testData.length, true));
+                encryptionManager.encryptUsingSymmetricKey(key, cipherType, ByteBuffer.wrap(testData), encrypted, nonce);
+                encrypted.flip();
+
+                // In place
+                byte[] encryptedBytes = new byte[encrypted.remaining()];
+                encrypted.get(encryptedBytes);
+                int length = encryptionManager.decryptUsingSymmetricKey(key, cipherType, ByteBuffer.wrap(encryptedBytes), ByteBuffer.wrap(encryptedBytes), nonce);
+
+                assertEquals(testData.length, length, cipherType.name());
+                assertArrayEquals(testData, Arrays.copyOf(encryptedBytes, length), cipherType.name());
+            } catch (Exception e) {
+                Assertions.fail(cipherType.name(), e);
+            }
+        }
+    }
+
+    @Test
+    public void testNegotiateSymmetricCipherType() {
+        String[] offered = new String[]{"UNKNOWN_CIPHER", SymmetricCipherType.AES_GCM.name(), SymmetricCipherType.AES.name()};
+
+        assertEquals(SymmetricCipherType.AES_GCM, SymmetricCipherType.negotiate(offered, Arrays.asList(SymmetricCipherType.values())));
+        assertEquals(SymmetricCipherType.AES, SymmetricCipherType.negotiate(offered, Collections.singletonList(SymmetricCipherType.AES)));
+        assertNull(SymmetricCipherType.negotiate(offered, Collections.singletonList(SymmetricCipherType.CHACHA20_POLY1305)));
+        assertNull(SymmetricCipherType.negotiate(null, Arrays.asList(SymmetricCipherType.values())));
+    }
+
+    @Test
+    public void testKeyExchangeWithoutCommonCipherIsRejected() {
+        SymmetricCipherType cipherType = SymmetricCipherType.negotiate(new String[]{SymmetricCipherType.AES.name()}, Collections.singletonList(SymmetricCipherType.AES_GCM));
+
+        assertNull(cipherType);
+        assertThrows(IllegalArgumentException.class, () -> Packets.SymmetricKeyExchange.create(new byte[16], cipherType));
+        assertThrows(IllegalArgumentException.class, () -> Packets.SymmetricKeyExchange.createKeyAgreement(new byte[32], new byte[32], cipherType));
+
+        Packets.SymmetricKeyExchange rejection = Packets.SymmetricKeyExchange.createRejection("No common symmetric cipher");
+        assertTrue(rejection.hasError());
+        assertNull(rejection.getNegotiatedSymmetricCipherType());
+    }
+
     @Test
     public void testEncryptDecryptMethodsNulls() {
         EncryptionManager encryptionManager = new EncryptionManager(encryptionConfig);
@@ -0,0 +1,57 @@
+package dev.mayuna.timestop.encryption;
+
+import dev.mayuna.timestop.managers.SymmetricKeyRing;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSymmetricKeyRing {
+
+    private static Key createKey(int seed) {
+        byte[] keyBytes = new byte[32];
+        keyBytes[0] = (byte) seed;
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    @Test
+    public void testRotation() {
+        SymmetricKeyRing symmetricKeyRing = new SymmetricKeyRing();
+        Key firstKey = createKey(1);
+        Key secondKey = createKey(2);
+
+        assertNull(symmetricKeyRing.getCurrentKey());
+
+        symmetricKeyRing.setKey(firstKey);
+        assertEquals(0, symmetricKeyRing.getCurrentEpoch());
+        assertSame(firstKey, symmetricKeyRing.getKey(0));
+
+        assertEquals(1, symmetricKeyRing.rotate(secondKey, 60_000));
+        assertSame(secondKey, symmetricKeyRing.getCurrentKey());
+        assertSame(secondKey, symmetricKeyRing.getKey(1));
+        assertSame(firstKey, symmetricKeyRing.getKey(0));
+        assertNull(symmetricKeyRing.getKey(2));
+
+        SymmetricKeyRing.EpochKey current = symmetricKeyRing.getCurrent();
+        assertEquals(1, current.getEpoch());
+        assertSame(secondKey, current.getKey());
+
+        // All previous keys within their grace period are kept
+        assertEquals(2, symmetricKeyRing.rotate(createKey(3), 60_000));
+        assertSame(firstKey, symmetricKeyRing.getKey(0));
+        assertSame(secondKey, symmetricKeyRing.getKey(1));
+    }
+
+    @Test
+    public void testGracePeriodElapsed() {
+        SymmetricKeyRing symmetricKeyRing = new SymmetricKeyRing();
+        symmetricKeyRing.setKey(createKey(1));
+        symmetricKeyRing.rotate(createKey(2), 5, 0);
+
+        assertEquals(5, symmetricKeyRing.getCurrentEpoch());
+        assertNull(symmetricKeyRing.getKey(0));
+        assertThrows(IllegalArgumentException.class, () -> symmetricKeyRing.rotate(createKey(3), 5, 0));
+    }
+}
@@ -0,0 +1,73 @@
+package dev.mayuna.timestop.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDirectBufferPool {
+
+    @Test
+    public void testAcquireRelease() {
+        DirectBufferPool bufferPool = new DirectBufferPool(1, Long.MAX_VALUE);
+
+        ByteBuffer buffer = bufferPool.acquire(1000);
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(1000, buffer.limit());
+        assertEquals(1024, buffer.capacity());
+
+        bufferPool.release(buffer);
+
+        // Same size class reuses the buffer
+        ByteBuffer reusedBuffer = bufferPool.acquire(600);
+        assertSame(buffer, reusedBuffer);
+        assertEquals(600, reusedBuffer.limit());
+
+        // Pool is empty now
+        assertNotSame(buffer, bufferPool.acquire(600));
+    }
+
+    @Test
+    public void testLimit() {
+        DirectBufferPool bufferPool = new DirectBufferPool(1, Long.MAX_VALUE);
+
+        ByteBuffer first = bufferPool.acquire(100);
+        ByteBuffer second = bufferPool.acquire(100);
+        bufferPool.release(first);
+        bufferPool.release(second);
+        bufferPool.release(ByteBuffer.allocate(128)); // Heap buffers are ignored
+
+        assertSame(first, bufferPool.acquire(100));
+        assertNotSame(second, bufferPool.acquire(100));
+    }
+
+    @Test
+    public void testPooledBytesLimit() {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, 1024);
+
+        ByteBuffer first = bufferPool.acquire(1000);
+        ByteBuffer second = bufferPool.acquire(1000);
+        bufferPool.release(first);
+        bufferPool.release(second); // Over the byte limit
+        assertEquals(1024, bufferPool.getPooledBytes());
+
+        assertSame(first, bufferPool.acquire(1000));
+        assertEquals(0, bufferPool.getPooledBytes());
+        assertNotSame(second, bufferPool.acquire(1000));
+    }
+
+    @Test
+    public void testClear() {
+        DirectBufferPool bufferPool = new DirectBufferPool(4, Long.MAX_VALUE);
+
+        ByteBuffer buffer = bufferPool.acquire(100);
+        bufferPool.release(buffer);
+        bufferPool.release(bufferPool.acquire(5000));
+        bufferPool.clear();
+
+        assertEquals(0, bufferPool.getPooledBytes());
+        assertNotSame(buffer, bufferPool.acquire(100));
+    }
+}
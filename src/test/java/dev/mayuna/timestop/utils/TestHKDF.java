@@ -0,0 +1,39 @@
+package dev.mayuna.timestop.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHKDF {
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new BigInteger("01" + hex, 16).toByteArray();
+        byte[] result = new byte[hex.length() / 2];
+        System.arraycopy(bytes, bytes.length - result.length, result, 0, result.length);
+        return result;
+    }
+
+    @Test
+    public void testRfc5869TestCase1() throws Exception {
+        byte[] inputKeyMaterial = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+        byte[] salt = hex("000102030405060708090a0b0c");
+        byte[] info = hex("f0f1f2f3f4f5f6f7f8f9");
+
+        assertArrayEquals(hex("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5"), HKDF.extract(salt, inputKeyMaterial));
+        assertArrayEquals(hex("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"), HKDF.derive(salt, inputKeyMaterial, info, 42));
+    }
+
+    @Test
+    public void testRfc5869TestCase3() throws Exception {
+        byte[] inputKeyMaterial = hex("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b");
+
+        assertArrayEquals(hex("8da4e775a563c18f715f802a063c5a31b8a11f5c5ee1879ec3454e5f3c738d2d9d201395faa4b61a96c8"), HKDF.derive(null, inputKeyMaterial, null, 42));
+    }
+
+    @Test
+    public void testInvalidLength() {
+        assertThrows(IllegalArgumentException.class, () -> HKDF.expand(new byte[32], null, 255 * 32 + 1));
+    }
+}
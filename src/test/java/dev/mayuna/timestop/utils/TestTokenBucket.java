@@ -0,0 +1,45 @@
+package dev.mayuna.timestop.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestTokenBucket {
+
+    @Test
+    public void testTryAcquire() {
+        TokenBucket tokenBucket = new TokenBucket(1, 3);
+
+        // Bucket starts full
+        assertTrue(tokenBucket.tryAcquire(1));
+        assertTrue(tokenBucket.tryAcquire(2));
+        assertFalse(tokenBucket.tryAcquire(1));
+        assertEquals(0, tokenBucket.getDelay());
+    }
+
+    @Test
+    public void testReserve() {
+        TokenBucket tokenBucket = new TokenBucket(10, 10);
+
+        assertEquals(0, tokenBucket.reserve(10));
+
+        // 5 tokens borrowed, refilled in half of a second
+        long delay = tokenBucket.reserve(5);
+        assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(400) && delay <= TimeUnit.MILLISECONDS.toNanos(500), "Delay was " + delay);
+        assertTrue(tokenBucket.getDelay() > 0);
+        assertFalse(tokenBucket.tryAcquire(1));
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        TokenBucket tokenBucket = new TokenBucket(1000, 10);
+
+        assertTrue(tokenBucket.tryAcquire(10));
+        assertFalse(tokenBucket.tryAcquire(1));
+
+        Thread.sleep(20);
+        assertTrue(tokenBucket.tryAcquire(10));
+    }
+}